@@ -0,0 +1,89 @@
+package com.blogspot.oraclestack.bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * In-memory database holding a parent feed table and a child entitlement table,
+ * the same layout ReconEventsGeneratorDatabaseSource reads from. The JDBC URL
+ * defaults to an H2 in-memory database and can be changed with the
+ * bench.jdbc.url system property (The driver jar must be on the classpath).
+ * @author rayedchan
+ */
+public final class EmbeddedDatabase
+{
+    public static final String JDBC_URL = System.getProperty("bench.jdbc.url", "jdbc:h2:mem:oimbench;DB_CLOSE_DELAY=-1");
+    public static final String PARENT_TABLE = "BENCH_USER_FEED";
+    public static final String CHILD_TABLE = "BENCH_USER_BADGE";
+    public static final String LINK_COLUMN = "USER_ID";
+
+    private EmbeddedDatabase()
+    {
+    }
+
+    /**
+     * Create and populate the feed tables. Existing tables are dropped first.
+     * @param numUsers      Number of rows in the parent table
+     * @param badgesPerUser Number of child rows per user
+     * @return Open connection to the database
+     * @throws SQLException
+     */
+    public static Connection create(int numUsers, int badgesPerUser) throws SQLException
+    {
+        Connection conn = DriverManager.getConnection(JDBC_URL, "sa", "");
+        Statement stmt = conn.createStatement();
+
+        try
+        {
+            stmt.execute("DROP TABLE IF EXISTS " + CHILD_TABLE);
+            stmt.execute("DROP TABLE IF EXISTS " + PARENT_TABLE);
+            stmt.execute("CREATE TABLE " + PARENT_TABLE + " (USER_ID VARCHAR(32) PRIMARY KEY, FIRST_NAME VARCHAR(64), LAST_NAME VARCHAR(64), EMAIL VARCHAR(128), PHONE VARCHAR(32))");
+            stmt.execute("CREATE TABLE " + CHILD_TABLE + " (USER_ID VARCHAR(32), BADGE_NAME VARCHAR(64), START_DATE VARCHAR(10))");
+            stmt.execute("CREATE INDEX " + CHILD_TABLE + "_IDX ON " + CHILD_TABLE + " (USER_ID)");
+        }
+
+        finally
+        {
+            stmt.close();
+        }
+
+        PreparedStatement parentPs = conn.prepareStatement("INSERT INTO " + PARENT_TABLE + " VALUES (?, ?, ?, ?, ?)");
+        PreparedStatement childPs = conn.prepareStatement("INSERT INTO " + CHILD_TABLE + " VALUES (?, ?, ?)");
+
+        try
+        {
+            for(int i = 0; i < numUsers; i++)
+            {
+                String userId = "BENCH" + i;
+                parentPs.setString(1, userId);
+                parentPs.setString(2, "First" + i);
+                parentPs.setString(3, "Last" + i);
+                parentPs.setString(4, userId.toLowerCase() + "@example.com");
+                parentPs.setString(5, "+1-555-555-" + String.format("%04d", i % 10000));
+                parentPs.addBatch();
+
+                for(int j = 0; j < badgesPerUser; j++)
+                {
+                    childPs.setString(1, userId);
+                    childPs.setString(2, "Badge" + j);
+                    childPs.setString(3, "2016-01-01");
+                    childPs.addBatch();
+                }
+            }
+
+            parentPs.executeBatch();
+            childPs.executeBatch();
+        }
+
+        finally
+        {
+            parentPs.close();
+            childPs.close();
+        }
+
+        return conn;
+    }
+}
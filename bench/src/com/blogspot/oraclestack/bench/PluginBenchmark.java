@@ -0,0 +1,71 @@
+package com.blogspot.oraclestack.bench;
+
+import com.blogspot.oraclestack.transformation.OpenLDAPReconciliationEventDataTransformer;
+import com.blogspot.oraclestack.validation.ReconciliationEventDataTelephoneNumberValidation;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the reconciliation transformation and validation plugins, which OIM
+ * calls once per field of every reconciliation event.
+ * @author rayedchan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PluginBenchmark
+{
+    private OpenLDAPReconciliationEventDataTransformer transformer;
+    private ReconciliationEventDataTelephoneNumberValidation validator;
+    private HashMap<String,Object> validParentData;
+    private HashMap<String,Object> invalidParentData;
+    private HashMap<String,Object> childData;
+
+    @Setup
+    public void setUp()
+    {
+        transformer = new OpenLDAPReconciliationEventDataTransformer();
+        validator = new ReconciliationEventDataTelephoneNumberValidation();
+
+        validParentData = new HashMap<String,Object>();
+        validParentData.put("First Name", "Taylor");
+        validParentData.put("Last Name", "Swift");
+        validParentData.put("Telephone Number", "+1-555-555-0100");
+
+        invalidParentData = new HashMap<String,Object>(validParentData);
+        invalidParentData.put("Telephone Number", "555 0100");
+
+        childData = new HashMap<String,Object>();
+    }
+
+    @Benchmark
+    public Object transform()
+    {
+        return transformer.transform(validParentData, childData, "Display Name");
+    }
+
+    @Benchmark
+    public boolean validateValid()
+    {
+        return validator.validate(validParentData, childData, "Telephone Number");
+    }
+
+    @Benchmark
+    public boolean validateInvalid()
+    {
+        return validator.validate(invalidParentData, childData, "Telephone Number");
+    }
+}
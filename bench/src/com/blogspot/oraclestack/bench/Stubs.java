@@ -0,0 +1,116 @@
+package com.blogspot.oraclestack.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-ins for OIM API services (E.g. UserManager, ReconOperationsService)
+ * so the benchmarks run without an OIM server. Every method returns the default
+ * value of its return type and only counts the call.
+ * @author rayedchan
+ */
+public final class Stubs
+{
+    // Number of calls made on every stub
+    private static final AtomicLong CALLS = new AtomicLong();
+
+    private Stubs()
+    {
+    }
+
+    /**
+     * Create a stub of an OIM API service interface
+     * @param serviceClass  Service interface (E.g. UserManager.class)
+     * @return Stub implementing the interface
+     */
+    public static <T> T stub(Class<T> serviceClass)
+    {
+        InvocationHandler handler = new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if(method.getDeclaringClass() == Object.class)
+                {
+                    if("equals".equals(method.getName()))
+                    {
+                        return proxy == args[0];
+                    }
+
+                    if("hashCode".equals(method.getName()))
+                    {
+                        return System.identityHashCode(proxy);
+                    }
+
+                    return "Stub of " + proxy.getClass().getInterfaces()[0].getName();
+                }
+
+                CALLS.incrementAndGet();
+                return defaultValue(method.getReturnType());
+            }
+        };
+
+        return serviceClass.cast(Proxy.newProxyInstance(serviceClass.getClassLoader(), new Class<?>[]{serviceClass}, handler));
+    }
+
+    /**
+     * Get the number of calls made on all stubs
+     * @return Number of calls
+     */
+    public static long getCallCount()
+    {
+        return CALLS.get();
+    }
+
+    /**
+     * Default value of a return type
+     * @param type  Return type
+     * @return null, false or zero
+     */
+    private static Object defaultValue(Class<?> type)
+    {
+        if(!type.isPrimitive() || type == void.class)
+        {
+            return null;
+        }
+
+        if(type == boolean.class)
+        {
+            return Boolean.FALSE;
+        }
+
+        if(type == char.class)
+        {
+            return Character.valueOf((char) 0);
+        }
+
+        if(type == long.class)
+        {
+            return Long.valueOf(0L);
+        }
+
+        if(type == float.class)
+        {
+            return Float.valueOf(0f);
+        }
+
+        if(type == double.class)
+        {
+            return Double.valueOf(0d);
+        }
+
+        if(type == byte.class)
+        {
+            return Byte.valueOf((byte) 0);
+        }
+
+        if(type == short.class)
+        {
+            return Short.valueOf((short) 0);
+        }
+
+        return Integer.valueOf(0);
+    }
+}
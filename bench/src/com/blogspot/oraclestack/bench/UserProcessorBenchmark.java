@@ -0,0 +1,54 @@
+package com.blogspot.oraclestack.bench;
+
+import com.blogspot.oraclestack.objects.UserProcessor;
+import java.util.concurrent.TimeUnit;
+import oracle.core.ojdl.logging.ODLLogger;
+import oracle.iam.identity.usermgmt.api.UserManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per row cost of UserProcessor (Split, map to a User and modify)
+ * with a stubbed UserManager.
+ * @author rayedchan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UserProcessorBenchmark
+{
+    private static final int NUM_LINES = 1024;
+
+    private String[] lines;
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        String[] header = {"User Login", "First Name", "Last Name", "Email", "Title", "Department Number"};
+        UserProcessor.initializeConfig(header, ",", ODLLogger.getODLLogger(UserProcessorBenchmark.class.getName()), Stubs.stub(UserManager.class), "User Login");
+        lines = new String[NUM_LINES];
+
+        for(int i = 0; i < NUM_LINES; i++)
+        {
+            lines[i] = "BENCH" + i + ",First" + i + ",Last" + i + ",bench" + i + "@example.com,Engineer," + (i % 100);
+        }
+    }
+
+    @Benchmark
+    public void run()
+    {
+        new UserProcessor(lines[next++ & (NUM_LINES - 1)]).run();
+    }
+}
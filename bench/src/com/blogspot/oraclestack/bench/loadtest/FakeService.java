@@ -0,0 +1,220 @@
+package com.blogspot.oraclestack.bench.loadtest;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Base of the in-memory OIM service stand-ins. A fake is a dynamic proxy of the
+ * service interface; every call goes through the FaultInjector and then answer(),
+ * which subclasses override for the methods they emulate. Other methods return an
+ * empty value of their return type (Empty collections, default constructed value
+ * objects, nested fakes for interfaces).
+ * @author rayedchan
+ */
+public class FakeService implements InvocationHandler
+{
+    protected final FaultInjector injector;
+
+    /**
+     * Constructor
+     * @param injector  Latency and failure injection applied to every call
+     */
+    public FakeService(FaultInjector injector)
+    {
+        this.injector = injector;
+    }
+
+    /**
+     * Create a fake of a service interface
+     * @param <T>           Type of the API service
+     * @param serviceClass  Interface of the API service (E.g. UserManager.class)
+     * @param handler       Answers the calls
+     * @return Fake service
+     */
+    public static <T> T create(Class<T> serviceClass, FakeService handler)
+    {
+        return serviceClass.cast(Proxy.newProxyInstance(serviceClass.getClassLoader(), new Class<?>[]{serviceClass}, handler));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        if(method.getDeclaringClass() == Object.class)
+        {
+            if("equals".equals(method.getName()))
+            {
+                return proxy == args[0];
+            }
+
+            if("hashCode".equals(method.getName()))
+            {
+                return System.identityHashCode(proxy);
+            }
+
+            return getClass().getSimpleName() + " for " + proxy.getClass().getInterfaces()[0].getSimpleName();
+        }
+
+        injector.beforeCall(method);
+        return answer(method, args == null ? new Object[0] : args);
+    }
+
+    /**
+     * Answer a call on the fake service
+     * @param method    Called method
+     * @param args      Arguments; never null
+     * @return Return value
+     * @throws Throwable
+     */
+    protected Object answer(Method method, Object[] args) throws Throwable
+    {
+        return emptyValue(method.getReturnType());
+    }
+
+    /**
+     * Build an empty value of a type
+     * @param type  Type of the value
+     * @return Empty value; null if none can be built
+     */
+    public static Object emptyValue(Class<?> type)
+    {
+        if(type == void.class)
+        {
+            return null;
+        }
+
+        if(type.isPrimitive())
+        {
+            return Array.get(Array.newInstance(type, 1), 0);
+        }
+
+        if(type.isArray())
+        {
+            return Array.newInstance(type.getComponentType(), 0);
+        }
+
+        if(Collection.class.isAssignableFrom(type) && type.isAssignableFrom(ArrayList.class))
+        {
+            return new ArrayList<Object>();
+        }
+
+        if(type.isAssignableFrom(HashSet.class) && Set.class.isAssignableFrom(type))
+        {
+            return new HashSet<Object>();
+        }
+
+        if(type.isAssignableFrom(HashMap.class) && Map.class.isAssignableFrom(type))
+        {
+            return new HashMap<Object,Object>();
+        }
+
+        if(type == String.class || type.getName().startsWith("java."))
+        {
+            return null;
+        }
+
+        if(type.isInterface())
+        {
+            return create(type, new FakeService(FaultInjector.NONE));
+        }
+
+        return newInstance(type);
+    }
+
+    /**
+     * Create an instance of a value object using the constructor with the fewest
+     * parameters, passing empty values
+     * @param type  Class of the value object
+     * @return New instance; null if no constructor can be used
+     */
+    public static Object newInstance(Class<?> type)
+    {
+        Constructor<?> best = null;
+
+        for(Constructor<?> constructor : type.getConstructors())
+        {
+            if(best == null || constructor.getParameterTypes().length < best.getParameterTypes().length)
+            {
+                best = constructor;
+            }
+        }
+
+        if(best == null)
+        {
+            return null;
+        }
+
+        Class<?>[] paramTypes = best.getParameterTypes();
+        Object[] params = new Object[paramTypes.length];
+
+        for(int i = 0; i < paramTypes.length; i++)
+        {
+            params[i] = paramTypes[i].isPrimitive() ? emptyValue(paramTypes[i]) : null;
+        }
+
+        try
+        {
+            return best.newInstance(params);
+        }
+
+        catch(InstantiationException e)
+        {
+            return null;
+        }
+
+        catch(IllegalAccessException e)
+        {
+            return null;
+        }
+
+        catch(InvocationTargetException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Build an exception declared by a method, so callers get the exception type
+     * they expect from OIM
+     * @param method            Called method
+     * @param preferredType     Simple name of the exception to prefer (E.g. NoSuchUserException); null for the first declared
+     * @param message           Exception message
+     * @return Declared exception if one has a String constructor; IllegalStateException otherwise
+     */
+    public static Throwable newException(Method method, String preferredType, String message)
+    {
+        Class<?>[] exceptionTypes = method.getExceptionTypes();
+
+        for(int pass = 0; pass < 2; pass++)
+        {
+            for(Class<?> exceptionType : exceptionTypes)
+            {
+                if(pass == 0 && preferredType != null && !exceptionType.getSimpleName().equals(preferredType))
+                {
+                    continue;
+                }
+
+                try
+                {
+                    return (Throwable) exceptionType.getConstructor(String.class).newInstance(message);
+                }
+
+                catch(Exception e)
+                {
+                    // No usable String constructor; try the next declared exception
+                }
+            }
+        }
+
+        return new IllegalStateException(message);
+    }
+}
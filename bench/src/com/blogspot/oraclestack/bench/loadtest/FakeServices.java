@@ -0,0 +1,312 @@
+package com.blogspot.oraclestack.bench.loadtest;
+
+import Thor.API.Operations.TaskDefinitionOperationsIntf;
+import Thor.API.Operations.tcLookupOperationsIntf;
+import Thor.API.Operations.tcProvisioningOperationsIntf;
+import Thor.API.tcResultSet;
+import com.blogspot.oraclestack.services.PlatformServices;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import oracle.iam.identity.usermgmt.api.UserManager;
+import oracle.iam.identity.usermgmt.vo.User;
+import oracle.iam.platform.entitymgr.EntityManager;
+import oracle.iam.platform.entitymgr.vo.SearchCriteria;
+import oracle.iam.provisioning.api.ProvisioningService;
+import oracle.iam.reconciliation.api.InputData;
+import oracle.iam.reconciliation.api.ReconOperationsService;
+
+/**
+ * In-memory stand-ins of the OIM services used by the event handlers and scheduled
+ * tasks. registerAll() makes PlatformServices return them, so handlers and tasks
+ * run unchanged without an OIM server.
+ * @author rayedchan
+ */
+public final class FakeServices
+{
+    // Number of reconciliation events received by the fake ReconOperationsService
+    private static final AtomicLong RECON_EVENTS = new AtomicLong();
+
+    private FakeServices()
+    {
+    }
+
+    /**
+     * Register every fake with PlatformServices. Must be called before the handler
+     * or task classes are loaded since some keep their services in static fields.
+     * @param store     Users seen by UserManager and EntityManager
+     * @param lookups   Lookup definitions; Key = Lookup name, Value = {Key = Code Key, Value = Decode}
+     * @param injector  Latency and failure injection
+     */
+    public static void registerAll(FakeUserStore store, Map<String,Map<String,String>> lookups, FaultInjector injector)
+    {
+        PlatformServices.register(UserManager.class, userManager(store, injector));
+        PlatformServices.register(EntityManager.class, entityManager(store, injector));
+        PlatformServices.register(ReconOperationsService.class, reconOperationsService(injector));
+        PlatformServices.register(tcLookupOperationsIntf.class, lookupOperations(lookups, injector));
+        PlatformServices.register(ProvisioningService.class, FakeService.create(ProvisioningService.class, new FakeService(injector)));
+        PlatformServices.register(tcProvisioningOperationsIntf.class, FakeService.create(tcProvisioningOperationsIntf.class, new FakeService(injector)));
+        PlatformServices.register(TaskDefinitionOperationsIntf.class, FakeService.create(TaskDefinitionOperationsIntf.class, new FakeService(injector)));
+    }
+
+    /**
+     * Get the number of reconciliation events received by the fake ReconOperationsService
+     * @return Number of events
+     */
+    public static long getReconEventCount()
+    {
+        return RECON_EVENTS.get();
+    }
+
+    /**
+     * Fake UserManager: getDetails, search, create and modify work on the store
+     * @param store     Users
+     * @param injector  Latency and failure injection
+     * @return Fake service
+     */
+    public static UserManager userManager(final FakeUserStore store, FaultInjector injector)
+    {
+        return FakeService.create(UserManager.class, new FakeService(injector)
+        {
+            @Override
+            protected Object answer(Method method, Object[] args) throws Throwable
+            {
+                String name = method.getName();
+
+                if("getDetails".equals(name) && args.length == 3)
+                {
+                    // getDetails(String id, Set attrs, boolean isUserLogin) or getDetails(String attrName, Object value, Set attrs)
+                    User user = args[2] instanceof Boolean
+                        ? (((Boolean) args[2]) ? store.getByLogin((String) args[0]) : store.getByKey((String) args[0]))
+                        : store.getByAttribute((String) args[0], args[1]);
+
+                    if(user == null)
+                    {
+                        throw FakeService.newException(method, "NoSuchUserException", "No user for " + args[0] + " " + args[1]);
+                    }
+
+                    return user;
+                }
+
+                if("search".equals(name) && args.length > 0 && args[0] instanceof SearchCriteria)
+                {
+                    return search(store, (SearchCriteria) args[0]);
+                }
+
+                if("create".equals(name) && args.length == 1 && args[0] instanceof User)
+                {
+                    User user = (User) args[0];
+                    String userKey = String.valueOf(store.size() + 1000000);
+                    store.add(new User(userKey, new HashMap<String,Object>(user.getAttributes())));
+                    return FakeService.emptyValue(method.getReturnType());
+                }
+
+                if("modify".equals(name) && args.length > 0 && args[args.length - 1] instanceof User)
+                {
+                    // modify(User) or modify(String attrName, Object value, User)
+                    User modUser = (User) args[args.length - 1];
+                    User target = args.length == 3 ? store.getByAttribute((String) args[0], args[1]) : store.getByKey(modUser.getEntityId());
+
+                    if(target == null)
+                    {
+                        throw FakeService.newException(method, "NoSuchUserException", "No user for " + (args.length == 3 ? args[1] : modUser.getEntityId()));
+                    }
+
+                    store.modify(target.getEntityId(), modUser.getAttributes());
+                    return FakeService.emptyValue(method.getReturnType());
+                }
+
+                return super.answer(method, args);
+            }
+        });
+    }
+
+    /**
+     * Fake EntityManager: modifyEntity on users updates the store
+     * @param store     Users
+     * @param injector  Latency and failure injection
+     * @return Fake service
+     */
+    @SuppressWarnings("unchecked")
+    public static EntityManager entityManager(final FakeUserStore store, FaultInjector injector)
+    {
+        return FakeService.create(EntityManager.class, new FakeService(injector)
+        {
+            @Override
+            protected Object answer(Method method, Object[] args) throws Throwable
+            {
+                if("modifyEntity".equals(method.getName()) && args.length == 3 && args[2] instanceof Map)
+                {
+                    if(store.modify(String.valueOf(args[1]), (Map<String,Object>) args[2]) == null)
+                    {
+                        throw FakeService.newException(method, "NoSuchEntityException", "No entity " + args[0] + " " + args[1]);
+                    }
+
+                    return null;
+                }
+
+                return super.answer(method, args);
+            }
+        });
+    }
+
+    /**
+     * Fake ReconOperationsService: counts the events it receives
+     * @param injector  Latency and failure injection
+     * @return Fake service
+     */
+    public static ReconOperationsService reconOperationsService(FaultInjector injector)
+    {
+        return FakeService.create(ReconOperationsService.class, new FakeService(injector)
+        {
+            @Override
+            protected Object answer(Method method, Object[] args) throws Throwable
+            {
+                if("createReconciliationEvents".equals(method.getName()) && args.length == 2 && args[1] instanceof InputData[])
+                {
+                    RECON_EVENTS.addAndGet(((InputData[]) args[1]).length);
+                }
+
+                else if("createReconciliationEvent".equals(method.getName()))
+                {
+                    return method.getReturnType() == long.class ? Long.valueOf(RECON_EVENTS.incrementAndGet()) : super.answer(method, args);
+                }
+
+                return super.answer(method, args);
+            }
+        });
+    }
+
+    /**
+     * Fake tcLookupOperationsIntf: getLookupValues reads the given lookups
+     * @param lookups   Key = Lookup name, Value = {Key = Code Key, Value = Decode}
+     * @param injector  Latency and failure injection
+     * @return Fake service
+     */
+    public static tcLookupOperationsIntf lookupOperations(final Map<String,Map<String,String>> lookups, FaultInjector injector)
+    {
+        return FakeService.create(tcLookupOperationsIntf.class, new FakeService(injector)
+        {
+            @Override
+            protected Object answer(Method method, Object[] args) throws Throwable
+            {
+                if("getLookupValues".equals(method.getName()) && args.length == 1)
+                {
+                    Map<String,String> lookup = lookups.get((String) args[0]);
+
+                    if(lookup == null)
+                    {
+                        throw FakeService.newException(method, "tcInvalidLookupException", "No lookup " + args[0]);
+                    }
+
+                    return lookupResultSet(lookup);
+                }
+
+                return super.answer(method, args);
+            }
+        });
+    }
+
+    /**
+     * Build a tcResultSet over lookup values. Like the OIM one, it has a current row
+     * and must not be shared by threads.
+     * @param lookup    Key = Code Key, Value = Decode
+     * @return Result set with the Code Key and Decode columns
+     */
+    private static tcResultSet lookupResultSet(Map<String,String> lookup)
+    {
+        final List<String[]> rows = new ArrayList<String[]>();
+
+        for(Map.Entry<String,String> entry : lookup.entrySet())
+        {
+            rows.add(new String[]{entry.getKey(), entry.getValue()});
+        }
+
+        return FakeService.create(tcResultSet.class, new FakeService(FaultInjector.NONE)
+        {
+            private int row = 0;
+
+            @Override
+            protected Object answer(Method method, Object[] args) throws Throwable
+            {
+                String name = method.getName();
+
+                if("getTotalRowCount".equals(name) || "getRowCount".equals(name))
+                {
+                    return rows.size();
+                }
+
+                if("isEmpty".equals(name))
+                {
+                    return rows.isEmpty();
+                }
+
+                if("goToRow".equals(name))
+                {
+                    row = (Integer) args[0];
+                    return null;
+                }
+
+                if("getStringValue".equals(name) && args[0] instanceof String)
+                {
+                    String column = (String) args[0];
+                    return column.endsWith("Code Key") ? rows.get(row)[0] : column.endsWith("Decode") ? rows.get(row)[1] : null;
+                }
+
+                return super.answer(method, args);
+            }
+        });
+    }
+
+    /**
+     * Evaluate simple search criteria (EQUAL or IN on one attribute) against the store.
+     * Other criteria return every user.
+     * @param store     Users
+     * @param criteria  Search criteria
+     * @return Matching users
+     */
+    private static List<User> search(FakeUserStore store, SearchCriteria criteria)
+    {
+        Object attr = criteria.getFirstArgument();
+        Object value = criteria.getSecondArgument();
+        List<User> matches = new ArrayList<User>();
+
+        if(!(attr instanceof String))
+        {
+            return store.getAll();
+        }
+
+        if(SearchCriteria.Operator.IN.equals(criteria.getOperator()) && value instanceof Collection)
+        {
+            for(Object element : (Collection<?>) value)
+            {
+                User user = store.getByAttribute((String) attr, element);
+
+                if(user != null)
+                {
+                    matches.add(user);
+                }
+            }
+
+            return matches;
+        }
+
+        if(SearchCriteria.Operator.EQUAL.equals(criteria.getOperator()))
+        {
+            User user = store.getByAttribute((String) attr, value);
+
+            if(user != null)
+            {
+                matches.add(user);
+            }
+
+            return matches;
+        }
+
+        return store.getAll();
+    }
+}
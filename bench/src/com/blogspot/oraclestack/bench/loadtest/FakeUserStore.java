@@ -0,0 +1,163 @@
+package com.blogspot.oraclestack.bench.loadtest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import oracle.iam.identity.usermgmt.api.UserManagerConstants;
+import oracle.iam.identity.usermgmt.vo.User;
+
+/**
+ * In-memory user table backing the fake UserManager and EntityManager.
+ * Users are kept by USR_KEY with an index on upper case User Login. Thread safe.
+ * @author rayedchan
+ */
+public class FakeUserStore
+{
+    private final ConcurrentHashMap<String,User> usersByKey = new ConcurrentHashMap<String,User>();
+    private final ConcurrentHashMap<String,String> keysByLogin = new ConcurrentHashMap<String,String>();
+    private final AtomicLong nextKey = new AtomicLong(1L);
+    private final AtomicLong modifications = new AtomicLong();
+
+    /**
+     * Create synthetic users. Every tenth user is the manager of the next nine.
+     * @param numUsers  Number of users to create
+     * @return USR_KEY of the created users
+     */
+    public List<String> createUsers(int numUsers)
+    {
+        List<String> userKeys = new ArrayList<String>(numUsers);
+        String managerKey = null;
+
+        for(int i = 0; i < numUsers; i++)
+        {
+            String userKey = String.valueOf(nextKey.getAndIncrement());
+            HashMap<String,Object> attrs = new HashMap<String,Object>();
+            attrs.put(UserManagerConstants.AttributeName.USER_KEY.getId(), userKey);
+            attrs.put(UserManagerConstants.AttributeName.USER_LOGIN.getId(), "LOADUSER" + userKey);
+            attrs.put(UserManagerConstants.AttributeName.FIRSTNAME.getId(), "Load");
+            attrs.put(UserManagerConstants.AttributeName.LASTNAME.getId(), "User" + userKey);
+            attrs.put(UserManagerConstants.AttributeName.EMPTYPE.getId(), "Full-Time");
+
+            if(i % 10 == 0)
+            {
+                managerKey = userKey;
+            }
+
+            else
+            {
+                attrs.put(UserManagerConstants.AttributeName.MANAGER_KEY.getId(), managerKey);
+            }
+
+            add(new User(userKey, attrs));
+            userKeys.add(userKey);
+        }
+
+        return userKeys;
+    }
+
+    /**
+     * Add or replace a user
+     * @param user  User with USR_KEY as entity id
+     */
+    public void add(User user)
+    {
+        usersByKey.put(user.getEntityId(), user);
+        keysByLogin.put(String.valueOf(user.getLogin()).toUpperCase(), user.getEntityId());
+    }
+
+    /**
+     * Get a user by USR_KEY
+     * @param userKey   USR_KEY
+     * @return User or null
+     */
+    public User getByKey(String userKey)
+    {
+        return usersByKey.get(userKey);
+    }
+
+    /**
+     * Get a user by User Login
+     * @param userLogin User Login; case insensitive
+     * @return User or null
+     */
+    public User getByLogin(String userLogin)
+    {
+        String userKey = userLogin == null ? null : keysByLogin.get(userLogin.toUpperCase());
+        return userKey == null ? null : usersByKey.get(userKey);
+    }
+
+    /**
+     * Get a user by an attribute value
+     * @param attrName  Attribute name
+     * @param value     Attribute value
+     * @return First matching user or null
+     */
+    public User getByAttribute(String attrName, Object value)
+    {
+        if(UserManagerConstants.AttributeName.USER_LOGIN.getId().equals(attrName))
+        {
+            return getByLogin(String.valueOf(value));
+        }
+
+        if(UserManagerConstants.AttributeName.USER_KEY.getId().equals(attrName))
+        {
+            return getByKey(String.valueOf(value));
+        }
+
+        for(User user : usersByKey.values())
+        {
+            if(value != null && value.equals(user.getAttribute(attrName)))
+            {
+                return user;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get every user
+     * @return Users
+     */
+    public List<User> getAll()
+    {
+        return new ArrayList<User>(usersByKey.values());
+    }
+
+    /**
+     * Apply attribute changes to a user. The stored user is replaced, never changed
+     * in place, so readers holding the previous object are not affected.
+     * @param userKey   USR_KEY
+     * @param attrs     Attributes to set
+     * @return Updated user or null if there is no such user
+     */
+    public User modify(String userKey, Map<String,Object> attrs)
+    {
+        User current = usersByKey.get(userKey);
+
+        if(current == null)
+        {
+            return null;
+        }
+
+        HashMap<String,Object> newAttrs = new HashMap<String,Object>(current.getAttributes());
+        newAttrs.putAll(attrs);
+        User updated = new User(userKey, newAttrs);
+        add(updated);
+        modifications.incrementAndGet();
+        return updated;
+    }
+
+    public int size()
+    {
+        return usersByKey.size();
+    }
+
+    public long getModificationCount()
+    {
+        return modifications.get();
+    }
+}
@@ -0,0 +1,86 @@
+package com.blogspot.oraclestack.bench.loadtest;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds latency and random failures to the calls made on the fake OIM services.
+ * Latency is the base latency plus a uniform random jitter. A failure throws the
+ * first checked exception declared by the called method (E.g. UserModifyException)
+ * so handlers see the same exception types as against a real OIM. Thread safe.
+ * @author rayedchan
+ */
+public class FaultInjector
+{
+    // No latency and no failures
+    public static final FaultInjector NONE = new FaultInjector(0L, 0L, 0.0);
+
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double failureRate;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private final ThreadLocal<Random> random = new ThreadLocal<Random>()
+    {
+        @Override
+        protected Random initialValue()
+        {
+            return new Random();
+        }
+    };
+
+    /**
+     * Constructor
+     * @param latencyMillis Latency added to every call
+     * @param jitterMillis  Maximum random latency added on top of the base latency
+     * @param failureRate   Fraction of calls which fail (0.0 to 1.0)
+     */
+    public FaultInjector(long latencyMillis, long jitterMillis, double failureRate)
+    {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Called before a fake service method runs. Sleeps for the latency and
+     * throws if the call is chosen to fail.
+     * @param method    Called method
+     * @throws Throwable Injected failure
+     */
+    public void beforeCall(Method method) throws Throwable
+    {
+        calls.incrementAndGet();
+        Random rnd = random.get();
+        long sleepMillis = latencyMillis + (jitterMillis > 0 ? (long) (rnd.nextDouble() * (jitterMillis + 1)) : 0L);
+
+        if(sleepMillis > 0)
+        {
+            Thread.sleep(sleepMillis);
+        }
+
+        if(failureRate > 0.0 && rnd.nextDouble() < failureRate)
+        {
+            failures.incrementAndGet();
+            throw FakeService.newException(method, null, "Injected failure in " + method.getDeclaringClass().getSimpleName() + "." + method.getName());
+        }
+    }
+
+    public long getCallCount()
+    {
+        return calls.get();
+    }
+
+    public long getFailureCount()
+    {
+        return failures.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Latency = " + latencyMillis + " ms (+" + jitterMillis + " ms jitter), Failure Rate = " + failureRate + ", Calls = " + calls.get() + ", Injected Failures = " + failures.get();
+    }
+}
@@ -0,0 +1,313 @@
+package com.blogspot.oraclestack.bench.loadtest;
+
+import com.blogspot.oraclestack.bench.EmbeddedDatabase;
+import com.blogspot.oraclestack.eventhandlers.BulkModifyUserEHPostProcess;
+import com.blogspot.oraclestack.eventhandlers.UserLifecyclePostprocessEH;
+import com.blogspot.oraclestack.eventhandlers.UserLockPreprocessEH;
+import com.blogspot.oraclestack.scheduledtasks.FlatFileUserModification;
+import com.blogspot.oraclestack.scheduledtasks.ReconEventsGeneratorDatabaseSource;
+import com.blogspot.oraclestack.services.LatencyHistogram;
+import com.blogspot.oraclestack.services.PlatformServices;
+import com.blogspot.oraclestack.services.ServiceMetrics;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import oracle.iam.identity.usermgmt.api.UserManagerConstants;
+import oracle.iam.identity.usermgmt.vo.User;
+import oracle.iam.platform.kernel.vo.BulkOrchestration;
+
+/**
+ * Command line load driver which replays synthetic events against the event
+ * handlers and scheduled tasks with the in-memory OIM service stand-ins.
+ * Usage: LoadDriver scenario=lock|lifecycle|bulkModify|recon|flatFile [users=10000]
+ * [events=200] [bulkSize=50] [threads=4] [latencyMs=0] [jitterMs=0] [failureRate=0.0]
+ * Run with -Doimutilities.metrics.enabled=true to also print per method service metrics.
+ * @author rayedchan
+ */
+public class LoadDriver
+{
+    public static void main(String[] args) throws Exception
+    {
+        // Allow the fakes to replace the OIM services; must be set before PlatformServices is loaded
+        System.setProperty(PlatformServices.LOAD_TEST_PROPERTY, "true");
+        Map<String,String> options = new HashMap<String,String>();
+        options.put("scenario", "lock");
+        options.put("users", "10000");
+        options.put("events", "200");
+        options.put("bulkSize", "50");
+        options.put("threads", "4");
+        options.put("latencyMs", "0");
+        options.put("jitterMs", "0");
+        options.put("failureRate", "0.0");
+
+        for(String arg : args)
+        {
+            int sep = arg.indexOf('=');
+
+            if(sep <= 0 || !options.containsKey(arg.substring(0, sep)))
+            {
+                System.err.println("Unknown option: " + arg + ". Options: " + options.keySet());
+                System.exit(2);
+            }
+
+            options.put(arg.substring(0, sep), arg.substring(sep + 1));
+        }
+
+        String scenario = options.get("scenario");
+        int numUsers = Integer.parseInt(options.get("users"));
+        int numEvents = Integer.parseInt(options.get("events"));
+        int bulkSize = Integer.parseInt(options.get("bulkSize"));
+        int numThreads = Integer.parseInt(options.get("threads"));
+        FaultInjector injector = new FaultInjector(Long.parseLong(options.get("latencyMs")), Long.parseLong(options.get("jitterMs")), Double.parseDouble(options.get("failureRate")));
+        System.out.println("Options: " + options);
+
+        // Register the fakes before any handler or task class is loaded
+        FakeUserStore store = new FakeUserStore();
+        List<String> userKeys = store.createUsers(numUsers);
+        FakeServices.registerAll(store, lookups(), injector);
+
+        long start = System.nanoTime();
+        long entities;
+
+        if("recon".equals(scenario))
+        {
+            entities = runRecon(numUsers);
+        }
+
+        else if("flatFile".equals(scenario))
+        {
+            entities = runFlatFile(store, numThreads);
+        }
+
+        else
+        {
+            entities = runBulkEvents(scenario, store, userKeys, numEvents, bulkSize, numThreads);
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        System.out.println("Entities processed: " + entities);
+        System.out.println("Elapsed: " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms");
+        System.out.println("Throughput: " + String.format("%.1f", entities * 1e9 / Math.max(1L, elapsedNanos)) + " entities/s");
+        System.out.println("Fake services: " + injector + ", User modifications = " + store.getModificationCount() + ", Recon events = " + FakeServices.getReconEventCount());
+
+        if(ServiceMetrics.ENABLED)
+        {
+            System.out.println(ServiceMetrics.getInstance().getSnapshot());
+        }
+    }
+
+    /**
+     * Replay bulk user events against an event handler from a thread pool
+     * @return Number of users in the events
+     */
+    private static long runBulkEvents(String scenario, final FakeUserStore store, final List<String> userKeys, int numEvents, final int bulkSize, int numThreads) throws Exception
+    {
+        final String operation;
+        final HashMap<String,Serializable> params = new HashMap<String,Serializable>();
+        final BulkHandler handler;
+
+        if("lock".equals(scenario))
+        {
+            operation = "LOCK";
+            final UserLockPreprocessEH eventHandler = new UserLockPreprocessEH();
+            eventHandler.initialize(new HashMap<String,String>());
+            handler = new BulkHandler()
+            {
+                public void execute(long processId, long eventId, BulkOrchestration orchestration)
+                {
+                    eventHandler.execute(processId, eventId, orchestration);
+                }
+            };
+        }
+
+        else if("lifecycle".equals(scenario))
+        {
+            operation = "LOCK";
+            final UserLifecyclePostprocessEH eventHandler = new UserLifecyclePostprocessEH();
+            eventHandler.initialize(new HashMap<String,String>());
+            handler = new BulkHandler()
+            {
+                public void execute(long processId, long eventId, BulkOrchestration orchestration)
+                {
+                    eventHandler.execute(processId, eventId, orchestration);
+                }
+            };
+        }
+
+        else if("bulkModify".equals(scenario))
+        {
+            operation = "MODIFY";
+            params.put(UserManagerConstants.AttributeName.TITLE.getId(), "Load Test");
+            final BulkModifyUserEHPostProcess eventHandler = new BulkModifyUserEHPostProcess();
+            eventHandler.initialize(new HashMap<String,String>());
+            handler = new BulkHandler()
+            {
+                public void execute(long processId, long eventId, BulkOrchestration orchestration)
+                {
+                    eventHandler.execute(processId, eventId, orchestration);
+                }
+            };
+        }
+
+        else
+        {
+            throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong failedEvents = new AtomicLong();
+        final AtomicLong entities = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+
+        for(int i = 0; i < numEvents; i++)
+        {
+            final long eventId = i + 1;
+            final int from = (int) ((i * (long) bulkSize) % Math.max(1, userKeys.size() - bulkSize + 1));
+
+            pool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    List<String> eventUsers = userKeys.subList(from, Math.min(from + bulkSize, userKeys.size()));
+                    BulkOrchestration orchestration = Orchestrations.newBulkOrchestration(operation, store, eventUsers, params);
+                    long start = System.nanoTime();
+
+                    try
+                    {
+                        handler.execute(eventId, eventId, orchestration);
+                        entities.addAndGet(eventUsers.size());
+                    }
+
+                    catch(RuntimeException e)
+                    {
+                        failedEvents.incrementAndGet();
+                    }
+
+                    finally
+                    {
+                        latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                    }
+                }
+            });
+        }
+
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        System.out.println("Events: " + numEvents + ", Failed events: " + failedEvents.get());
+        System.out.println("Event latency (us): p50 = " + latency.getValueAtPercentile(50.0) + ", p90 = " + latency.getValueAtPercentile(90.0) + ", p99 = " + latency.getValueAtPercentile(99.0));
+        return entities.get();
+    }
+
+    /**
+     * Run the database reconciliation scheduled task against the embedded database
+     * @return Number of reconciliation events sent
+     */
+    private static long runRecon(int numUsers) throws Exception
+    {
+        EmbeddedDatabase.create(numUsers, 2).close();
+        ReconEventsGeneratorDatabaseSource task = new ReconEventsGeneratorDatabaseSource()
+        {
+            @Override
+            protected Connection getDatabaseConnection(String jndiName) throws SQLException
+            {
+                return DriverManager.getConnection(EmbeddedDatabase.JDBC_URL, "sa", "");
+            }
+        };
+
+        HashMap<String,Object> params = new HashMap<String,Object>();
+        params.put("Data Source", "jdbc/LoadTest");
+        params.put("Resource Object Name", "Load Test Trusted User");
+        params.put("Table Name", EmbeddedDatabase.PARENT_TABLE);
+        params.put("Ignore Duplicate Event", Boolean.TRUE);
+        params.put("Mapping Lookup", "Lookup.LoadTest.ReconAttrMap");
+        params.put("IT Resource Name", "");
+        params.put("Link Column Name", EmbeddedDatabase.LINK_COLUMN);
+
+        long before = FakeServices.getReconEventCount();
+        task.execute(params);
+        return FakeServices.getReconEventCount() - before;
+    }
+
+    /**
+     * Run the flat file user modification scheduled task on a generated CSV file
+     * @return Number of rows in the file
+     */
+    private static long runFlatFile(FakeUserStore store, int numThreads) throws Exception
+    {
+        File csvFile = File.createTempFile("oimloadtest", ".csv");
+        csvFile.deleteOnExit();
+        BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile));
+        long rows = 0;
+
+        try
+        {
+            writer.write("User Login,Title,Department Number");
+            writer.newLine();
+
+            for(User user : store.getAll())
+            {
+                writer.write(user.getLogin() + ",Load Test," + (rows % 100));
+                writer.newLine();
+                rows++;
+            }
+        }
+
+        finally
+        {
+            writer.close();
+        }
+
+        HashMap<String,Object> params = new HashMap<String,Object>();
+        params.put("Key Attribute Name", "User Login");
+        params.put("File Path", csvFile.getAbsolutePath());
+        params.put("Delimiter", ",");
+        params.put("Number of Threads", Long.valueOf(numThreads));
+        new FlatFileUserModification().execute(params);
+        return rows;
+    }
+
+    /**
+     * Lookups read by the handlers and tasks
+     * @return Key = Lookup name, Value = {Key = Code Key, Value = Decode}
+     */
+    private static Map<String,Map<String,String>> lookups()
+    {
+        Map<String,Map<String,String>> lookups = new HashMap<String,Map<String,String>>();
+
+        Map<String,String> lockTasks = new LinkedHashMap<String,String>();
+        lockTasks.put("LDAP", "Lock User");
+        lockTasks.put("Active Directory", "Lock User,Update Description");
+        lookups.put("Lookup.User.Lock.AppInstDisplayNameToProcessTasks", lockTasks);
+
+        Map<String,String> reconAttrMap = new LinkedHashMap<String,String>();
+        reconAttrMap.put("User Login", "USER_ID");
+        reconAttrMap.put("First Name", "FIRST_NAME");
+        reconAttrMap.put("Last Name", "LAST_NAME");
+        reconAttrMap.put("Email", "EMAIL");
+        reconAttrMap.put("Badges~Name", EmbeddedDatabase.CHILD_TABLE + "~BADGE_NAME");
+        lookups.put("Lookup.LoadTest.ReconAttrMap", reconAttrMap);
+
+        return lookups;
+    }
+
+    /**
+     * Bulk execute of an event handler
+     */
+    private interface BulkHandler
+    {
+        void execute(long processId, long eventId, BulkOrchestration orchestration);
+    }
+}
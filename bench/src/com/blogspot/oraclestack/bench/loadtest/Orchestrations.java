@@ -0,0 +1,139 @@
+package com.blogspot.oraclestack.bench.loadtest;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import oracle.iam.identity.usermgmt.vo.User;
+import oracle.iam.identity.vo.Identity;
+import oracle.iam.platform.kernel.vo.BulkOrchestration;
+import oracle.iam.platform.kernel.vo.Orchestration;
+import oracle.iam.platform.kernel.vo.OrchestrationTarget;
+
+/**
+ * Builds Orchestration and BulkOrchestration objects for user operations the way
+ * the OIM kernel passes them to event handlers: target user keys, parameters and
+ * inter-event data holding CURRENT_USER and NEW_USER_STATE.
+ * @author rayedchan
+ */
+public final class Orchestrations
+{
+    // Inter-event data keys used by the user operations
+    public static final String CURRENT_USER = "CURRENT_USER";
+    public static final String NEW_USER_STATE = "NEW_USER_STATE";
+
+    // Target type of user orchestrations
+    public static final String USER_TARGET_TYPE = "User";
+
+    private Orchestrations()
+    {
+    }
+
+    /**
+     * Build a single user orchestration
+     * @param operation Operation (E.g. MODIFY, LOCK)
+     * @param store     Users
+     * @param userKey   USR_KEY of the target user
+     * @param params    Orchestration parameters (Attributes changed by the operation)
+     * @return Orchestration
+     */
+    public static Orchestration newOrchestration(String operation, FakeUserStore store, String userKey, HashMap<String,Serializable> params)
+    {
+        User current = store.getByKey(userKey);
+        HashMap<String,Serializable> interEventData = new HashMap<String,Serializable>();
+        interEventData.put(CURRENT_USER, current);
+        interEventData.put(NEW_USER_STATE, newState(userKey, current, params));
+
+        Orchestration orchestration = new Orchestration();
+        orchestration.setOperation(operation);
+        orchestration.setTarget(userTarget(new String[]{userKey}));
+        orchestration.setParameters(new HashMap<String,Serializable>(params));
+        orchestration.setInterEventData(interEventData);
+        return orchestration;
+    }
+
+    /**
+     * Build a bulk user orchestration where every user gets the same parameters
+     * @param operation Operation (E.g. MODIFY, LOCK)
+     * @param store     Users
+     * @param userKeys  USR_KEY of the target users
+     * @param params    Orchestration parameters applied to every user
+     * @return Bulk orchestration
+     */
+    @SuppressWarnings("unchecked")
+    public static BulkOrchestration newBulkOrchestration(String operation, FakeUserStore store, List<String> userKeys, HashMap<String,Serializable> params)
+    {
+        int numUsers = userKeys.size();
+        String[] entityIds = userKeys.toArray(new String[numUsers]);
+        HashMap<String,Serializable>[] bulkParameters = new HashMap[numUsers];
+        Identity[] currentUsers = new Identity[numUsers];
+        Identity[] newUsers = new Identity[numUsers];
+
+        for(int i = 0; i < numUsers; i++)
+        {
+            User current = store.getByKey(entityIds[i]);
+            bulkParameters[i] = new HashMap<String,Serializable>(params);
+            currentUsers[i] = current;
+            newUsers[i] = newState(entityIds[i], current, params);
+        }
+
+        HashMap<String,Serializable> interEventData = new HashMap<String,Serializable>();
+        interEventData.put(CURRENT_USER, currentUsers);
+        interEventData.put(NEW_USER_STATE, newUsers);
+
+        BulkOrchestration orchestration = new BulkOrchestration();
+        orchestration.setOperation(operation);
+        orchestration.setTarget(userTarget(entityIds));
+        orchestration.setBulkParameters(bulkParameters);
+        orchestration.setInterEventData(interEventData);
+        return orchestration;
+    }
+
+    /**
+     * Build the orchestration target of users
+     * @param entityIds USR_KEY of the target users
+     * @return Orchestration target
+     */
+    public static OrchestrationTarget userTarget(final String[] entityIds)
+    {
+        return FakeService.create(OrchestrationTarget.class, new FakeService(FaultInjector.NONE)
+        {
+            @Override
+            protected Object answer(Method method, Object[] args) throws Throwable
+            {
+                String name = method.getName();
+
+                if("getType".equals(name))
+                {
+                    return USER_TARGET_TYPE;
+                }
+
+                if("getEntityId".equals(name))
+                {
+                    return entityIds.length > 0 ? entityIds[0] : null;
+                }
+
+                if("getAllEntityId".equals(name))
+                {
+                    return entityIds.clone();
+                }
+
+                return super.answer(method, args);
+            }
+        });
+    }
+
+    /**
+     * Build the user state after the operation
+     * @param userKey   USR_KEY
+     * @param current   Current user state
+     * @param params    Attributes changed by the operation
+     * @return New user state
+     */
+    private static User newState(String userKey, User current, HashMap<String,Serializable> params)
+    {
+        HashMap<String,Object> attrs = new HashMap<String,Object>(current.getAttributes());
+        attrs.putAll(params);
+        return new User(userKey, attrs);
+    }
+}
@@ -0,0 +1,83 @@
+package com.blogspot.oraclestack.eventhandlers;
+
+import com.blogspot.oraclestack.utilities.SearchCriteriaBuilder;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import oracle.iam.platform.entitymgr.vo.SearchCriteria;
+import oracle.iam.provisioning.api.ProvisioningConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the OR criteria built by UserLifecyclePostprocessEH for the application
+ * instances of the lookup: the cached criteria used per orchestration, the uncached
+ * balanced and IN shapes, and the left-deep OR chain they replace.
+ * @author rayedchan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UserLifecyclePostprocessEHBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int numAppInstances;
+
+    private Set<String> appInstDisplayNames;
+
+    @Setup
+    public void setUp()
+    {
+        appInstDisplayNames = new LinkedHashSet<String>();
+
+        for(int i = 0; i < numAppInstances; i++)
+        {
+            appInstDisplayNames.add("Application Instance " + i);
+        }
+    }
+
+    @Benchmark
+    public SearchCriteria constructOrCriteria()
+    {
+        return UserLifecyclePostprocessEH.constructOrCriteria(appInstDisplayNames, ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId());
+    }
+
+    @Benchmark
+    public SearchCriteria balancedOrUncached()
+    {
+        return SearchCriteriaBuilder.balancedOr(ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId(), appInstDisplayNames);
+    }
+
+    @Benchmark
+    public SearchCriteria inUncached()
+    {
+        return SearchCriteriaBuilder.in(ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId(), appInstDisplayNames);
+    }
+
+    @Benchmark
+    public SearchCriteria leftDeepOrChain()
+    {
+        String searchAttribute = ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId();
+        SearchCriteria allCriteria = null;
+
+        for(String element : appInstDisplayNames)
+        {
+            SearchCriteria concatCriteria = new SearchCriteria(searchAttribute, element, SearchCriteria.Operator.EQUAL);
+            allCriteria = allCriteria == null ? concatCriteria : new SearchCriteria(allCriteria, concatCriteria, SearchCriteria.Operator.OR);
+        }
+
+        return allCriteria;
+    }
+}
@@ -0,0 +1,111 @@
+package com.blogspot.oraclestack.scheduledtasks;
+
+import com.blogspot.oraclestack.bench.EmbeddedDatabase;
+import com.blogspot.oraclestack.bench.Stubs;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import oracle.iam.reconciliation.api.BatchAttributes;
+import oracle.iam.reconciliation.api.InputData;
+import oracle.iam.reconciliation.api.ReconOperationsService;
+import oracle.iam.reconciliation.api.ReconciliationResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the row mapping of ReconEventsGeneratorDatabaseSource against an
+ * embedded database and a stubbed ReconOperationsService.
+ * @author rayedchan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReconEventsGeneratorDatabaseSourceBenchmark
+{
+    @Param({"100", "1000"})
+    public int numUsers;
+
+    @Param({"0", "3"})
+    public int badgesPerUser;
+
+    private Connection conn;
+    private ReconOperationsService reconOps;
+    private BatchAttributes batchAttrs;
+
+    // Mapping lookup as read from OIM; Code Key = Recon Field, Decode = Column
+    private HashMap<String,String> reconAttrLookup;
+
+    // Mappings after the child entries are split out
+    private HashMap<String,String> reconAttrMap;
+    private HashMap<String,String> childTableMappings;
+    private HashMap<String,HashMap<String,String>> childColumnMappings;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException
+    {
+        conn = EmbeddedDatabase.create(numUsers, badgesPerUser);
+        reconOps = Stubs.stub(ReconOperationsService.class);
+        batchAttrs = new BatchAttributes("Bench Trusted User", "yyyy-MM-dd", true);
+
+        reconAttrLookup = new HashMap<String,String>();
+        reconAttrLookup.put("User ID", "USER_ID");
+        reconAttrLookup.put("First Name", "FIRST_NAME");
+        reconAttrLookup.put("Last Name", "LAST_NAME");
+        reconAttrLookup.put("Email", "EMAIL");
+        reconAttrLookup.put("Telephone Number", "PHONE");
+        reconAttrLookup.put("Badges~Name", EmbeddedDatabase.CHILD_TABLE + "~BADGE_NAME");
+        reconAttrLookup.put("Badges~Start Date", EmbeddedDatabase.CHILD_TABLE + "~START_DATE");
+
+        reconAttrMap = new HashMap<String,String>(reconAttrLookup);
+        childTableMappings = new HashMap<String,String>();
+        childColumnMappings = new HashMap<String,HashMap<String,String>>();
+        ReconEventsGeneratorDatabaseSource.deriveChildTableMappings(reconAttrMap, childTableMappings, childColumnMappings);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException
+    {
+        conn.close();
+    }
+
+    @Benchmark
+    public HashMap<String,HashMap<String,String>> deriveChildTableMappings()
+    {
+        HashMap<String,String> attrMap = new HashMap<String,String>(reconAttrLookup);
+        HashMap<String,String> tableMappings = new HashMap<String,String>();
+        HashMap<String,HashMap<String,String>> columnMappings = new HashMap<String,HashMap<String,String>>();
+        ReconEventsGeneratorDatabaseSource.deriveChildTableMappings(attrMap, tableMappings, columnMappings);
+        return columnMappings;
+    }
+
+    @Benchmark
+    public List<InputData> constructReconciliationEventList() throws SQLException
+    {
+        return ReconEventsGeneratorDatabaseSource.constructReconciliationEventList(conn, EmbeddedDatabase.PARENT_TABLE, "", true, null, reconAttrMap, "", childTableMappings, childColumnMappings, EmbeddedDatabase.LINK_COLUMN);
+    }
+
+    @Benchmark
+    public ReconciliationResult createReconciliationEvents() throws Exception
+    {
+        List<InputData> allReconEvents = constructReconciliationEventList();
+        InputData[] events = new InputData[allReconEvents.size()];
+        allReconEvents.toArray(events);
+        return reconOps.createReconciliationEvents(batchAttrs, events);
+    }
+}
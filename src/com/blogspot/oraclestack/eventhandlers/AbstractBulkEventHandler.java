@@ -0,0 +1,380 @@
+package com.blogspot.oraclestack.eventhandlers;
+
+import com.blogspot.oraclestack.objects.BulkItemResult;
+import com.blogspot.oraclestack.objects.BulkOperationReport;
+import com.blogspot.oraclestack.objects.BulkTask;
+import com.blogspot.oraclestack.objects.EventItem;
+import com.blogspot.oraclestack.services.PlatformServices;
+import com.blogspot.oraclestack.utilities.DerivedAttributeCoalescer;
+import java.io.Serializable;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+import oracle.iam.identity.vo.Identity;
+import oracle.iam.platform.entitymgr.EntityManager;
+import oracle.iam.platform.kernel.EventFailedException;
+import oracle.iam.platform.kernel.vo.AbstractGenericOrchestration;
+import oracle.iam.platform.kernel.vo.BulkEventResult;
+import oracle.iam.platform.kernel.vo.BulkOrchestration;
+import oracle.iam.platform.kernel.vo.EventResult;
+import oracle.iam.platform.kernel.vo.Orchestration;
+
+/**
+ * Base class for event handlers which always run in batch form. A single orchestration
+ * is processed as a batch of one and a bulk orchestration as a batch of all its target
+ * entities, so a subclass only implements processItem() (and optionally prepareBatch()
+ * for work done once per batch) and gets the same behavior on both execute() methods.
+ * Subclasses declare the handler interface (E.g. PreProcessHandler, PostProcessHandler).
+ *
+ * The outcome of every item is recorded in a BulkOperationReport. A failed item fails
+ * a single orchestration; on a bulk orchestration the other items still run and the
+ * event only fails if isFailBulkOnItemError() is true.
+ *
+ * Derived attributes saved with writeDerived() are merged by entity and written with
+ * EntityManager once every item is processed, on the calling thread. A failed write
+ * counts as a failed item.
+ *
+ * Items can be processed by several threads by overriding getParallelism(). Only do so
+ * when processItem() does not depend on the OIM context of the calling thread.
+ * @author rayedchan
+ */
+public abstract class AbstractBulkEventHandler
+{
+    // Logger
+    private static final ODLLogger LOGGER = ODLLogger.getODLLogger(AbstractBulkEventHandler.class.getName());
+
+    // Inter event data keys holding the entity states
+    public static final String CURRENT_USER = "CURRENT_USER";
+    public static final String NEW_USER_STATE = "NEW_USER_STATE";
+
+    // OIM API services shared by the instances of a handler; Key = Handler class, Service interface
+    private static final ConcurrentMap<Class<?>,ConcurrentMap<Class<?>,Object>> SERVICES = new ConcurrentHashMap<Class<?>,ConcurrentMap<Class<?>,Object>>();
+
+    // Threads used when a handler runs items in parallel
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "BulkEventHandlerWorker");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // Logs derived attribute writes which failed after the event completed (write-behind only)
+    private static final DerivedAttributeCoalescer.FailureCallback LOG_FAILURE = new DerivedAttributeCoalescer.FailureCallback()
+    {
+        @Override
+        public void onFailure(String entityType, String entityId, Map<String,Object> attrs, Exception e)
+        {
+            LOGGER.log(ODLLevel.ERROR, MessageFormat.format("Failed to write derived attributes of {0} {1}: {2}", new Object[]{entityType, entityId, attrs}), e);
+        }
+    };
+
+    /**
+     * Process a single target entity. Called once per item of the batch.
+     * @param item  Target entity with its parameters and states
+     * @return Message to record in the item result (E.g. value derived)
+     * @throws Exception
+     */
+    protected abstract String processItem(EventItem item) throws Exception;
+
+    /**
+     * Work done once for the whole batch before the items are processed
+     * (E.g. fetch data for every item with one search). Does nothing by default.
+     * @param processId Process Id
+     * @param items     Items of the batch
+     * @throws Exception
+     */
+    protected void prepareBatch(long processId, List<EventItem> items) throws Exception
+    {
+    }
+
+    /**
+     * Number of threads processing the items of a batch
+     * @return 1 by default to process the items on the calling thread
+     */
+    protected int getParallelism()
+    {
+        return 1;
+    }
+
+    /**
+     * Number of retries of a failed item
+     * @return 0 by default
+     */
+    protected int getMaxRetries()
+    {
+        return 0;
+    }
+
+    /**
+     * Determines if a failed item fails the whole bulk orchestration
+     * @return false by default
+     */
+    protected boolean isFailBulkOnItemError()
+    {
+        return false;
+    }
+
+    /**
+     * Get an OIM API service for event handlers with the handler as the caller.
+     * The service is looked up once per handler class and shared.
+     * @param <T>           Service type
+     * @param serviceClass  Service interface (E.g. UserManager.class)
+     * @return Service
+     */
+    protected <T> T getService(Class<T> serviceClass)
+    {
+        ConcurrentMap<Class<?>,Object> services = SERVICES.get(getClass());
+
+        if(services == null)
+        {
+            services = new ConcurrentHashMap<Class<?>,Object>();
+            ConcurrentMap<Class<?>,Object> existing = SERVICES.putIfAbsent(getClass(), services);
+            services = existing != null ? existing : services;
+        }
+
+        Object service = services.get(serviceClass);
+
+        if(service == null)
+        {
+            service = PlatformServices.getServiceForEventHandlers(serviceClass, "ADMIN", getClass().getSimpleName());
+            Object existing = services.putIfAbsent(serviceClass, service);
+            service = existing != null ? existing : service;
+        }
+
+        return serviceClass.cast(service);
+    }
+
+    /**
+     * Save derived attributes of an item with EntityManager, which does not trigger
+     * another orchestration. The write is merged with the other writes of the
+     * orchestration and applied once every item is processed, unless the shared
+     * write-behind queue is enabled (see DerivedAttributeCoalescer).
+     * @param item  Item the attributes are derived for
+     * @param attrs Attributes to write
+     */
+    protected void writeDerived(EventItem item, Map<String,Object> attrs)
+    {
+        if(DerivedAttributeCoalescer.isWriteBehindEnabled())
+        {
+            DerivedAttributeCoalescer.getShared().submit(item.getEntityType(), item.getEntityId(), attrs, LOG_FAILURE);
+        }
+
+        else
+        {
+            item.getWrites().submit(item.getEntityType(), item.getEntityId(), attrs);
+        }
+    }
+
+    /**
+     * Executes the event handler on a single event operation as a batch of one.
+     * @param processId     Process Id
+     * @param eventId       Event Id
+     * @param orchestration Orchestration contains target entity information
+     * @return new event result
+     */
+    public EventResult execute(long processId, long eventId, Orchestration orchestration)
+    {
+        LOGGER.log(ODLLevel.NOTIFICATION, "Enter {0} execute: Process Id = {1}, Event Id = {2}", new Object[]{getClass().getSimpleName(), processId, eventId});
+        HashMap<String,Serializable> interEventData = orchestration.getInterEventData();
+        DerivedAttributeCoalescer.Batch writes = new DerivedAttributeCoalescer.Batch(getService(EntityManager.class));
+        List<EventItem> items = new ArrayList<EventItem>(1);
+        items.add(new EventItem(processId, 0, orchestration.getTarget().getEntityId(), orchestration.getTarget().getType(), orchestration.getParameters(), false,
+            getState(interEventData, CURRENT_USER, 0), getState(interEventData, NEW_USER_STATE, 0), writes));
+
+        BulkOperationReport report = process(processId, items);
+
+        if(report.getCount(BulkItemResult.Status.FAILED) > 0)
+        {
+            throw new EventFailedException(processId,"","","","", new Exception(report.getResults().get(0).getMessage()));
+        }
+
+        Map<String,Exception> writeFailures = writes.flush();
+
+        if(!writeFailures.isEmpty())
+        {
+            throw new EventFailedException(processId,"","","","", writeFailures.values().iterator().next());
+        }
+
+        return new EventResult();
+    }
+
+    /**
+     * Executes the event handler on bulk event operation. Every target entity is an item of the batch.
+     * @param processId         Process Id
+     * @param eventId           Event Id
+     * @param bulkOrchestration Bulk Orchestration contains target entities information
+     * @return A new BulkEventResult
+     */
+    public BulkEventResult execute(long processId, long eventId, BulkOrchestration bulkOrchestration)
+    {
+        LOGGER.log(ODLLevel.NOTIFICATION, "Enter {0} bulk execute: Process Id = {1}, Event Id = {2}", new Object[]{getClass().getSimpleName(), processId, eventId});
+        String[] entityIds = bulkOrchestration.getTarget().getAllEntityId();
+        String entityType = bulkOrchestration.getTarget().getType();
+        HashMap<String,Serializable>[] bulkParameters = bulkOrchestration.getBulkParameters();
+        HashMap<String,Serializable> interEventData = bulkOrchestration.getInterEventData();
+
+        // One set of bulk parameters may be shared by every entity (E.g. bulk lock)
+        DerivedAttributeCoalescer.Batch writes = new DerivedAttributeCoalescer.Batch(getService(EntityManager.class));
+        int numParams = bulkParameters == null ? 0 : bulkParameters.length;
+        boolean shared = numParams != entityIds.length;
+        List<EventItem> items = new ArrayList<EventItem>(entityIds.length);
+
+        for(int i = 0; i < entityIds.length; i++)
+        {
+            HashMap<String,Serializable> params = !shared ? bulkParameters[i] : numParams > 0 ? bulkParameters[0] : null;
+            items.add(new EventItem(processId, i, entityIds[i], entityType, params, shared, getState(interEventData, CURRENT_USER, i), getState(interEventData, NEW_USER_STATE, i), writes));
+        }
+
+        BulkOperationReport report = process(processId, items);
+        Map<String,Exception> writeFailures = writes.flush();
+        int failed = report.getCount(BulkItemResult.Status.FAILED) + writeFailures.size();
+
+        if(!writeFailures.isEmpty())
+        {
+            LOGGER.log(ODLLevel.SEVERE, "{0}: derived attribute writes failed for {1}", new Object[]{getClass().getSimpleName(), writeFailures.keySet()});
+        }
+
+        if(failed > 0 && isFailBulkOnItemError())
+        {
+            throw new EventFailedException(processId,"","","","", new Exception(failed + " of " + items.size() + " items failed"));
+        }
+
+        return new BulkEventResult();
+    }
+
+    public void initialize(HashMap<String,String> parameters)
+    {
+    }
+
+    public boolean cancel(long processId, long eventId, AbstractGenericOrchestration orchestration)
+    {
+        return false;
+    }
+
+    public void compensate(long processId, long eventId, AbstractGenericOrchestration orchestration)
+    {
+    }
+
+    /**
+     * Prepare and process every item of a batch
+     * @param processId Process Id
+     * @param items     Items of the batch
+     * @return Outcome of every item
+     */
+    private BulkOperationReport process(long processId, final List<EventItem> items)
+    {
+        final BulkOperationReport report = new BulkOperationReport(getClass().getSimpleName() + " " + processId);
+
+        try
+        {
+            prepareBatch(processId, items);
+        }
+
+        catch(Exception e)
+        {
+            LOGGER.log(ODLLevel.SEVERE, "Failed to prepare batch of " + items.size() + " items", e);
+            throw new EventFailedException(processId,"","","","", new Exception(e.getMessage()));
+        }
+
+        // Item i is processed by stripe i % parallelism; the calling thread runs stripe 0
+        final int parallelism = Math.max(1, Math.min(getParallelism(), items.size()));
+        List<Future<?>> futures = new ArrayList<Future<?>>(parallelism - 1);
+
+        for(int stripe = 1; stripe < parallelism; stripe++)
+        {
+            final int first = stripe;
+            futures.add(WORKERS.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    processStripe(items, first, parallelism, report);
+                }
+            }));
+        }
+
+        processStripe(items, 0, parallelism, report);
+
+        try
+        {
+            for(Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new EventFailedException(processId,"","","","", new Exception("Interrupted while waiting for items"));
+        }
+
+        catch(ExecutionException e)
+        {
+            throw new EventFailedException(processId,"","","","", new Exception(e.getCause()));
+        }
+
+        report.finish();
+        LOGGER.log(ODLLevel.NOTIFICATION, "{0}: {1} items, {2} succeeded, {3} skipped, {4} failed", new Object[]{getClass().getSimpleName(), items.size(),
+            report.getCount(BulkItemResult.Status.SUCCEEDED), report.getCount(BulkItemResult.Status.SKIPPED), report.getCount(BulkItemResult.Status.FAILED)});
+        return report;
+    }
+
+    /**
+     * Process every n-th item starting at the given position
+     * @param items     Items of the batch
+     * @param first     Position of the first item
+     * @param step      Number of stripes
+     * @param report    Report to record the outcomes
+     */
+    private void processStripe(List<EventItem> items, int first, int step, BulkOperationReport report)
+    {
+        for(int i = first; i < items.size(); i += step)
+        {
+            final EventItem item = items.get(i);
+            new BulkTask(item.getEntityId(), item.getEntityType() + " #" + item.getIndex(), getMaxRetries(), report)
+            {
+                @Override
+                protected String execute() throws Exception
+                {
+                    return processItem(item);
+                }
+            }.call();
+        }
+    }
+
+    /**
+     * Get the state of an entity from the inter event data
+     * @param interEventData    Inter event data of the orchestration; may be null
+     * @param key               CURRENT_USER or NEW_USER_STATE
+     * @param index             Position of the entity in the orchestration target
+     * @return Entity state or null if not available
+     */
+    private static Identity getState(HashMap<String,Serializable> interEventData, String key, int index)
+    {
+        Object state = interEventData == null ? null : interEventData.get(key);
+
+        if(state instanceof Identity[])
+        {
+            Identity[] states = (Identity[]) state;
+            return index < states.length ? states[index] : null;
+        }
+
+        return state instanceof Identity ? (Identity) state : null;
+    }
+}
@@ -1,5 +1,6 @@
 package com.blogspot.oraclestack.eventhandlers;
 
+import com.blogspot.oraclestack.services.PlatformServices;
 import java.io.Serializable;
 import java.util.HashMap;
 import oracle.core.ojdl.logging.ODLLevel;
@@ -35,7 +36,7 @@ public class ChangePasswordValidationEH implements ValidationHandler
     
     // OIM API Services
     // private static final UserManager USRMGR =  Platform.getService(UserManager.class);
-    private static final UserManager USRMGR = Platform.getServiceForEventHandlers(UserManager.class, null, "ADMIN","ChangePasswordValidationEH", null);
+    private static final UserManager USRMGR = PlatformServices.getServiceForEventHandlers(UserManager.class, "ADMIN", "ChangePasswordValidationEH");
     
     // SQL Query
     private static final String USER_ATTRS_SQL_QUERY = "SELECT usr_login, usr_middle_name, usr_email FROM usr where usr_key=?";
@@ -1,19 +1,16 @@
 package com.blogspot.oraclestack.eventhandlers;
 
+import com.blogspot.oraclestack.objects.EventItem;
+import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Map;
 import oracle.core.ojdl.logging.ODLLevel;
 import oracle.core.ojdl.logging.ODLLogger;
 import oracle.iam.identity.usermgmt.api.UserManagerConstants;
-import oracle.iam.platform.Platform;
-import oracle.iam.platform.entitymgr.EntityManager;
-import oracle.iam.platform.kernel.EventFailedException;
 import oracle.iam.platform.kernel.spi.ConditionalEventHandler;
 import oracle.iam.platform.kernel.spi.PostProcessHandler;
 import oracle.iam.platform.kernel.vo.AbstractGenericOrchestration;
-import oracle.iam.platform.kernel.vo.BulkEventResult;
 import oracle.iam.platform.kernel.vo.BulkOrchestration;
-import oracle.iam.platform.kernel.vo.EventResult;
-import oracle.iam.platform.kernel.vo.Orchestration;
 
 /**
  * Conditional Post Process Event Handler
@@ -28,53 +25,44 @@ import oracle.iam.platform.kernel.vo.Orchestration;
  * 
  * @author rayedchan
  */
-public class ConditionalEventHandlerPostProcess implements ConditionalEventHandler, PostProcessHandler 
+public class ConditionalEventHandlerPostProcess extends AbstractBulkEventHandler implements ConditionalEventHandler, PostProcessHandler 
 {
     private static final ODLLogger LOGGER = ODLLogger.getODLLogger(ConditionalEventHandlerPostProcess.class.getName());
     
+    /**
+     * Populate Employee Number with USR_KEY. For a bulk create (E.g. trusted reconciliation,
+     * bulk load) the condition is checked for every user and Employee Number is queued for
+     * the employees only; the writes are applied together once every user is processed.
+     * @param item  User being created
+     * @return Employee Number queued for the user or null if the user is not an employee
+     */
     @Override
-    public EventResult execute(long l, long l1, Orchestration o) 
+    protected String processItem(EventItem item)
     {
-        LOGGER.log(ODLLevel.NOTIFICATION, "Enter execute() V1 with parameters: [{0}], [{1}], [{2}]", new Object[]{l, l1, o});
-        
-        try
-        {
-            // Get the user attributes that were filled out on creation
-            HashMap<String, String> params = o.getParameters();
-            LOGGER.log(ODLLevel.NOTIFICATION, "Incoming User Attributes on create: {0}", new Object[]{params});
-
-            // Get the target user's USR_KEY
-            String usrKey = o.getTarget().getEntityId();
-            LOGGER.log(ODLLevel.NOTIFICATION, "Target User Key: {0}", new Object[]{usrKey});
+        LOGGER.log(ODLLevel.TRACE, "Incoming User Attributes on create: {0}", new Object[]{item.getParameters()});
 
-            // Get Entity Type (Should be User)
-            String entityType = o.getTarget().getType();
-            LOGGER.log(ODLLevel.NOTIFICATION, "Entity Type: {0}", new Object[]{entityType});
-
-            // Get Entity Manager Service
-            EntityManager entMgrService = Platform.getService(EntityManager.class); // use this instead of User Manager API in order to prevent event handlers(modify) from triggering again
-
-            // Populate Employee Number with USR_KEY
-            HashMap<String,Object> modAttrs = new HashMap<String,Object>();
-            modAttrs.put(UserManagerConstants.AttributeName.EMPLOYEE_NUMBER.getId(), usrKey);
-            entMgrService.modifyEntity(entityType, usrKey, modAttrs);
-            LOGGER.log(ODLLevel.NOTIFICATION, "Successfully updated Employee Number");
-        }
-        
-        catch(Exception ex)
+        if(!isEmployee(item.getParameters()))
         {
-            LOGGER.log(ODLLevel.ERROR, "Exception in execute(): ", ex);
-            throw new EventFailedException("", null, ex);
+            return null;
         }
-        
-        return new EventResult();
+
+        // Populate Employee Number with USR_KEY
+        // Write with Entity Manager, which prevents event handlers(modify) from triggering again
+        HashMap<String,Object> modAttrs = new HashMap<String,Object>();
+        modAttrs.put(UserManagerConstants.AttributeName.EMPLOYEE_NUMBER.getId(), item.getEntityId());
+        writeDerived(item, modAttrs);
+        LOGGER.log(ODLLevel.TRACE, "Queued Employee Number update for {0}", new Object[]{item.getEntityId()});
+        return item.getEntityId();
     }
 
+    /**
+     * A failed Employee Number write fails the bulk event, so no user is left unmodified silently
+     * @return true
+     */
     @Override
-    public BulkEventResult execute(long l, long l1, BulkOrchestration bo)
+    protected boolean isFailBulkOnItemError()
     {
-        LOGGER.log(ODLLevel.NOTIFICATION, "Enter Bulk execute() with parameters: [{0}], [{1}], [{2}]", new Object[]{l, l1, bo});
-        return new BulkEventResult();
+        return true;
     }
 
     @Override
@@ -98,28 +86,51 @@ public class ConditionalEventHandlerPostProcess implements ConditionalEventHandl
 
     /**
      * Triggered on the conditional phase of the orchestration stage.
-     * Method returns true if target user is an employee, and returns false otherwise
+     * Method returns true if target user is an employee, and returns false otherwise.
+     * For a bulk orchestration, returns true if any of the users is an employee.
      * @param ago Orchestration
      * @return if true the event handler will execute
      */
     @Override
     public boolean isApplicable(AbstractGenericOrchestration ago) 
     {
-        LOGGER.log(ODLLevel.NOTIFICATION, "Enter isApplicable() with parameter: [{0}]", new Object[]{ago});
+        LOGGER.log(ODLLevel.TRACE, "Enter isApplicable() with parameter: [{0}]", new Object[]{ago});
+        boolean isApplicable = false;
         
-        // Get the user attributes that were filled out on creation
-        HashMap<String, String> params = ago.getParameters();
-        LOGGER.log(ODLLevel.NOTIFICATION, "Incoming User Attributes on create: {0}", new Object[]{params});
+        // Bulk orchestration carries the attributes of each user in the bulk parameters
+        if(ago instanceof BulkOrchestration)
+        {
+            HashMap<String, Serializable>[] bulkParameters = ((BulkOrchestration) ago).getBulkParameters();
+            
+            for(int i = 0; bulkParameters != null && i < bulkParameters.length && !isApplicable; i++)
+            {
+                isApplicable = isEmployee(bulkParameters[i]);
+            }
+        }
         
-        // Get User Type attribute
-        String userType = params.get(UserManagerConstants.AttributeName.EMPTYPE.getId());
-        LOGGER.log(ODLLevel.NOTIFICATION, "User Type: {0}", new Object[]{userType});
+        else
+        {
+            // Get the user attributes that were filled out on creation
+            HashMap<String, String> params = ago.getParameters();
+            LOGGER.log(ODLLevel.NOTIFICATION, "Incoming User Attributes on create: {0}", new Object[]{params});
+            isApplicable = isEmployee(params);
+        }
         
-        // Check if user is an Employee
-        boolean isApplicable = "EMP".equalsIgnoreCase(userType);
         LOGGER.log(ODLLevel.NOTIFICATION, "is Applicable?: {0}", new Object[]{isApplicable});
         
         // True if user is employee, false otherwise 
         return isApplicable;
     }
+    
+    /**
+     * Check if the user attributes describe an employee
+     * @param params    User attributes filled out on creation
+     * @return true if User Type is EMP
+     */
+    private static boolean isEmployee(Map<String, ?> params)
+    {
+        // Get User Type attribute
+        Object userType = params == null ? null : params.get(UserManagerConstants.AttributeName.EMPTYPE.getId());
+        return userType != null && "EMP".equalsIgnoreCase(userType.toString());
+    }
 }
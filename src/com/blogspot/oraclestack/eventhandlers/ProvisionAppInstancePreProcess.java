@@ -1,5 +1,7 @@
 package com.blogspot.oraclestack.eventhandlers;
 
+import com.blogspot.oraclestack.services.PlatformServices;
+import com.blogspot.oraclestack.utilities.GuardedLogger;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -7,11 +9,9 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import oracle.core.ojdl.logging.ODLLevel;
-import oracle.core.ojdl.logging.ODLLogger;
 import oracle.iam.identity.usermgmt.api.UserManager;
 import oracle.iam.identity.usermgmt.api.UserManagerConstants;
 import oracle.iam.identity.usermgmt.vo.User;
-import oracle.iam.platform.Platform;
 import oracle.iam.platform.kernel.EventFailedException;
 import oracle.iam.platform.kernel.spi.ConditionalEventHandler;
 import oracle.iam.platform.kernel.spi.PreProcessHandler;
@@ -39,10 +39,10 @@ public class ProvisionAppInstancePreProcess implements PreProcessHandler, Condit
     private static final String DEFAULT_ACCESS_TWO ="Computer Department"; // Name of entitlement to assign
     
     // Logger
-    private static final ODLLogger LOGGER = ODLLogger.getODLLogger(ProvisionAppInstancePreProcess.class.getName());
+    private static final GuardedLogger LOGGER = GuardedLogger.getLogger(ProvisionAppInstancePreProcess.class.getName());
     
     // OIM API Services
-    private UserManager usrMgr = Platform.getService(UserManager.class);
+    private UserManager usrMgr = PlatformServices.getService(UserManager.class);
     
     /**
      * Determines if Badge Access application instance is being provisioned.
@@ -53,34 +53,34 @@ public class ProvisionAppInstancePreProcess implements PreProcessHandler, Condit
     @Override
     public boolean isApplicable(AbstractGenericOrchestration abstractGenericOrchestration) 
     {
-        LOGGER.log(ODLLevel.NOTIFICATION, "Enter isApplicable() with parameter: AbstractGenericOrchestration = {0}", new Object[]{abstractGenericOrchestration});
+        LOGGER.log(ODLLevel.TRACE, "Enter isApplicable() with parameter: AbstractGenericOrchestration = {0}", abstractGenericOrchestration);
         boolean isApplicable = false; 
         
         String operationType = abstractGenericOrchestration.getOperation();
-        LOGGER.log(ODLLevel.NOTIFICATION, "Operation: {0}", new Object[]{operationType}); // PROVISION
+        LOGGER.log(ODLLevel.NOTIFICATION, "Operation: {0}", operationType); // PROVISION
         
         HashMap<String, Serializable> modParams = abstractGenericOrchestration.getParameters();
-        LOGGER.log(ODLLevel.NOTIFICATION, "Modified Parameters: {0}", new Object[]{modParams}); // {ParentData={Account Login=TSWIFT2, serviceaccount=false, ITResource=0}, BeneficiaryKey=22, AppInstanceKey=1, ParentRequestId=, ChildData={}}
+        LOGGER.log(ODLLevel.NOTIFICATION, "Modified Parameters: {0}", modParams); // {ParentData={Account Login=TSWIFT2, serviceaccount=false, ITResource=0}, BeneficiaryKey=22, AppInstanceKey=1, ParentRequestId=, ChildData={}}
         
         HashMap<String, Serializable> interEventData = abstractGenericOrchestration.getInterEventData();
-        LOGGER.log(ODLLevel.NOTIFICATION, "InterEventData: {0}", new Object[]{interEventData}); // null
+        LOGGER.log(ODLLevel.TRACE, "InterEventData: {0}", interEventData); // null
         
         // Single Orchestration
         if(abstractGenericOrchestration instanceof Orchestration) 
         {            
             String entityId = abstractGenericOrchestration.getTarget().getEntityId();
-            LOGGER.log(ODLLevel.NOTIFICATION, "Entity Id: {0}", new Object[]{entityId}); // Application Instance Key
+            LOGGER.log(ODLLevel.NOTIFICATION, "Entity Id: {0}", entityId); // Application Instance Key
             
             String[] entityIds = abstractGenericOrchestration.getTarget().getAllEntityId();
             
             for(String userId : entityIds) 
             {
-                LOGGER.log(ODLLevel.NOTIFICATION, "Entity Ids: {0}", new Object[]{userId});
+                LOGGER.log(ODLLevel.TRACE, "Entity Ids: {0}", userId);
             }
             
             // Get application instance key from parameters
             String appInstKey = (String) modParams.get("AppInstanceKey");
-            LOGGER.log(ODLLevel.NOTIFICATION, "Application Instance Key: {0}", new Object[]{appInstKey});
+            LOGGER.log(ODLLevel.NOTIFICATION, "Application Instance Key: {0}", appInstKey);
             
             // True for application instance key equal to 1; otherwise false 
             isApplicable = (BADGE_ACCESS_DISCONNECTED_RESOURCE_APP_INST_KEY.equalsIgnoreCase(appInstKey))? true: false;
@@ -96,11 +96,11 @@ public class ProvisionAppInstancePreProcess implements PreProcessHandler, Condit
             
             // Get every changes from all users
             HashMap<String, Serializable>[] bulkParameters = bulkOrchestration.getBulkParameters();
-            LOGGER.log(ODLLevel.NOTIFICATION, "All Modified Bulk Parameters: {0}", new Object[]{bulkParameters});
+            LOGGER.log(ODLLevel.TRACE, "All Modified Bulk Parameters: {0}", GuardedLogger.arrayToString(bulkParameters));
             
             // Get interParameters
             HashMap<String, Serializable> interParameters = bulkOrchestration.getInterEventData();
-            LOGGER.log(ODLLevel.NOTIFICATION, "Bulk InterEventData: {0}", new Object[]{interParameters}); // No interdata in conditional stage
+            LOGGER.log(ODLLevel.TRACE, "Bulk InterEventData: {0}", interParameters); // No interdata in conditional stage
             
             // Iterate each OIM user
             for (int i = 0; i < entityIds.length; i++)
@@ -110,14 +110,14 @@ public class ProvisionAppInstancePreProcess implements PreProcessHandler, Condit
                 
                 // Get USR_KEY of current userbeing modified
                 String userKey = entityIds[i];
-                LOGGER.log(ODLLevel.NOTIFICATION, "Target OIM User Key = [{0}], Modified UDFs = [{1}]", new Object[]{userKey, modUDFs});
+                LOGGER.log(ODLLevel.TRACE, "Target OIM User Key = [{0}], Modified UDFs = [{1}]", userKey, modUDFs);
             }
             
             // Always return true on bulk
             isApplicable = true;
         }
           
-        LOGGER.log(ODLLevel.NOTIFICATION, "Trigger event handler: {0}", new Object[]{isApplicable});;
+        LOGGER.log(ODLLevel.NOTIFICATION, "Trigger event handler: {0}", isApplicable);;
         return isApplicable;
     }
     
@@ -133,25 +133,26 @@ public class ProvisionAppInstancePreProcess implements PreProcessHandler, Condit
     @Override
     public EventResult execute(long processId, long eventId, Orchestration orchestration) 
     {
-        LOGGER.log(ODLLevel.NOTIFICATION, "Enter execute() with parameters: Process Id = [{0}], Event Id = [{1}], Orchestration = [{2}]", new Object[]{processId, eventId, orchestration});
+        LOGGER.log(ODLLevel.NOTIFICATION, "Enter execute() with parameters: Process Id = [{0}], Event Id = [{1}]", processId, eventId);
+        LOGGER.log(ODLLevel.TRACE, "Orchestration: {0}", orchestration);
         
         try
         {            
             // Get the modified parameters of application instance
             HashMap<String, Serializable> modParams = orchestration.getParameters();
-            LOGGER.log(ODLLevel.NOTIFICATION, "Modified Orchestration Params: [{0}]", new Object[]{modParams});
+            LOGGER.log(ODLLevel.NOTIFICATION, "Modified Orchestration Params: [{0}]", modParams);
 
             // Get USR_KEY of current userbeing modified
             String appInstKey = orchestration.getTarget().getEntityId();
-            LOGGER.log(ODLLevel.NOTIFICATION, "Application Instance Key: [{0}]", new Object[]{appInstKey});
+            LOGGER.log(ODLLevel.NOTIFICATION, "Application Instance Key: [{0}]", appInstKey);
 
             // Get Target Type
             String targetType = orchestration.getTarget().getType();
-            LOGGER.log(ODLLevel.NOTIFICATION, "Target type: [{0}]", new Object[]{targetType}); // ApplicationInstance
+            LOGGER.log(ODLLevel.NOTIFICATION, "Target type: [{0}]", targetType); // ApplicationInstance
 
             // Get Target User Key
             String usrKey = (String) modParams.get("BeneficiaryKey");
-            LOGGER.log(ODLLevel.NOTIFICATION, "User Key: {0}", new Object[]{usrKey});
+            LOGGER.log(ODLLevel.NOTIFICATION, "User Key: {0}", usrKey);
             
             // Get Target User Profile
             boolean isUserLogin = false;
@@ -161,7 +162,7 @@ public class ProvisionAppInstancePreProcess implements PreProcessHandler, Condit
             retAttrs.add(UserManagerConstants.AttributeName.EMPTYPE.getId());
             retAttrs.add(UserManagerConstants.AttributeName.USER_LOGIN.getId());
             User user = usrMgr.getDetails(usrKey, retAttrs, isUserLogin);
-            LOGGER.log(ODLLevel.NOTIFICATION, "User: {0}", new Object[]{user});
+            LOGGER.log(ODLLevel.TRACE, "User: {0}", user);
             
             // Get Parent Data from application instance
             HashMap<String, Serializable> parentData = (HashMap<String, Serializable>) modParams.get("ParentData");
@@ -250,7 +251,7 @@ public class ProvisionAppInstancePreProcess implements PreProcessHandler, Condit
                     String cAction = childRecord.getAction().toString();
                     String cRowKey = childRecord.getRowKey();
                     String cName = (String) cData.get(BUILDING_ACCESS_FIELD_NAME); // Key attribute on entitlement
-                    LOGGER.log(ODLLevel.TRACE, "Child Record Data: {0}, Action: {1}, Row Key:{2}", new Object[]{cData, cAction, cRowKey});
+                    LOGGER.log(ODLLevel.TRACE, "Child Record Data: {0}, Action: {1}, Row Key:{2}", cData, cAction, cRowKey);
                     
                     // Check if default access exists in form 
                     if(DEFAULT_ACCESS_ONE.equals(cName))
@@ -297,7 +298,7 @@ public class ProvisionAppInstancePreProcess implements PreProcessHandler, Condit
             // Overwrite parameters in orchestration 
             modParams.put("ParentData", parentData); // Use to overwrite "ParentData" field in orchestration
             modParams.put("ChildData", childData); // Use to overwrite "ChildData" field in orchestration
-            LOGGER.log(ODLLevel.TRACE, "New orchestration parameters: {0}", new Object[]{modParams});
+            LOGGER.log(ODLLevel.TRACE, "New orchestration parameters: {0}", modParams);
             
             // Set changes in orchestration
             orchestration.setParameter(modParams);
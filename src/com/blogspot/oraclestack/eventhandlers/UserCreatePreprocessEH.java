@@ -1,173 +1,197 @@
 package com.blogspot.oraclestack.eventhandlers;
 
+import com.blogspot.oraclestack.objects.EventItem;
+import com.blogspot.oraclestack.utilities.UserLoginGenerator;
 import java.io.Serializable;
-import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import oracle.core.ojdl.logging.ODLLevel;
 import oracle.core.ojdl.logging.ODLLogger;
 import oracle.iam.identity.usermgmt.api.UserManagerConstants;
-import oracle.iam.identity.usermgmt.vo.User;
 import oracle.iam.platform.context.ContextAware;
-import oracle.iam.platform.kernel.EventFailedException;
 import oracle.iam.platform.kernel.spi.PreProcessHandler;
 import oracle.iam.platform.kernel.vo.AbstractGenericOrchestration;
-import oracle.iam.platform.kernel.vo.BulkEventResult;
 import oracle.iam.platform.kernel.vo.BulkOrchestration;
-import oracle.iam.platform.kernel.vo.EventResult;
-import oracle.iam.platform.kernel.vo.Orchestration;
 
 /**
- * Demonstrates implementing single and bulk execute method for a preprocess
- * event handler. This can also be used as a template for
+ * Demonstrates implementing a preprocess event handler on the batch form of
+ * AbstractBulkEventHandler, which runs the single and bulk execute methods
+ * the same way. This can also be used as a template for
  * implementing other preprocess event handlers. Place additional implementations/logic
- * in the executeEvent() method since both execute() methods make calls to it.
+ * in the processItem() method since both execute() methods make calls to it.
+ * Users created without a User Login get a unique login generated from their
+ * first and last name; all the logins of a bulk create are reserved together.
+ * The generated logins of users whose create failed are released in compensate().
  * @author rayedchan
  */
-public class UserCreatePreprocessEH implements PreProcessHandler 
+public class UserCreatePreprocessEH extends AbstractBulkEventHandler implements PreProcessHandler
 {
     // Logger
     private static final ODLLogger LOGGER = ODLLogger.getODLLogger(UserCreatePreprocessEH.class.getName());
 
+    // Email domain for generated logins; no email is generated if not set
+    private static final String EMAIL_DOMAIN_PROPERTY = "oimutilities.email.domain";
+
     /**
-     * Executes the event handler on a single event operation.
+     * Generate the missing logins of all users at once
      * @param processId Process Id
-     * @param eventId   Event Id
-     * @param orchestration Orchestration contains target user information
-     * @return new event result
+     * @param items     Users being created
      */
     @Override
-    public EventResult execute(long processId, long eventId, Orchestration orchestration) 
+    protected void prepareBatch(long processId, List<EventItem> items)
     {
-        LOGGER.log(ODLLevel.NOTIFICATION, "Enter execute method: Process Id = {0}, Event Id = {1}", new Object[]{processId, eventId});
-        
-        // Get USR_KEY of target user from orchestration
-        String userKey = orchestration.getTarget().getEntityId();
-        LOGGER.log(ODLLevel.NOTIFICATION, "User Key: {0}", new Object[]{userKey});
-
-        // Get the modified parameters upon lock operation
-        HashMap<String,Serializable> modParams = orchestration.getParameters();
-        LOGGER.log(ODLLevel.TRACE, "Modified Paramerters: {0}", new Object[]{modParams});
-   
-        try 
-        {
-            // Modify the orchestration parameters for the target user
-            this.executeEvent(modParams);
-            LOGGER.log(ODLLevel.TRACE, "New Modified Parameters: {0}", new Object[]{modParams});
-        } 
-        
-        catch (Exception e) 
-        {
-            LOGGER.log(ODLLevel.SEVERE, MessageFormat.format("Failed {0}", new Object[]{e.getMessage()}), e);
-            throw new EventFailedException(processId,"","","","", new Exception(e.getMessage()));
-        } 
+        this.assignLogins(items);
+    }
+
+    /**
+     * Used to modify the orchestration user parameters. This is called in
+     * the single and bulk execute since this method processes one user at a time.
+     * @param item  User being created; its parameters add, remove, or update user attributes
+     * @return User Login
+     */
+    @Override
+    protected String processItem(EventItem item)
+    {
+        String userLogin = item.getString(UserManagerConstants.AttributeName.USER_LOGIN.getId());
+        LOGGER.log(ODLLevel.TRACE, "Preparing updates for {0}: {1}", new Object[]{userLogin, item.getParameters()});
+
+        // Modify orchestration parameters so OIM can propagate changes to downstream processes (E.g. Postprocess event handler, Process Tasks)
+        // TODO: Apply your changes here. Put user attributes you would like to change on the user.
+        item.setParameter(UserManagerConstants.AttributeName.DEPARTMENT_NUMBER.getId(), "CREATED"); // Department Number
+        item.setParameter(UserManagerConstants.AttributeName.TITLE.getId(),  userLogin); // Title
 
-        LOGGER.log(ODLLevel.NOTIFICATION, "End execute method.");
-        return new EventResult();
+        LOGGER.log(ODLLevel.TRACE, "Passed modified user attributes to orchestration for {0}", new Object[]{userLogin});
+        return userLogin;
     }
 
     /**
-     * Executes the event handler on bulk event operation.
-     * @param processId Process Id
-     * @param eventId   Event Id
-     * @param bulkOrchestration Bulk Orchestration contains target users information
-     * @return A new BulkEventResult
+     * Release the generated logins of users whose create failed after this handler ran.
+     * The generator skips logins given by the caller and logins of users which exist.
+     * @param processId     Process Id
+     * @param eventId       Event Id
+     * @param orchestration Orchestration of the failed create
      */
     @Override
-    public BulkEventResult execute(long processId, long eventId, BulkOrchestration bulkOrchestration)
-    {    
-        LOGGER.log(ODLLevel.NOTIFICATION, "Enter bulk execute method: Process Id = {0}, Event Id = {1}", new Object[]{processId, eventId});
-        
-        try
+    public void compensate(long processId, long eventId, AbstractGenericOrchestration orchestration)
+    {
+        String loginAttr = UserManagerConstants.AttributeName.USER_LOGIN.getId();
+        List<String> logins = new ArrayList<String>();
+        List<HashMap<String,Serializable>> paramSets = new ArrayList<HashMap<String,Serializable>>();
+
+        if(orchestration instanceof BulkOrchestration && ((BulkOrchestration) orchestration).getBulkParameters() != null)
         {
-            // Get changes for all users
-            HashMap<String, Serializable>[] bulkParameters = bulkOrchestration.getBulkParameters();
-            int numEvents = bulkParameters.length;
-            LOGGER.log(ODLLevel.NOTIFICATION, "Number of events: {0}", new Object[]{numEvents});
-
-            // Iterate each user
-            for(int i = 0; i < numEvents; i++)
-            {            
-                // Get the modified parameter of user
-                HashMap<String, Serializable> modParams = bulkParameters[i];
-                LOGGER.log(ODLLevel.TRACE, "User Modified Parameters: {0}", new Object[]{modParams});
-
-                try
-                {
-                    // Modify the orchestration parameters for current user
-                    this.executeEvent(modParams);
-                    LOGGER.log(ODLLevel.TRACE, "New Modified Parameters: [{0}]", new Object[]{modParams});
-                }
-
-                catch (Exception e) 
-                {
-                    LOGGER.log(ODLLevel.SEVERE, MessageFormat.format("Failed {0}", new Object[]{e.getMessage()}), e);
-                }
+            for(HashMap<String,Serializable> params : ((BulkOrchestration) orchestration).getBulkParameters())
+            {
+                paramSets.add(params);
             }
         }
-        
-        catch (Exception e) 
+
+        else
+        {
+            paramSets.add(orchestration.getParameters());
+        }
+
+        for(Map<String,Serializable> params : paramSets)
         {
-            LOGGER.log(ODLLevel.SEVERE, MessageFormat.format("Failed Bulk execute: {0}", new Object[]{e.getMessage()}), e);
-            throw new EventFailedException(processId,"","","","", new Exception(e.getMessage()));
+            Object login = params == null ? null : params.get(loginAttr);
+            login = login instanceof ContextAware ? ((ContextAware) login).getObjectValue() : login;
+
+            if(login != null)
+            {
+                logins.add(login.toString());
+            }
         }
-            
-        LOGGER.log(ODLLevel.INFO, "End bulk execute.");
-        return new BulkEventResult();
+
+        int released = UserLoginGenerator.getShared().releaseIfNotCreated(logins);
+        LOGGER.log(ODLLevel.NOTIFICATION, "Released {0} user logins of failed create {1}", new Object[]{released, processId});
     }
-    
+
     /**
-     * Used to modify the orchestration user parameters. This can be called in
-     * the single and bulk execute since this method processes one user at a time.
-     * @param user  OIM User
-     * @param orchParams   Orchestration parameters to add, remove, or update user attributes
+     * Put a unique User Login (and Email if a domain is configured) on every user
+     * created without one. Logins given by the caller are marked as used so they
+     * are never generated for another user of the same batch. A user whose login
+     * could not be generated is left to the login generation of OIM.
+     * @param items Users being created
      */
-    private void executeEvent(HashMap<String,Serializable> orchParams) 
+    private void assignLogins(List<EventItem> items)
     {
-        String userLogin = getParamaterValue(orchParams, UserManagerConstants.AttributeName.USER_LOGIN.getId());
-        LOGGER.log(ODLLevel.INFO, "Preparing updates for {0}", new Object[]{userLogin});
-        
-        // Modify orchestration parameters so OIM can propagate changes to downstream processes (E.g. Postprocess event handler, Process Tasks)
-        // TODO: Apply your changes here. Put user attributes you would like to change on the user.
-        // Modifying the orchestration parameters applies to all users in orchestration for bulk operations
-        orchParams.put(UserManagerConstants.AttributeName.DEPARTMENT_NUMBER.getId(), "CREATED"); // Department Number
-        orchParams.put(UserManagerConstants.AttributeName.TITLE.getId(),  userLogin); // Title
+        String loginAttr = UserManagerConstants.AttributeName.USER_LOGIN.getId();
+        List<String> givenLogins = new ArrayList<String>();
+        List<String> baseLogins = new ArrayList<String>();
+        List<EventItem> needLogin = new ArrayList<EventItem>();
 
-        LOGGER.log(ODLLevel.INFO, "Passed modified user attributes to orchestration for {0}", new Object[]{userLogin});
-    }
+        for(EventItem item : items)
+        {
+            String userLogin = item.getString(loginAttr);
 
-    @Override
-    public void initialize(HashMap<String, String> arg0)
-    {    
-    }
-    
-    @Override
-    public boolean cancel(long processId, long eventId, AbstractGenericOrchestration orchestration) 
-    {
-        return false;
-    }
+            if(userLogin != null && !userLogin.isEmpty())
+            {
+                givenLogins.add(userLogin);
+                continue;
+            }
 
-    @Override
-    public void compensate(long processId, long eventId, AbstractGenericOrchestration orchestration) 
-    {  
+            String baseLogin = deriveBaseLogin(item);
+
+            if(baseLogin != null)
+            {
+                baseLogins.add(baseLogin);
+                needLogin.add(item);
+            }
+        }
+
+        if(needLogin.isEmpty())
+        {
+            return;
+        }
+
+        UserLoginGenerator generator = UserLoginGenerator.getShared();
+        generator.markUsed(givenLogins);
+        List<String> logins = generator.reserve(baseLogins);
+        String emailDomain = System.getProperty(EMAIL_DOMAIN_PROPERTY);
+        String emailAttr = UserManagerConstants.AttributeName.EMAIL.getId();
+        int generated = 0;
+
+        for(int i = 0; i < needLogin.size(); i++)
+        {
+            EventItem item = needLogin.get(i);
+
+            if(logins.get(i) == null)
+            {
+                continue;
+            }
+
+            item.setParameter(loginAttr, logins.get(i));
+            generated++;
+
+            if(emailDomain != null && item.getString(emailAttr) == null)
+            {
+                item.setParameter(emailAttr, logins.get(i) + "@" + emailDomain);
+            }
+        }
+
+        LOGGER.log(ODLLevel.NOTIFICATION, "Generated {0} of {1} user logins", new Object[]{generated, logins.size()});
     }
-    
-      /**
-     * Get an attribute value based on the attribute name.
-     * @param parameters    User's attributes
-     * @param key           Name of the attribute API name
-     * @return              Value of the attribute to fetch
+
+    /**
+     * Derive the preferred login of a user: first initial followed by last name,
+     * letters and digits only.
+     * @param item  User being created
+     * @return Base login or null if the user has no last name
      */
-    private String getParamaterValue(HashMap<String, Serializable> parameters, String key)
+    private String deriveBaseLogin(EventItem item)
     {
-        if(parameters.containsKey(key))
-        {
-            String value = (parameters.get(key) instanceof ContextAware) ? (String) ((ContextAware) parameters.get(key)).getObjectValue() : (String) parameters.get(key);
-            return value;
-        }
-        else
+        String firstName = item.getString(UserManagerConstants.AttributeName.FIRSTNAME.getId());
+        String lastName = item.getString(UserManagerConstants.AttributeName.LASTNAME.getId());
+
+        if(lastName == null)
         {
             return null;
         }
+
+        String first = firstName == null ? "" : firstName.replaceAll("[^A-Za-z0-9]", "");
+        String baseLogin = (first.isEmpty() ? "" : first.substring(0, 1)) + lastName.replaceAll("[^A-Za-z0-9]", "");
+        return baseLogin.isEmpty() ? null : baseLogin;
     }
 }
-
@@ -8,17 +8,17 @@ import Thor.API.Operations.TaskDefinitionOperationsIntf;
 import Thor.API.Operations.tcLookupOperationsIntf;
 import Thor.API.Operations.tcProvisioningOperationsIntf;
 import Thor.API.tcResultSet;
+import com.blogspot.oraclestack.services.PlatformServices;
+import com.blogspot.oraclestack.utilities.GuardedLogger;
+import com.blogspot.oraclestack.utilities.SearchCriteriaBuilder;
 import java.io.Serializable;
 import java.text.MessageFormat;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 import oracle.core.ojdl.logging.ODLLevel;
-import oracle.core.ojdl.logging.ODLLogger;
 import oracle.iam.identity.usermgmt.vo.User;
 import oracle.iam.identity.vo.Identity;
-import oracle.iam.platform.Platform;
 import oracle.iam.platform.entitymgr.vo.SearchCriteria;
 import oracle.iam.platform.kernel.EventFailedException;
 import oracle.iam.platform.kernel.spi.ConditionalEventHandler;
@@ -50,10 +50,14 @@ import oracle.iam.provisioning.vo.Account;
 public class UserLifecyclePostprocessEH implements ConditionalEventHandler, PostProcessHandler
 {
     // Logger
-    private static final ODLLogger LOGGER = ODLLogger.getODLLogger(UserLifecyclePostprocessEH.class.getName());
+    private static final GuardedLogger LOGGER = GuardedLogger.getLogger(UserLifecyclePostprocessEH.class.getName());
+    private static final GuardedLogger.Sampler BULK_USER_SAMPLER = new GuardedLogger.Sampler(1000L);
     
-    // OIM API Service
-    private static final ProvisioningService PROV_SERVICE = Platform.getService(ProvisioningService.class);
+    // OIM API Service; fetched on first use so the class can be loaded outside of OIM
+    private static class ProvisioningServiceHolder
+    {
+        private static final ProvisioningService PROV_SERVICE = PlatformServices.getService(ProvisioningService.class);
+    }
     
     // Lookups Application Instance Display Name to Process Tasks Mapping
     private static final String LOOKUP_USER_LOCK_APPINST_DISPLAYNAME_PROCTASKS = "Lookup.User.Lock.AppInstDisplayNameToProcessTasks"; 
@@ -66,6 +70,9 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
     
     // Delimiter for separating multiple process tasks
     private static final String DELIMITER = ",";
+
+    // Shape of the application instance criteria; IN only if the account search supports it
+    private static final SearchCriteriaBuilder.Style CRITERIA_STYLE = Boolean.getBoolean("oimutilities.lifecycle.inCriteria") ? SearchCriteriaBuilder.Style.IN : SearchCriteriaBuilder.Style.BALANCED_OR;
     
     // Operations supported for this event handler
     String[] supportedOps = {"DISABLE","ENABLE","LOCK","UNLOCK", "MODIFY"}; // Used in isApplicable()
@@ -79,7 +86,7 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
     public boolean isApplicable(AbstractGenericOrchestration ago) 
     {
         String operation = ago.getOperation();
-        LOGGER.log(ODLLevel.NOTIFICATION, "Operation: {0}", new Object[]{operation});
+        LOGGER.log(ODLLevel.NOTIFICATION, "Operation: {0}", operation);
         boolean proceed = false;
         
         for(String op : this.supportedOps)
@@ -90,7 +97,7 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
             }
         }
         
-        LOGGER.log(ODLLevel.NOTIFICATION, "Execute Event Handler: {0}", new Object[]{proceed});
+        LOGGER.log(ODLLevel.NOTIFICATION, "Execute Event Handler: {0}", proceed);
         return proceed;
     }
     
@@ -101,7 +108,7 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
     @Override
     public void initialize(HashMap<String, String> hm)
     {
-        LOGGER.log(ODLLevel.NOTIFICATION, "Begin Initialize: {0}", new Object[]{hm});
+        LOGGER.log(ODLLevel.NOTIFICATION, "Begin Initialize: {0}", hm);
         
         // Map operation-lookup pair
         this.operationToLookup.put("DISABLE", LOOKUP_USER_DISABLE_APPINST_DISPLAYNAME_PROCTASKS);
@@ -109,7 +116,7 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
         this.operationToLookup.put("LOCK", LOOKUP_USER_LOCK_APPINST_DISPLAYNAME_PROCTASKS);
         this.operationToLookup.put("UNLOCK", LOOKUP_USER_UNLOCK_APPINST_DISPLAYNAME_PROCTASKS);
         
-        LOGGER.log(ODLLevel.NOTIFICATION, "End Initialize: {0}", new Object[]{this.operationToLookup});
+        LOGGER.log(ODLLevel.NOTIFICATION, "End Initialize: {0}", this.operationToLookup);
     }
         
     /**
@@ -122,7 +129,8 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
     @Override
     public EventResult execute(long processId, long eventId, Orchestration orchestration) 
     {
-        LOGGER.log(ODLLevel.NOTIFICATION, "Enter execute() with parameters: Process Id = [{0}], Event Id = [{1}], Orchestration = [{2}]", new Object[]{processId, eventId, orchestration});
+        LOGGER.log(ODLLevel.NOTIFICATION, "Enter execute() with parameters: Process Id = [{0}], Event Id = [{1}]", processId, eventId);
+        LOGGER.log(ODLLevel.TRACE, "Orchestration: {0}", orchestration);
         String appInstToProcTaskLookup = null;
         
         // OIM tc* Services
@@ -132,54 +140,54 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
         
         // Get Target Type
         String targetType = orchestration.getTarget().getType();
-        LOGGER.log(ODLLevel.NOTIFICATION, "Target type: {0}", new Object[]{targetType});
+        LOGGER.log(ODLLevel.NOTIFICATION, "Target type: {0}", targetType);
 
         // Get Operation
         String operation = orchestration.getOperation();
-        LOGGER.log(ODLLevel.NOTIFICATION, "Operation: {0}", new Object[]{operation});
+        LOGGER.log(ODLLevel.NOTIFICATION, "Operation: {0}", operation);
             
         try
         {
             // Get tc* Services
-            provOps = Platform.getService(tcProvisioningOperationsIntf.class);
-            taskDefOps = Platform.getService(TaskDefinitionOperationsIntf.class);
-            lookupOps = Platform.getService(tcLookupOperationsIntf.class);
+            provOps = PlatformServices.getService(tcProvisioningOperationsIntf.class);
+            taskDefOps = PlatformServices.getService(TaskDefinitionOperationsIntf.class);
+            lookupOps = PlatformServices.getService(tcLookupOperationsIntf.class);
                                                 
             // Get corresponding lookup for operation
             appInstToProcTaskLookup = this.operationToLookup.get(operation);
-            LOGGER.log(ODLLevel.NOTIFICATION, "Using Lookup: {0}", new Object[]{appInstToProcTaskLookup});
+            LOGGER.log(ODLLevel.NOTIFICATION, "Using Lookup: {0}", appInstToProcTaskLookup);
             
             if(appInstToProcTaskLookup != null && !"".equalsIgnoreCase(appInstToProcTaskLookup))
             {
                  // Get USR_KEY of current user being modified
                 String userKey = orchestration.getTarget().getEntityId();
-                LOGGER.log(ODLLevel.NOTIFICATION, "Target OIM User Key: {0}", new Object[]{userKey});
+                LOGGER.log(ODLLevel.NOTIFICATION, "Target OIM User Key: {0}", userKey);
                 
                 // Get modified parameters
                 HashMap<String,Serializable> modParams = orchestration.getParameters();
-                LOGGER.log(ODLLevel.NOTIFICATION, "Modified Parameters: {0}", new Object[]{modParams});
+                LOGGER.log(ODLLevel.NOTIFICATION, "Modified Parameters: {0}", modParams);
 
                 // Contains old and new values of target user
                 HashMap<String, Serializable> interEventData = orchestration.getInterEventData();
-                LOGGER.log(ODLLevel.TRACE, "InterEventData: {0}", new Object[]{interEventData});
+                LOGGER.log(ODLLevel.TRACE, "InterEventData: {0}", interEventData);
 
                 // Get new user state
                 User newUserState = (User) interEventData.get("NEW_USER_STATE");
-                LOGGER.log(ODLLevel.TRACE, "User: {0}", new Object[]{newUserState});
+                LOGGER.log(ODLLevel.TRACE, "User: {0}", newUserState);
 
                 // Get old user state
                 User oldUserState = (User) interEventData.get("CURRENT_USER");
-                LOGGER.log(ODLLevel.TRACE, "Old User: {0}", new Object[]{oldUserState});
+                LOGGER.log(ODLLevel.TRACE, "Old User: {0}", oldUserState);
 
                 // Get Resource To Process Tasks Lookup; Code is Application Instance Display Name Name; Decode is String delimited Process Tasks
                 HashMap<String,String> appInstDisplayNameToProcTasksMap = this.convertLookupToMap(appInstToProcTaskLookup, lookupOps);
-                LOGGER.log(ODLLevel.NOTIFICATION, "Application Instance Display Name To Process Tasks Mapping: {0}", new Object[]{appInstDisplayNameToProcTasksMap});
+                LOGGER.log(ODLLevel.NOTIFICATION, "Application Instance Display Name To Process Tasks Mapping: {0}", appInstDisplayNameToProcTasksMap);
 
                 // Construct criteria based on application instance display name given in lookup (code key)
-                SearchCriteria criteria = this.constructOrCriteria(appInstDisplayNameToProcTasksMap.keySet(), ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId());
+                SearchCriteria criteria = constructOrCriteria(appInstDisplayNameToProcTasksMap.keySet(), ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId());
 
                 // Execute event
-                this.callProcessTasksForUserResourceAccounts(newUserState, provOps, taskDefOps, PROV_SERVICE, appInstDisplayNameToProcTasksMap, criteria); 
+                this.callProcessTasksForUserResourceAccounts(newUserState, provOps, taskDefOps, ProvisioningServiceHolder.PROV_SERVICE, appInstDisplayNameToProcTasksMap, criteria); 
             }
         } 
         
@@ -256,7 +264,8 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
     @Override
     public BulkEventResult execute(long processId, long eventId, BulkOrchestration bulkOrchestration) 
     {
-        LOGGER.log(ODLLevel.NOTIFICATION, "Enter execute() with parameters: Process Id = [{0}], Event Id = [{1}], Bulk Orchestration = [{2}]", new Object[]{processId, eventId, bulkOrchestration});
+        LOGGER.log(ODLLevel.NOTIFICATION, "Enter execute() with parameters: Process Id = [{0}], Event Id = [{1}]", processId, eventId);
+        LOGGER.log(ODLLevel.TRACE, "Bulk Orchestration: {0}", bulkOrchestration);
         String appInstToProcTaskLookup = null;
         
         // OIM tc* Services
@@ -266,46 +275,47 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
         
         // Get Target Type
         String targetType = bulkOrchestration.getTarget().getType();
-        LOGGER.log(ODLLevel.NOTIFICATION, "Target type: {0}", new Object[]{targetType});
+        LOGGER.log(ODLLevel.NOTIFICATION, "Target type: {0}", targetType);
         
         // Get Operation
         String operation = bulkOrchestration.getOperation();
-        LOGGER.log(ODLLevel.NOTIFICATION, "Operation: {0}", new Object[]{operation});
+        LOGGER.log(ODLLevel.NOTIFICATION, "Operation: {0}", operation);
         
         try
         {
             // Get tc* Services
-            provOps = Platform.getService(tcProvisioningOperationsIntf.class);
-            taskDefOps = Platform.getService(TaskDefinitionOperationsIntf.class);
-            lookupOps = Platform.getService(tcLookupOperationsIntf.class);
+            provOps = PlatformServices.getService(tcProvisioningOperationsIntf.class);
+            taskDefOps = PlatformServices.getService(TaskDefinitionOperationsIntf.class);
+            lookupOps = PlatformServices.getService(tcLookupOperationsIntf.class);
             
             // Get corresponding lookup for operation
             appInstToProcTaskLookup = this.operationToLookup.get(operation);
-            LOGGER.log(ODLLevel.NOTIFICATION, "Using Lookup: {0}", new Object[]{appInstToProcTaskLookup});
+            LOGGER.log(ODLLevel.NOTIFICATION, "Using Lookup: {0}", appInstToProcTaskLookup);
             
             if(appInstToProcTaskLookup != null && !"".equalsIgnoreCase(appInstToProcTaskLookup))
             {
                 // Get Resource To Process Tasks Lookup; Code is Application Instance Display Name Name; Decode is String delimited Process Tasks
                 HashMap<String,String> appInstDisplayNameToProcTasksMap = this.convertLookupToMap(appInstToProcTaskLookup, lookupOps);
-                LOGGER.log(ODLLevel.NOTIFICATION, "Application Instance Display Name To Process Tasks Mapping: {0}", new Object[]{appInstDisplayNameToProcTasksMap});
+                LOGGER.log(ODLLevel.NOTIFICATION, "Application Instance Display Name To Process Tasks Mapping: {0}", appInstDisplayNameToProcTasksMap);
 
                 // Construct criteria based on application instance display name given in lookup (code key)
-                SearchCriteria criteria = this.constructOrCriteria(appInstDisplayNameToProcTasksMap.keySet(), ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId());
+                SearchCriteria criteria = constructOrCriteria(appInstDisplayNameToProcTasksMap.keySet(), ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId());
 
                 // Get the user records from the orchestration argument
                 String[] entityIds = bulkOrchestration.getTarget().getAllEntityId();
                 int numUsers = entityIds.length;
-                LOGGER.log(ODLLevel.NOTIFICATION, "{0} user keys: {1}", new Object[]{numUsers, Arrays.toString(entityIds)});
+                LOGGER.log(ODLLevel.NOTIFICATION, "Number of user keys: {0}", numUsers);
+                LOGGER.log(ODLLevel.TRACE, "User keys: {0}", GuardedLogger.arrayToString(entityIds));
 
                 // Get bulk Parameters
                 HashMap<String, Serializable>[] bulkParameters = bulkOrchestration.getBulkParameters();
                 int numEvents = bulkParameters.length;
-                LOGGER.log(ODLLevel.NOTIFICATION, "Number of Bulk Parameters Events: {0}", new Object[]{numEvents});
-                LOGGER.log(ODLLevel.TRACE, "Bulk Parameters: {0}", new Object[]{Arrays.toString(bulkParameters)});
+                LOGGER.log(ODLLevel.NOTIFICATION, "Number of Bulk Parameters Events: {0}", numEvents);
+                LOGGER.log(ODLLevel.TRACE, "Bulk Parameters: {0}", GuardedLogger.arrayToString(bulkParameters));
                 
                 // Get InterEventData
                 HashMap<String, Serializable> interEventData = bulkOrchestration.getInterEventData();
-                LOGGER.log(ODLLevel.TRACE, "InterEventData: {0}", new Object[]{interEventData});
+                LOGGER.log(ODLLevel.TRACE, "InterEventData: {0}", interEventData);
 
                 // Get the new state of all users
                 Object usersObj = interEventData.get("NEW_USER_STATE");
@@ -320,20 +330,20 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
                 {
                     // Get USR_KEY of current userbeing modified
                     String userKey = entityIds[i];
-                    LOGGER.log(ODLLevel.NOTIFICATION, "Target OIM User Key: {0}", new Object[]{userKey});
+                    LOGGER.logSampled(BULK_USER_SAMPLER, ODLLevel.NOTIFICATION, "Target OIM User Key: {0}", userKey);
 
                     // Get new user state
                     User newUserState = (User) users[i];
-                    LOGGER.log(ODLLevel.TRACE, "New User State: {0}", new Object[]{newUserState});
+                    LOGGER.log(ODLLevel.TRACE, "New User State: {0}", newUserState);
 
                     // Get old user state
                     User oldUserState = (User) prevUsers[i];
-                    LOGGER.log(ODLLevel.TRACE, "Old User State: {0}", new Object[]{oldUserState});
+                    LOGGER.log(ODLLevel.TRACE, "Old User State: {0}", oldUserState);
 
                     try
                     {                    
                         // Execute event
-                        this.callProcessTasksForUserResourceAccounts(newUserState, provOps, taskDefOps, PROV_SERVICE, appInstDisplayNameToProcTasksMap, criteria);
+                        this.callProcessTasksForUserResourceAccounts(newUserState, provOps, taskDefOps, ProvisioningServiceHolder.PROV_SERVICE, appInstDisplayNameToProcTasksMap, criteria);
                     }
 
                     catch (UserNotFoundException e) 
@@ -370,7 +380,7 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
             
             else
             {
-                LOGGER.log(ODLLevel.WARNING,"Skipping event handler on unsupported operation: {0}", new Object[]{operation});
+                LOGGER.log(ODLLevel.WARNING,"Skipping event handler on unsupported operation: {0}", operation);
             }
         }
         
@@ -475,11 +485,11 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
         String userKey = user.getId(); // Get usr_key
         boolean populateAccountData = true;
         HashMap<String,Object> configParams = null;
-        LOGGER.log(ODLLevel.INFO, "Begin event for user: USR_KEY = {0}, User Login = {1}", new Object[]{userKey, userLogin}); 
+        LOGGER.log(ODLLevel.INFO, "Begin event for user: USR_KEY = {0}, User Login = {1}", userKey, userLogin); 
         
         // Get user's resource accounts based on criteria     
         List<Account> accounts = provService.getAccountsProvisionedToUser(userKey, resourceObjectsCriteria, configParams, populateAccountData); // API will return nothing if null criteria is provided 
-        LOGGER.log(ODLLevel.INFO, "Total Accounts to Process: {0}", new Object[]{accounts.size()});
+        LOGGER.log(ODLLevel.INFO, "Total Accounts to Process: {0}", accounts.size());
         
         // Iterate User's accounts of a specific resource object
         for(Account resourceAcct: accounts)
@@ -490,17 +500,17 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
            String resourceObjectName = resourceAcct.getAppInstance().getObjectName(); // Resource Object Name
            String appInstDisplayName = resourceAcct.getAppInstance().getDisplayName(); // Application Instance Name
            String status = resourceAcct.getAccountStatus();
-           LOGGER.log(ODLLevel.NOTIFICATION, "Account Id: {0}", new Object[]{accountId});
-           LOGGER.log(ODLLevel.NOTIFICATION, "Process Instance Form Key: {0}", new Object[]{procInstFormKey});
-           LOGGER.log(ODLLevel.NOTIFICATION, "Application Instance Name: {0}", new Object[]{appInstName});
-           LOGGER.log(ODLLevel.NOTIFICATION, "Object Name: {0}", new Object[]{resourceObjectName});
-           LOGGER.log(ODLLevel.NOTIFICATION, "Application Instance Display Name: {0}", new Object[]{appInstDisplayName});
-           LOGGER.log(ODLLevel.NOTIFICATION, "Account Status: {0}", new Object[]{status});
+           LOGGER.log(ODLLevel.NOTIFICATION, "Account Id: {0}", accountId);
+           LOGGER.log(ODLLevel.NOTIFICATION, "Process Instance Form Key: {0}", procInstFormKey);
+           LOGGER.log(ODLLevel.NOTIFICATION, "Application Instance Name: {0}", appInstName);
+           LOGGER.log(ODLLevel.NOTIFICATION, "Object Name: {0}", resourceObjectName);
+           LOGGER.log(ODLLevel.NOTIFICATION, "Application Instance Display Name: {0}", appInstDisplayName);
+           LOGGER.log(ODLLevel.NOTIFICATION, "Account Status: {0}", status);
            
            // Get delimited process tasks from lookup
            String delimitedProcTasks = resourceToProcTasksMap.get(appInstDisplayName);
            String[] procTaskNames = delimitedProcTasks.split(DELIMITER);
-           LOGGER.log(ODLLevel.TRACE, "Application Instance Display Name: {0}, Process Tasks: {1}", new Object[]{appInstDisplayName, Arrays.asList(procTaskNames)});
+           LOGGER.log(ODLLevel.TRACE, "Application Instance Display Name: {0}, Process Tasks: {1}", appInstDisplayName, GuardedLogger.arrayToString(procTaskNames));
            
            // Handle resource accounts that been written to UD table.
            // This excludes resources in Waiting state, Revoked state, and Provisioning 
@@ -523,65 +533,42 @@ public class UserLifecyclePostprocessEH implements ConditionalEventHandler, Post
                        procDefTaskKey = results.getStringValue("Process Definition.Tasks.Key"); // MIL_KEY
                    }
                    
-                   LOGGER.log(ODLLevel.NOTIFICATION, "Process Definition Task Key: {0}", new Object[]{procDefTaskKey});
+                   LOGGER.log(ODLLevel.NOTIFICATION, "Process Definition Task Key: {0}", procDefTaskKey);
                    
                    if(procDefTaskKey != null)
                    {         
                        // Call a process task directly on an application instance
                        long schKey = provOps.addProcessTaskInstance(Long.valueOf(procDefTaskKey), Long.valueOf(procInstFormKey));
-                       LOGGER.log(ODLLevel.NOTIFICATION, "Called Process Task: User = {1}, Application Name = {3}, Task Name = {2}, Task Instance Key = {0}", new Object[]{schKey, userLogin, procTaskName, appInstName});
+                       LOGGER.log(ODLLevel.NOTIFICATION, "Called Process Task: User = {1}, Application Name = {3}, Task Name = {2}, Task Instance Key = {0}", schKey, userLogin, procTaskName, appInstName);
                    }
                    
                    else 
                    {
-                       LOGGER.log(ODLLevel.WARNING, "Process Task Instance Name Not Found: {0}", new Object[]{procTaskName});
+                       LOGGER.log(ODLLevel.WARNING, "Process Task Instance Name Not Found: {0}", procTaskName);
                    }
                }
            }
             
            else 
            {
-               LOGGER.log(ODLLevel.NOTIFICATION, "Skip resource {0}. Status = {1}", new Object[]{appInstDisplayName, status});
+               LOGGER.log(ODLLevel.NOTIFICATION, "Skip resource {0}. Status = {1}", appInstDisplayName, status);
            }
         }
                 
-        LOGGER.log(ODLLevel.NOTIFICATION, "Finished event for user: USR_KEY = {0}, User Login = {1}", new Object[]{userKey, userLogin}); 
+        LOGGER.log(ODLLevel.NOTIFICATION, "Finished event for user: USR_KEY = {0}, User Login = {1}", userKey, userLogin); 
     }
     
     /**
      * Construct an OR criteria
-     * E.g. element1 || element2 || element3  
+     * E.g. element1 || element2 || element3
+     * Built as a balanced OR tree (or a single IN criteria when oimutilities.lifecycle.inCriteria
+     * is true) and compiled once per set of elements, so an unchanged lookup reuses the criteria.
      * @param elements String elements to construct criteria
      * @param searchAttribute   Search Attribute (E.g. ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId())
      * @return constructed criteria object 
      */
-    private SearchCriteria constructOrCriteria(Set<String> elements, String searchAttribute)
+    static SearchCriteria constructOrCriteria(Set<String> elements, String searchAttribute)
     {
-        // Used to construct criteria
-        int count = 0;
-        
-        // Used to build the final criteria
-        SearchCriteria allCriteria = null; 
-        
-        // Iterate each element in the set
-        for(String element: elements) 
-        {
-            // One criteria
-            if(count == 0) 
-            {
-                allCriteria = new SearchCriteria(searchAttribute, element, SearchCriteria.Operator.EQUAL);     
-            }
-
-            // Appending OR criteria
-            else 
-            {
-                SearchCriteria concatCriteria = new SearchCriteria(searchAttribute, element, SearchCriteria.Operator.EQUAL);     
-                allCriteria = new SearchCriteria(allCriteria, concatCriteria, SearchCriteria.Operator.OR);
-            }
-
-            count++;
-        }
-        
-        return allCriteria;
+        return SearchCriteriaBuilder.anyOf(searchAttribute, elements, CRITERIA_STYLE);
     }
 }
\ No newline at end of file
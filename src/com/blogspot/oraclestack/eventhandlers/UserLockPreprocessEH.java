@@ -1,228 +1,119 @@
 package com.blogspot.oraclestack.eventhandlers;
 
+import com.blogspot.oraclestack.objects.EventItem;
+import com.blogspot.oraclestack.utilities.GuardedLogger;
 import java.io.Serializable;
-import java.text.MessageFormat;
 import java.util.HashMap;
+import java.util.List;
 import oracle.core.ojdl.logging.ODLLevel;
-import oracle.core.ojdl.logging.ODLLogger;
-import oracle.iam.identity.exception.NoSuchUserException;
-import oracle.iam.identity.exception.SearchKeyNotUniqueException;
-import oracle.iam.identity.exception.UserModifyException;
-import oracle.iam.identity.exception.ValidationFailedException;
-import oracle.iam.identity.usermgmt.api.UserManager;
 import oracle.iam.identity.usermgmt.api.UserManagerConstants;
 import oracle.iam.identity.usermgmt.vo.User;
-import oracle.iam.identity.usermgmt.vo.UserManagerResult;
-import oracle.iam.identity.vo.Identity;
-import oracle.iam.platform.Platform;
-import oracle.iam.platform.authz.exception.AccessDeniedException;
-import oracle.iam.platform.kernel.EventFailedException;
 import oracle.iam.platform.kernel.spi.PreProcessHandler;
-import oracle.iam.platform.kernel.vo.AbstractGenericOrchestration;
-import oracle.iam.platform.kernel.vo.BulkEventResult;
-import oracle.iam.platform.kernel.vo.BulkOrchestration;
-import oracle.iam.platform.kernel.vo.EventResult;
-import oracle.iam.platform.kernel.vo.Orchestration;
 
 /**
- * Demonstrates implementing single and bulk execute method for a preprocess
- * event handler on user lock operation. This can also be used as a template for
- * implementing other preprocess event handlers. Place additional implementations/logic
- * in the executeEvent() method since both execute() methods make calls to it.
- * 
+ * Demonstrates implementing a preprocess event handler on user lock operation
+ * on the batch form of AbstractBulkEventHandler. This can also be used as a template for
+ * implementing other preprocess event handlers. Place per user attribute changes
+ * in the getUserUpdates() method since processItem() makes calls to it for every user.
+ * A user with its own orchestration parameters gets the changes added to them so they
+ * are saved with the lock itself. Users sharing the parameters of a bulk lock get them
+ * written with EntityManager, which saves the user directly instead of starting a new
+ * modify orchestration per user; the writes of the bulk lock are grouped and applied
+ * once every user is processed.
+ *
  * Note: For bulk lock operation, modifying the parameters applies to all users
- * in the orchestration. When using this preprocess event handler on DISABLE and 
+ * in the orchestration. When using this preprocess event handler on DISABLE and
  * ENABLE operations, modifying the orchestration parameters do nothing.
- * 
+ *
  * @author rayedchan
  */
-public class UserLockPreprocessEH implements PreProcessHandler 
+public class UserLockPreprocessEH extends AbstractBulkEventHandler implements PreProcessHandler
 {
     // Logger
-    private static final ODLLogger LOGGER = ODLLogger.getODLLogger(UserLockPreprocessEH.class.getName());
-    
-    // OIM API Services
-    private static final UserManager USR_MGR = Platform.getServiceForEventHandlers(UserManager.class, null, "ADMIN","UserLockPreprocessEH", null);
+    private static final GuardedLogger LOGGER = GuardedLogger.getLogger(UserLockPreprocessEH.class.getName());
+    private static final GuardedLogger.Sampler BULK_USER_SAMPLER = new GuardedLogger.Sampler(1000L);
 
     /**
-     * Executes the event handler on a single event operation.
+     * Modify the orchestration parameters once per set of parameters.
+     * For bulk lock operation, the set is shared by all users in the orchestration.
      * @param processId Process Id
-     * @param eventId   Event Id
-     * @param orchestration Orchestration contains target user information
-     * @return new event result
+     * @param items     Users being locked
      */
     @Override
-    public EventResult execute(long processId, long eventId, Orchestration orchestration) 
+    protected void prepareBatch(long processId, List<EventItem> items)
     {
-        LOGGER.log(ODLLevel.NOTIFICATION, "Enter execute method: Process Id = {0}, Event Id = {1}", new Object[]{processId, eventId});
-        
-        // Get USR_KEY of target user from orchestration
-        String userKey = orchestration.getTarget().getEntityId();
-        LOGGER.log(ODLLevel.NOTIFICATION, "User Key: {0}", new Object[]{userKey});
+        LOGGER.log(ODLLevel.NOTIFICATION, "Number of users to process: {0}", items.size());
 
-        // Get Interevent data; only current User state avaliable    
-        HashMap<String,Serializable> interEventMap = orchestration.getInterEventData();
-        LOGGER.log(ODLLevel.TRACE, "InterEvent Data: {0}", new Object[]{interEventMap});
-
-        // Get the modified parameters upon lock operation
-        HashMap<String,Serializable> modParams = orchestration.getParameters();
-        LOGGER.log(ODLLevel.TRACE, "Modified Paramerters: {0}", new Object[]{modParams});
-
-        // Get current user state
-        User user = (User) interEventMap.get("CURRENT_USER");
-        LOGGER.log(ODLLevel.TRACE, "Current User: {0}", new Object[]{user});
-        
-        // Get user login
-        String userLogin = user.getLogin();
-        LOGGER.log(ODLLevel.NOTIFICATION, "User Login: {0}", new Object[]{userLogin});
-        
-        try 
-        {
-            // Modify the orchestration parameters for the target user
-            this.updateOrchParams(modParams);
-            LOGGER.log(ODLLevel.TRACE, "New Modified Parameters: {0}", new Object[]{modParams});
-            
-            // Apply additional modification to user. 
-            // NOTE: These modification can also be changed in the orchestration.
-            this.executeEvent(user);
-        } 
-        
-        catch (Exception e) 
+        for(EventItem item : items)
         {
-            LOGGER.log(ODLLevel.SEVERE, MessageFormat.format("Failed for {0}", new Object[]{userLogin}), e);
-            throw new EventFailedException(processId,"","","","", new Exception(e.getMessage()));
-        } 
-
-        LOGGER.log(ODLLevel.NOTIFICATION, "End execute method.");
-        return new EventResult();
+            if(!item.isSharedParameters() || item.getIndex() == 0)
+            {
+                LOGGER.log(ODLLevel.TRACE, "Modified Parameters: {0}", item.getParameters());
+                this.updateOrchParams(item.getParameters());
+                LOGGER.log(ODLLevel.TRACE, "New Modified Parameters: {0}", item.getParameters());
+            }
+        }
     }
 
     /**
-     * Executes the event handler on bulk event operation.
-     * @param processId Process Id
-     * @param eventId   Event Id
-     * @param bulkOrchestration Bulk Orchestration contains target users information
-     * @return A new BulkEventResult
+     * Apply the user specific changes
+     * @param item  User being locked; current user state is available
+     * @return User Login
+     * @throws Exception
      */
     @Override
-    public BulkEventResult execute(long processId, long eventId, BulkOrchestration bulkOrchestration)
-    {    
-        LOGGER.log(ODLLevel.NOTIFICATION, "Enter bulk execute method: Process Id = {0}, Event Id = {1}", new Object[]{processId, eventId});
-        
-        // Get the user keys from the orchestration
-        String[] entityIds = bulkOrchestration.getTarget().getAllEntityId();
-        
-        // Get changes for all users
-        HashMap<String, Serializable>[] bulkParameters = bulkOrchestration.getBulkParameters();
-        int numEvents = bulkParameters.length;
-        LOGGER.log(ODLLevel.NOTIFICATION, "Number of Bulk Parameters: {0}", new Object[]{numEvents});
-        
-        // Modifying the orchestration parameters applies to all users
-        if(numEvents > 0)
+    protected String processItem(EventItem item) throws Exception
+    {
+        // Get current user state
+        User user = item.getCurrentUser();
+        LOGGER.log(ODLLevel.TRACE, "Current User: {0}", user);
+        LOGGER.logSampled(BULK_USER_SAMPLER, ODLLevel.NOTIFICATION, "OIM User Key: {0}", item.getEntityId());
+
+        if(item.isSharedParameters())
         {
-            // Get the modified parameters; Shared among the users
-            HashMap<String, Serializable> modParams = bulkParameters[0];
-            LOGGER.log(ODLLevel.TRACE, "Modified Parameters: {0}", new Object[]{modParams});
-            
-            // Call method to modify the orchestration parameters
-            this.updateOrchParams(modParams);
-            LOGGER.log(ODLLevel.TRACE, "New Modified Parameters: {0}", new Object[]{modParams});
+            // Queue the user specific changes for the grouped EntityManager write; no nested modify orchestration
+            HashMap<String,Object> attrs = new HashMap<String,Object>(this.getUserUpdates(user));
+            writeDerived(item, attrs);
+            LOGGER.log(ODLLevel.TRACE, "Queued update of {0} with {1}", user.getLogin(), attrs);
         }
-        
-        // Get interEventData
-        HashMap<String, Serializable> interEventData = bulkOrchestration.getInterEventData();
-        
-        // Get list of users
-        Object curUsersObj = interEventData.get("CURRENT_USER");
-        Identity[] users  = (Identity[]) curUsersObj;
-        int numUsers = users.length;
-        LOGGER.log(ODLLevel.NOTIFICATION, "Number of users to process: {0}", new Object[]{numUsers});
-        
-        // Iterate each user; apply changes to each user
-        for(int i = 0; i < numUsers; i++)
-        {            
-            // Get current user state
-            User user = (User) users[i];
-            LOGGER.log(ODLLevel.TRACE, "User: {0}", new Object[]{user});
-            
-            // Get USR_KEY of current user being modified
-            String userKey = entityIds[i];
-            LOGGER.log(ODLLevel.NOTIFICATION, "OIM User Key: {0}", new Object[]{userKey});
-            
-            // Get user login
-            String userLogin = user.getLogin();
-            LOGGER.log(ODLLevel.NOTIFICATION, "User Login: {0}", new Object[]{userLogin});
-               
-            try
-            {
-                // Modify the user attributes
-                this.executeEvent(user);
-            }
-            
-            catch (Exception e) 
-            {
-                LOGGER.log(ODLLevel.SEVERE, MessageFormat.format("Failed for {0}", new Object[]{userLogin}), e);
-            }
+
+        else
+        {
+            // Apply the user specific changes in the same orchestration
+            item.getParameters().putAll(this.getUserUpdates(user));
+            LOGGER.log(ODLLevel.TRACE, "New Modified Parameters: {0}", item.getParameters());
         }
-            
-        LOGGER.log(ODLLevel.INFO, "End bulk execute.");
-        return new BulkEventResult();
+
+        return user.getLogin();
     }
-    
+
     /**
-     * Used to modify the orchestration parameters. This can be called in
-     * the single and bulk execute. For bulk lock operation, modifying the 
+     * Used to modify the orchestration parameters. For bulk lock operation, modifying the
      * orchestration parameters applies to all users given in the orchestration.
-     * @param user  OIM User
      * @param orchParams   Orchestration parameters to add, remove, or update user attributes
      */
-    private void updateOrchParams(HashMap<String,Serializable> orchParams) 
-    {        
+    private void updateOrchParams(HashMap<String,Serializable> orchParams)
+    {
         // Modify orchestration parameters so OIM can propagate changes to downstream processes (E.g. Postprocess event handler, Process Tasks)
         // TODO: Apply your changes here.
         orchParams.put(UserManagerConstants.AttributeName.DEPARTMENT_NUMBER.getId(), "LOCKED"); // Department Number
         orchParams.put(UserManagerConstants.AttributeName.TITLE.getId(), "LOCKED"); // Title
         orchParams.put(UserManagerConstants.AttributeName.EMPLOYEE_NUMBER.getId(), "LOCKED"); // Employee Number
     }
-    
+
     /**
-     * Used if different attribute values are to be applied for each user. This can be called in
-     * the single and bulk execute since this method processes one user at a time.
+     * Used if different attribute values are to be applied for each user.
+     * This method processes one user at a time.
      * @param user  OIM User
+     * @return User attributes to change
      */
-    private void executeEvent(User user) throws ValidationFailedException, AccessDeniedException, UserModifyException, NoSuchUserException, SearchKeyNotUniqueException 
+    private HashMap<String,Serializable> getUserUpdates(User user)
     {
-        String userLogin = user.getLogin();
-        LOGGER.log(ODLLevel.NOTIFICATION, "Preparing updates for {0}", new Object[]{userLogin});
-        HashMap<String,Object> attrs = new HashMap<String,Object>();
-            
-        // Update user via API
+        HashMap<String,Serializable> attrs = new HashMap<String,Serializable>();
+
         // TODO: Apply your changes here.
         attrs.put(UserManagerConstants.AttributeName.STREET.getId(), "LOCKED: " + user.getLogin());
         attrs.put(UserManagerConstants.AttributeName.POSTAL_ADDRESS.getId(), "LOCKED: " + user.getId());
-        User modUser = new User(userLogin, attrs);
-        UserManagerResult result = USR_MGR.modify("User Login", userLogin, modUser);
-        
-        LOGGER.log(ODLLevel.NOTIFICATION, "Entity ID: {0}", new Object[]{result.getEntityId()});
-        LOGGER.log(ODLLevel.NOTIFICATION, "Failed Results: {0}", new Object[]{result.getFailedResults()});
-        LOGGER.log(ODLLevel.NOTIFICATION, "Status: {0}", new Object[]{result.getStatus()});
-        LOGGER.log(ODLLevel.NOTIFICATION, "Succeeded Results: {0}", new Object[]{result.getSucceededResults()});
-        LOGGER.log(ODLLevel.NOTIFICATION, "Updated {0} with {1}", new Object[]{userLogin, attrs});
+        return attrs;
     }
-
-    @Override
-    public void initialize(HashMap<String, String> arg0)
-    {    
-    }
-    
-    @Override
-    public boolean cancel(long processId, long eventId, AbstractGenericOrchestration orchestration) 
-    {
-        return false;
-    }
-
-    @Override
-    public void compensate(long processId, long eventId, AbstractGenericOrchestration orchestration) 
-    {  
-    }  
 }
@@ -0,0 +1,58 @@
+package com.blogspot.oraclestack.objects;
+
+import java.util.ArrayList;
+import java.util.Map;
+import oracle.iam.provisioning.vo.ChildTableRecord;
+
+/**
+ * A single resource account to provision to a user in a bulk operation.
+ * @author rayedchan
+ */
+public class AccountProvisioningItem
+{
+    private final String userLogin; // OIM User Login (USR.USR_LOGIN)
+    private final String appInstName; // Name of application instance (APP_INSTANCE.APP_INSTANCE_NAME)
+    private final Map<String,Object> parentData; // Data to populate the parent process form
+    private final Map<String,ArrayList<ChildTableRecord>> childData; // Data to populate the child process form(s); may be null
+
+    /**
+     * Constructor
+     * @param userLogin     OIM User Login (USR.USR_LOGIN)
+     * @param appInstName   Name of application instance (APP_INSTANCE.APP_INSTANCE_NAME)
+     * @param parentData    Data to populate the parent process form
+     * @param childData     Data to populate the child process form(s); null if none
+     */
+    public AccountProvisioningItem(String userLogin, String appInstName, Map<String,Object> parentData, Map<String,ArrayList<ChildTableRecord>> childData)
+    {
+        this.userLogin = userLogin;
+        this.appInstName = appInstName;
+        this.parentData = parentData;
+        this.childData = childData;
+    }
+
+    public String getUserLogin()
+    {
+        return userLogin;
+    }
+
+    public String getAppInstName()
+    {
+        return appInstName;
+    }
+
+    public Map<String,Object> getParentData()
+    {
+        return parentData;
+    }
+
+    public Map<String,ArrayList<ChildTableRecord>> getChildData()
+    {
+        return childData;
+    }
+
+    @Override
+    public String toString()
+    {
+        return userLogin + "/" + appInstName;
+    }
+}
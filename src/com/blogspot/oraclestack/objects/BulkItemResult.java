@@ -0,0 +1,81 @@
+package com.blogspot.oraclestack.objects;
+
+/**
+ * Outcome of a single item processed by a bulk operation
+ * (E.g. one row of a CSV file, one entitlement grant, one provisioned account).
+ * @author rayedchan
+ */
+public class BulkItemResult
+{
+    /**
+     * Final state of an item
+     */
+    public enum Status
+    {
+        SUCCEEDED,
+        SKIPPED,
+        FAILED
+    }
+
+    private final String itemId; // Identifies the item (E.g. entry number, user login)
+    private final String description; // Human readable details about the item
+    private final Status status;
+    private final int attempts; // Number of times the operation was tried
+    private final long elapsedMillis; // Time spent on the item including retries
+    private final String message; // Result value or failure reason
+
+    /**
+     * Constructor
+     * @param itemId        Identifier of the item
+     * @param description   Details about the item
+     * @param status        Final state of the item
+     * @param attempts      Number of times the operation was tried
+     * @param elapsedMillis Time spent on the item in milliseconds
+     * @param message       Result value or failure reason
+     */
+    public BulkItemResult(String itemId, String description, Status status, int attempts, long elapsedMillis, String message)
+    {
+        this.itemId = itemId;
+        this.description = description;
+        this.status = status;
+        this.attempts = attempts;
+        this.elapsedMillis = elapsedMillis;
+        this.message = message;
+    }
+
+    public String getItemId()
+    {
+        return itemId;
+    }
+
+    public String getDescription()
+    {
+        return description;
+    }
+
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    public int getAttempts()
+    {
+        return attempts;
+    }
+
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BulkItemResult{" + "itemId=" + itemId + ", description=" + description + ", status=" + status + ", attempts=" + attempts + ", elapsedMillis=" + elapsedMillis + ", message=" + message + '}';
+    }
+}
@@ -0,0 +1,154 @@
+package com.blogspot.oraclestack.objects;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Collects the per-item results of a bulk operation. Results can be added
+ * from multiple threads. The report can be written to a CSV file once the
+ * bulk operation is finished.
+ * @author rayedchan
+ */
+public class BulkOperationReport
+{
+    // Header of the results CSV file
+    private static final String[] CSV_HEADER = {"ITEM_ID", "DESCRIPTION", "STATUS", "ATTEMPTS", "ELAPSED_MS", "MESSAGE"};
+
+    private final String operationName;
+    private final List<BulkItemResult> results = Collections.synchronizedList(new ArrayList<BulkItemResult>());
+    private final long startTime;
+    private volatile long endTime = -1L;
+
+    /**
+     * Constructor. Marks the start time of the bulk operation.
+     * @param operationName Name of the bulk operation used in logs
+     */
+    public BulkOperationReport(String operationName)
+    {
+        this.operationName = operationName;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Record the outcome of an item. Thread safe.
+     * @param result Outcome of a single item
+     */
+    public void add(BulkItemResult result)
+    {
+        this.results.add(result);
+    }
+
+    /**
+     * Marks the end time of the bulk operation.
+     */
+    public void finish()
+    {
+        this.endTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Get a copy of all the recorded results
+     * @return List of item results
+     */
+    public List<BulkItemResult> getResults()
+    {
+        synchronized(this.results)
+        {
+            return new ArrayList<BulkItemResult>(this.results);
+        }
+    }
+
+    /**
+     * Count the items with the given status
+     * @param status Status to count
+     * @return Number of items with the status
+     */
+    public int getCount(BulkItemResult.Status status)
+    {
+        int count = 0;
+
+        synchronized(this.results)
+        {
+            for(BulkItemResult result : this.results)
+            {
+                if(result.getStatus() == status)
+                {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the total number of recorded items
+     * @return Number of items
+     */
+    public int getTotalCount()
+    {
+        return this.results.size();
+    }
+
+    /**
+     * Time between creation of this report and finish() or now if not finished
+     * @return Elapsed time in milliseconds
+     */
+    public long getElapsedMillis()
+    {
+        long end = this.endTime < 0 ? System.currentTimeMillis() : this.endTime;
+        return end - this.startTime;
+    }
+
+    /**
+     * Number of processed items per second
+     * @return Throughput of the bulk operation
+     */
+    public double getItemsPerSecond()
+    {
+        long elapsed = getElapsedMillis();
+        return elapsed <= 0 ? getTotalCount() : (getTotalCount() * 1000.0) / elapsed;
+    }
+
+    /**
+     * Writes every item result to a CSV file with a header row.
+     * ITEM_ID,DESCRIPTION,STATUS,ATTEMPTS,ELAPSED_MS,MESSAGE
+     * @param csvFilePath   Path of the CSV file to create
+     * @param delimiter     Delimiter to separate values
+     * @throws IOException
+     */
+    public void writeToCsv(String csvFilePath, char delimiter) throws IOException
+    {
+        CSVPrinter csvPrinter = null;
+
+        try
+        {
+            csvPrinter = new CSVPrinter(new FileWriter(csvFilePath), CSVFormat.DEFAULT.withDelimiter(delimiter));
+            csvPrinter.printRecord((Object[]) CSV_HEADER);
+
+            for(BulkItemResult result : getResults())
+            {
+                csvPrinter.printRecord(result.getItemId(), result.getDescription(), result.getStatus(), result.getAttempts(), result.getElapsedMillis(), result.getMessage());
+            }
+        }
+
+        finally
+        {
+            if(csvPrinter != null)
+            {
+                csvPrinter.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return operationName + ": Total = " + getTotalCount() + ", Succeeded = " + getCount(BulkItemResult.Status.SUCCEEDED) + ", Skipped = " + getCount(BulkItemResult.Status.SKIPPED) + ", Failed = " + getCount(BulkItemResult.Status.FAILED) + ", Elapsed (ms) = " + getElapsedMillis() + ", Items/sec = " + String.format("%.2f", getItemsPerSecond());
+    }
+}
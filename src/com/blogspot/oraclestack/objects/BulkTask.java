@@ -0,0 +1,142 @@
+package com.blogspot.oraclestack.objects;
+
+import java.text.MessageFormat;
+import java.util.concurrent.Callable;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+
+/**
+ * A single unit of work of a bulk operation which can be run by a thread pool.
+ * Failures classified as transient are retried with an exponential backoff.
+ * The outcome of the item is recorded in the bulk operation report.
+ * @author rayedchan
+ */
+public abstract class BulkTask implements Callable<BulkItemResult>
+{
+    // Logger
+    private static final ODLLogger LOGGER = ODLLogger.getODLLogger(BulkTask.class.getName());
+
+    // Initial wait before retrying a failed attempt; doubled on each retry
+    private static final long INITIAL_BACKOFF_MILLIS = 200L;
+
+    private final String itemId;
+    private final String description;
+    private final int maxRetries;
+    private final BulkOperationReport report;
+
+    /**
+     * Constructor
+     * @param itemId        Identifier of the item (E.g. entry number)
+     * @param description   Details about the item
+     * @param maxRetries    Number of retries on transient failures; 0 to disable retries
+     * @param report        Report to record the outcome of the item
+     */
+    public BulkTask(String itemId, String description, int maxRetries, BulkOperationReport report)
+    {
+        this.itemId = itemId;
+        this.description = description;
+        this.maxRetries = maxRetries < 0 ? 0 : maxRetries;
+        this.report = report;
+    }
+
+    /**
+     * Perform the operation on the item.
+     * @return Message to store in the result (E.g. key of created entity)
+     * @throws Exception
+     */
+    protected abstract String execute() throws Exception;
+
+    /**
+     * Determines if a failure means the item does not need to be processed (E.g. already exists).
+     * @param e Failure of an attempt
+     * @return true to mark the item as skipped
+     */
+    protected boolean isSkippable(Exception e)
+    {
+        return false;
+    }
+
+    /**
+     * Determines if a failure is transient and the operation can be tried again.
+     * @param e Failure of an attempt
+     * @return true to retry the operation
+     */
+    protected boolean isRetryable(Exception e)
+    {
+        return true;
+    }
+
+    /**
+     * Execution method for thread
+     * @return Outcome of the item
+     */
+    @Override
+    public BulkItemResult call()
+    {
+        long start = System.currentTimeMillis();
+        int attempts = 0;
+        BulkItemResult result = null;
+
+        while(result == null)
+        {
+            attempts++;
+
+            try
+            {
+                String message = execute();
+                result = new BulkItemResult(itemId, description, BulkItemResult.Status.SUCCEEDED, attempts, System.currentTimeMillis() - start, message);
+            }
+
+            catch(Exception e)
+            {
+                if(isSkippable(e))
+                {
+                    result = new BulkItemResult(itemId, description, BulkItemResult.Status.SKIPPED, attempts, System.currentTimeMillis() - start, e.getMessage());
+                }
+
+                else if(attempts <= maxRetries && isRetryable(e))
+                {
+                    LOGGER.log(ODLLevel.WARNING, "Retrying item {0} after attempt {1}: {2}", new Object[]{itemId, attempts, e.getMessage()});
+
+                    if(!backoff(attempts))
+                    {
+                        result = new BulkItemResult(itemId, description, BulkItemResult.Status.FAILED, attempts, System.currentTimeMillis() - start, "Interrupted: " + e.getMessage());
+                    }
+                }
+
+                else
+                {
+                    LOGGER.log(ODLLevel.WARNING, MessageFormat.format("Failed item {0}: {1}", new Object[]{itemId, description}), e);
+                    result = new BulkItemResult(itemId, description, BulkItemResult.Status.FAILED, attempts, System.currentTimeMillis() - start, e.getMessage());
+                }
+            }
+        }
+
+        if(report != null)
+        {
+            report.add(result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Wait before the next attempt
+     * @param attempts Number of attempts so far
+     * @return false if the thread was interrupted while waiting
+     */
+    private boolean backoff(int attempts)
+    {
+        try
+        {
+            Thread.sleep(INITIAL_BACKOFF_MILLIS << Math.min(attempts - 1, 10));
+            return true;
+        }
+
+        catch(InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
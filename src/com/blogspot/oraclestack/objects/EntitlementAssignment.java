@@ -0,0 +1,56 @@
+package com.blogspot.oraclestack.objects;
+
+import java.util.HashMap;
+
+/**
+ * A single entitlement to grant to or revoke from a user in a bulk operation.
+ * @author rayedchan
+ */
+public class EntitlementAssignment
+{
+    private final String userLogin; // OIM User Login (USR_LOGIN)
+    private final String appInstName; // Application Instance Display Name
+    private final String entitlementCode; // Entitlement Code (ENT_LIST.ENT_CODE)
+    private final HashMap<String,Object> entitlementAttributes; // Attributes on entitlement; may be null
+
+    /**
+     * Constructor
+     * @param userLogin                 OIM User Login (USR_LOGIN)
+     * @param appInstName               Application Instance Display Name
+     * @param entitlementCode           Entitlement Code (ENT_LIST.ENT_CODE)
+     * @param entitlementAttributes     Attributes on entitlement; null if none
+     */
+    public EntitlementAssignment(String userLogin, String appInstName, String entitlementCode, HashMap<String,Object> entitlementAttributes)
+    {
+        this.userLogin = userLogin;
+        this.appInstName = appInstName;
+        this.entitlementCode = entitlementCode;
+        this.entitlementAttributes = entitlementAttributes;
+    }
+
+    public String getUserLogin()
+    {
+        return userLogin;
+    }
+
+    public String getAppInstName()
+    {
+        return appInstName;
+    }
+
+    public String getEntitlementCode()
+    {
+        return entitlementCode;
+    }
+
+    public HashMap<String,Object> getEntitlementAttributes()
+    {
+        return entitlementAttributes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return userLogin + "/" + appInstName + "/" + entitlementCode;
+    }
+}
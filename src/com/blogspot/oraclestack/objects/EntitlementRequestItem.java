@@ -0,0 +1,46 @@
+package com.blogspot.oraclestack.objects;
+
+/**
+ * A single entitlement to request for a user in a bulk request submission.
+ * @author rayedchan
+ */
+public class EntitlementRequestItem
+{
+    private final String userLogin; // OIM User Login (USR_LOGIN)
+    private final String entitlementName; // Entitlement Display Name (ENT_LIST.ENT_DISPLAY_NAME)
+    private final String entitlementKey; // Entitlement Key (ENT_LIST.ENT_LIST_KEY)
+
+    /**
+     * Constructor
+     * @param userLogin         OIM User Login (USR_LOGIN)
+     * @param entitlementName   Entitlement Display Name (ENT_LIST.ENT_DISPLAY_NAME)
+     * @param entitlementKey    Entitlement Key (ENT_LIST.ENT_LIST_KEY)
+     */
+    public EntitlementRequestItem(String userLogin, String entitlementName, String entitlementKey)
+    {
+        this.userLogin = userLogin;
+        this.entitlementName = entitlementName;
+        this.entitlementKey = entitlementKey;
+    }
+
+    public String getUserLogin()
+    {
+        return userLogin;
+    }
+
+    public String getEntitlementName()
+    {
+        return entitlementName;
+    }
+
+    public String getEntitlementKey()
+    {
+        return entitlementKey;
+    }
+
+    @Override
+    public String toString()
+    {
+        return userLogin + "/" + entitlementName;
+    }
+}
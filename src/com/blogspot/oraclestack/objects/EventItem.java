@@ -0,0 +1,171 @@
+package com.blogspot.oraclestack.objects;
+
+import com.blogspot.oraclestack.utilities.DerivedAttributeCoalescer;
+import java.io.Serializable;
+import java.util.HashMap;
+import oracle.iam.identity.usermgmt.vo.User;
+import oracle.iam.identity.vo.Identity;
+import oracle.iam.platform.context.ContextAware;
+
+/**
+ * A single target entity of an orchestration as seen by an event handler.
+ * A single orchestration gives one item; a bulk orchestration gives one item
+ * per entity id. Parameters may be shared by every item of a bulk orchestration
+ * when OIM supplies a single set of bulk parameters (E.g. bulk lock).
+ * Derived attribute writes of every item of an orchestration are collected in one
+ * batch and written when the event handler finishes the orchestration.
+ * @author rayedchan
+ */
+public class EventItem
+{
+    private final long processId; // Orchestration Process Id
+    private final int index; // Position of the entity in the orchestration target
+    private final String entityId; // E.g. USR_KEY
+    private final String entityType; // E.g. User
+    private final HashMap<String,Serializable> parameters; // Orchestration parameters of the entity
+    private final boolean sharedParameters; // true if the parameters apply to every item
+    private final Identity currentState; // CURRENT_USER inter event data; may be null
+    private final Identity newState; // NEW_USER_STATE inter event data; may be null
+    private final DerivedAttributeCoalescer.Batch writes; // Derived attribute writes of the orchestration
+
+    /**
+     * Constructor
+     * @param processId         Orchestration Process Id
+     * @param index             Position of the entity in the orchestration target
+     * @param entityId          Entity Id (E.g. USR_KEY)
+     * @param entityType        Entity Type (E.g. User)
+     * @param parameters        Orchestration parameters of the entity
+     * @param sharedParameters  true if the parameters are shared by every item of the orchestration
+     * @param currentState      State of the entity before the operation; may be null
+     * @param newState          State of the entity after the operation; may be null
+     * @param writes            Derived attribute writes shared by the items of the orchestration
+     */
+    public EventItem(long processId, int index, String entityId, String entityType, HashMap<String,Serializable> parameters, boolean sharedParameters, Identity currentState, Identity newState, DerivedAttributeCoalescer.Batch writes)
+    {
+        this.processId = processId;
+        this.index = index;
+        this.entityId = entityId;
+        this.entityType = entityType;
+        this.parameters = parameters != null ? parameters : new HashMap<String,Serializable>();
+        this.sharedParameters = sharedParameters;
+        this.currentState = currentState;
+        this.newState = newState;
+        this.writes = writes;
+    }
+
+    public long getProcessId()
+    {
+        return processId;
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public String getEntityId()
+    {
+        return entityId;
+    }
+
+    public String getEntityType()
+    {
+        return entityType;
+    }
+
+    /**
+     * Get the orchestration parameters. Changes made to the map are passed on
+     * to the rest of the orchestration; for shared parameters they apply to every item.
+     * @return Orchestration parameters
+     */
+    public HashMap<String,Serializable> getParameters()
+    {
+        return parameters;
+    }
+
+    public boolean isSharedParameters()
+    {
+        return sharedParameters;
+    }
+
+    /**
+     * Check if a parameter was given
+     * @param key   Attribute name (E.g. Manager Key)
+     * @return true if the parameter is present
+     */
+    public boolean hasParameter(String key)
+    {
+        return parameters.containsKey(key);
+    }
+
+    /**
+     * Get a parameter value with ContextAware values unwrapped
+     * @param key   Attribute name
+     * @return Value of the parameter or null if not given
+     */
+    public Object getParameter(String key)
+    {
+        Object value = parameters.get(key);
+        return value instanceof ContextAware ? ((ContextAware) value).getObjectValue() : value;
+    }
+
+    /**
+     * Get a parameter value as a string
+     * @param key   Attribute name
+     * @return Value of the parameter or null if not given
+     */
+    public String getString(String key)
+    {
+        Object value = getParameter(key);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Set a parameter value
+     * @param key   Attribute name
+     * @param value New value
+     */
+    public void setParameter(String key, Serializable value)
+    {
+        parameters.put(key, value);
+    }
+
+    public Identity getCurrentState()
+    {
+        return currentState;
+    }
+
+    public Identity getNewState()
+    {
+        return newState;
+    }
+
+    public DerivedAttributeCoalescer.Batch getWrites()
+    {
+        return writes;
+    }
+
+    /**
+     * Get the user before the operation
+     * @return Current user state or null if not available in this stage
+     */
+    public User getCurrentUser()
+    {
+        return currentState instanceof User ? (User) currentState : null;
+    }
+
+    /**
+     * Get the user after the operation
+     * @return New user state or null if not available in this stage
+     */
+    public User getNewUser()
+    {
+        return newState instanceof User ? (User) newState : null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "EventItem{" + "processId=" + processId + ", index=" + index + ", entityId=" + entityId + ", entityType=" + entityType + ", sharedParameters=" + sharedParameters + '}';
+    }
+}
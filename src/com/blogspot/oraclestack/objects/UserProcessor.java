@@ -1,7 +1,10 @@
 package com.blogspot.oraclestack.objects;
 
+import com.blogspot.oraclestack.utilities.FileCheckpoint;
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import oracle.core.ojdl.logging.ODLLevel;
 import oracle.core.ojdl.logging.ODLLogger;
 import oracle.iam.identity.exception.NoSuchUserException;
@@ -13,7 +16,9 @@ import oracle.iam.identity.usermgmt.vo.User;
 import oracle.iam.platform.authz.exception.AccessDeniedException;
 
 /**
- * Each thread modifies a user
+ * Each thread modifies a user. When a checkpoint is given, the line is
+ * recorded as completed (or failed) once it has been processed. When the
+ * changed attributes are given, only those are modified instead of every column.
  * @author rayechan
  */
 public class UserProcessor implements Runnable
@@ -27,6 +32,9 @@ public class UserProcessor implements Runnable
     
     // Row in a file
     private String userEntryLine;
+    private long lineNumber; // First data row is 1
+    private FileCheckpoint checkpoint; // Progress of the file; may be null
+    private Map<String,String> changes; // Attributes which differ from the user; null to modify every column
     
     /**
      * Initializes the class variables needed to process each row
@@ -50,8 +58,59 @@ public class UserProcessor implements Runnable
      * @param line Line from CSV file
      */
     public UserProcessor(String line)
+    {
+        this(line, 0L, null);
+    }
+
+    /**
+     * Constructor
+     * @param line          Line from CSV file
+     * @param lineNumber    Number of the line; the first data row is 1
+     * @param checkpoint    Progress of the file to record the outcome in; null for none
+     */
+    public UserProcessor(String line, long lineNumber, FileCheckpoint checkpoint)
+    {
+        this(line, lineNumber, checkpoint, null);
+    }
+
+    /**
+     * Constructor
+     * @param line          Line from CSV file
+     * @param lineNumber    Number of the line; the first data row is 1
+     * @param checkpoint    Progress of the file to record the outcome in; null for none
+     * @param changes       Key attribute and the attributes to modify; null to modify every column of the line
+     */
+    public UserProcessor(String line, long lineNumber, FileCheckpoint checkpoint, Map<String,String> changes)
     {
         this.userEntryLine = line;
+        this.lineNumber = lineNumber;
+        this.checkpoint = checkpoint;
+        this.changes = changes;
+    }
+
+    /**
+     * Map the columns of a line to the header
+     * @param line  Line from CSV file
+     * @return Column values by attribute name in header order
+     * @throws IllegalArgumentException if the line has more columns than the header
+     */
+    public static LinkedHashMap<String,String> parse(String line)
+    {
+        String[] entry = line.split(delimiter);
+        LinkedHashMap<String,String> values = new LinkedHashMap<String,String>();
+
+        if(entry.length > header.length)
+        {
+            throw new IllegalArgumentException("Row has " + entry.length + " columns; header has " + header.length);
+        }
+
+        // One to One correlation with header row and data entry row
+        for(int i = 0; i < entry.length; i++)
+        {
+            values.put(header[i], entry[i]);
+        }
+
+        return values;
     }
     
     /**
@@ -60,19 +119,20 @@ public class UserProcessor implements Runnable
     @Override
     public void run() 
     {
+        Exception failure = null;
+
         try 
         {
-            String[] entry = userEntryLine.split(delimiter);
+            Map<String,String> entry = changes != null ? changes : parse(userEntryLine);
             logger.log(ODLLevel.NOTIFICATION,"Start processing line: {0}", new Object[]{Arrays.asList(userEntryLine)});
             User modUser = new User("");
             String attrKeyValue = null;
 
             // Iterate entry columns adding attribute to modify on given user
-            for(int i = 0; i < entry.length; i++)
+            for(Map.Entry<String,String> column : entry.entrySet())
             {
-                // One to One correlation with header row and data entry row
-                String attributeName = header[i];
-                String attributeValue = entry[i];
+                String attributeName = column.getKey();
+                String attributeValue = column.getValue();
                     
                 // Get key user attribute in order identify OIM user to modify
                 if(attributeName.equals(keyAttrName))
@@ -95,31 +155,42 @@ public class UserProcessor implements Runnable
         catch (ValidationFailedException ex) 
         {
             logger.log(ODLLevel.SEVERE, MessageFormat.format("Failed to process entry: {0}", new Object[]{userEntryLine}), ex);
+            failure = ex;
         } 
         
         catch (AccessDeniedException ex)
         {
             logger.log(ODLLevel.SEVERE, MessageFormat.format("Failed to process entry: {0}", new Object[]{userEntryLine}), ex);
+            failure = ex;
         } 
         
         catch (UserModifyException ex)
         {
             logger.log(ODLLevel.SEVERE, MessageFormat.format("Failed to process entry: {0}", new Object[]{userEntryLine}), ex);
+            failure = ex;
         } 
         
         catch (NoSuchUserException ex)
         {
             logger.log(ODLLevel.SEVERE, MessageFormat.format("Failed to process entry: {0}", new Object[]{userEntryLine}), ex);
+            failure = ex;
         } 
         
         catch (SearchKeyNotUniqueException ex) 
         {
             logger.log(ODLLevel.SEVERE, MessageFormat.format("Failed to process entry: {0}", new Object[]{userEntryLine}), ex);
+            failure = ex;
         }
         
         catch (Exception ex) 
         {
             logger.log(ODLLevel.SEVERE, MessageFormat.format("Failed to process entry: {0}", new Object[]{userEntryLine}), ex);
+            failure = ex;
+        }
+
+        if(checkpoint != null)
+        {
+            checkpoint.markCompleted(lineNumber, failure == null ? null : failure.getClass().getSimpleName() + ": " + failure.getMessage());
         }
     }   
 }
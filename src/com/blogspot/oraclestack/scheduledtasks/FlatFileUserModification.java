@@ -1,16 +1,30 @@
 package com.blogspot.oraclestack.scheduledtasks;
 
 import com.blogspot.oraclestack.objects.UserProcessor;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import com.blogspot.oraclestack.services.PlatformServices;
+import com.blogspot.oraclestack.utilities.ChunkedFileReader;
+import com.blogspot.oraclestack.utilities.FileCheckpoint;
+import com.blogspot.oraclestack.utilities.SearchCriteriaBuilder;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import oracle.core.ojdl.logging.ODLLevel;
 import oracle.core.ojdl.logging.ODLLogger;
 import oracle.iam.identity.usermgmt.api.UserManager;
-import oracle.iam.platform.Platform;
+import oracle.iam.identity.usermgmt.vo.User;
+import oracle.iam.platform.entitymgr.vo.SearchCriteria;
 import oracle.iam.scheduler.vo.TaskSupport;
 
 /**
@@ -18,6 +32,18 @@ import oracle.iam.scheduler.vo.TaskSupport;
  * The scheduled task applies changes to the OIM users
  * using data given from a CSV file. A thread is created per row
  * in CSV file excluding the header row.
+ * When a Checkpoint Directory is given, the progress is saved there keyed by the
+ * checksum of the file, and a run with Resume set skips the rows completed by
+ * the previous run of the same file. Failed rows are listed in a failures file
+ * in the same directory.
+ * Rows are read in chunks; the current values of the header attributes are fetched
+ * for a whole chunk with one search, and only the attributes which differ are modified.
+ * Rows without any change are skipped unless Skip Unchanged Rows is set to false.
+ * The file is read with ChunkedFileReader, which decodes byte ranges of the file into
+ * lines on several threads; the lines are consumed in file order so row numbers and
+ * the checkpoint stay the same as a sequential read. At most one chunk of rows waits
+ * for the worker threads; when the workers fall behind, the reading thread processes
+ * a row itself, so the reading never gets ahead of the workers by more than a chunk.
  * @author rayedchan
  */
 public class FlatFileUserModification extends TaskSupport
@@ -27,7 +53,16 @@ public class FlatFileUserModification extends TaskSupport
     
     // OIM Services
     // private UserManager usrMgr = Platform.getService(UserManager.class); // Getting a NullPointer Exception when using service in a threading context
-    private UserManager usrMgr = Platform.getServiceForEventHandlers(UserManager.class, null, "ADMIN","FlatFileUserModification", null);
+    private UserManager usrMgr = PlatformServices.getServiceForEventHandlers(UserManager.class, "ADMIN", "FlatFileUserModification");
+
+    // Number of rows compared against OIM with one search
+    private static final int CHUNK_SIZE = 1000;
+
+    // Job summary
+    private long appliedRows;
+    private long unchangedRows;
+    private long invalidRows;
+    private long unchangedAttrs;
     
     /**
      * Main method for scheduled job execution
@@ -37,7 +72,9 @@ public class FlatFileUserModification extends TaskSupport
     @Override
     public void execute(HashMap hm) throws Exception 
     {
-        BufferedReader bReader = null;
+        ChunkedFileReader reader = null;
+        FileCheckpoint checkpoint = null;
+        ExecutorService threadExecutor = null;
         
         try
         {
@@ -46,7 +83,14 @@ public class FlatFileUserModification extends TaskSupport
             String filePath = (String) hm.get("File Path");
             String delimiter = (String) hm.get("Delimiter");
             int numThreads = ((Long) hm.get("Number of Threads")).intValue();
-            LOGGER.log(ODLLevel.NOTIFICATION, "Scheduled Job Parameters: Key Attribute Name = {0}, File Path = {1}, Delimiter = {2}, Number of Threads = {3}", new Object[]{keyAttrName, filePath, delimiter, numThreads});
+            String checkpointDir = (String) hm.get("Checkpoint Directory"); // Optional; no checkpoint if empty
+            boolean resume = Boolean.TRUE.equals(hm.get("Resume")); // Optional; skip rows completed by the previous run
+            boolean skipUnchanged = !Boolean.FALSE.equals(hm.get("Skip Unchanged Rows")); // Optional; compare rows with OIM by default
+            LOGGER.log(ODLLevel.NOTIFICATION, "Scheduled Job Parameters: Key Attribute Name = {0}, File Path = {1}, Delimiter = {2}, Number of Threads = {3}, Checkpoint Directory = {4}, Resume = {5}, Skip Unchanged Rows = {6}", new Object[]{keyAttrName, filePath, delimiter, numThreads, checkpointDir, resume, skipUnchanged});
+            appliedRows = 0L;
+            unchangedRows = 0L;
+            invalidRows = 0L;
+            unchangedAttrs = 0L;
             
             if(numThreads <= 0) 
             {
@@ -54,12 +98,18 @@ public class FlatFileUserModification extends TaskSupport
                 throw new Exception("Task Mode Parameter is not valid. Value must be greater than 0.");
             }
             
-            // Load CSV file for reading
-            FileReader fReader = new FileReader(filePath);
-            bReader = new BufferedReader(fReader);
+            // Load the progress of the file
+            if(checkpointDir != null && !"".equals(checkpointDir))
+            {
+                checkpoint = new FileCheckpoint(new File(filePath), new File(checkpointDir), resume, FileCheckpoint.DEFAULT_SAVE_INTERVAL);
+            }
+
+            // Load CSV file for reading; at most one parser thread per processor
+            int readerThreads = Math.max(1, Math.min(numThreads, Runtime.getRuntime().availableProcessors()));
+            reader = new ChunkedFileReader(new File(filePath), Charset.defaultCharset(), ChunkedFileReader.DEFAULT_CHUNK_BYTES, readerThreads);
             
             // Get Header Line
-            String line = bReader.readLine();
+            String line = reader.readHeader();
             if(line == null || "".equalsIgnoreCase(line))
             {
                 throw new Exception("Header must be provided as the first entry in file.");
@@ -67,29 +117,66 @@ public class FlatFileUserModification extends TaskSupport
             String[] header = line.split(delimiter);
             LOGGER.log(ODLLevel.NOTIFICATION, "Header: {0}", new Object[]{Arrays.asList(header)});
             
-            // Create Thread Pool
-            ExecutorService threadExecutor = Executors.newFixedThreadPool(numThreads);
+            // Create Thread Pool; the reading thread runs a row itself once a chunk is waiting
+            threadExecutor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(CHUNK_SIZE), new ThreadPoolExecutor.CallerRunsPolicy());
             
             // Initialize base configuration 
             UserProcessor.initializeConfig(header, delimiter, LOGGER, usrMgr, keyAttrName);
             
             // Process data entries using multi-threading
-            line = bReader.readLine();
-            while(line != null)
-            {          
-                threadExecutor.execute(new UserProcessor(line)); // Create new thread to process line
-                line = bReader.readLine(); // read next line
+            long lineNumber = 0L;
+            long skipped = 0L;
+            List<String> chunkLines = new ArrayList<String>(CHUNK_SIZE);
+            List<Long> chunkLineNumbers = new ArrayList<Long>(CHUNK_SIZE);
+            List<String> lines = reader.nextChunk();
+            while(lines != null)
+            {
+                for(String row : lines)
+                {
+                    lineNumber++;
+
+                    // Applied by a previous run
+                    if(checkpoint != null && checkpoint.isCompleted(lineNumber))
+                    {
+                        skipped++;
+                    }
+
+                    else
+                    {
+                        chunkLines.add(row);
+                        chunkLineNumbers.add(lineNumber);
+                    }
+
+                    // Compare the rows of a full chunk and submit the changes
+                    if(chunkLines.size() >= CHUNK_SIZE)
+                    {
+                        this.submitChunk(chunkLines, chunkLineNumbers, header, keyAttrName, skipUnchanged, checkpoint, threadExecutor);
+                        chunkLines.clear();
+                        chunkLineNumbers.clear();
+                    }
+                }
+
+                lines = reader.nextChunk(); // read next range of lines
             }
+
+            this.submitChunk(chunkLines, chunkLineNumbers, header, keyAttrName, skipUnchanged, checkpoint, threadExecutor);
             
             // Initate thread shutdown
             threadExecutor.shutdown();
             
-            while(!threadExecutor.isTerminated())
+            // Wait for all event processor threads to complete
+            while(!threadExecutor.awaitTermination(1L, TimeUnit.MINUTES))
             {
-                // Wait for all event processor threads to complete
+                LOGGER.log(ODLLevel.TRACE, "Waiting for rows to complete; completed through row {0}", new Object[]{checkpoint != null ? checkpoint.getCompletedThrough() : "N/A"});
             }
             
-            LOGGER.log(ODLLevel.NOTIFICATION, "Finished scheduled job.");
+            if(checkpoint != null)
+            {
+                checkpoint.finish();
+            }
+
+            LOGGER.log(ODLLevel.NOTIFICATION, "Finished scheduled job: {0} rows, {1} applied, {2} unchanged, {3} invalid, {4} skipped from previous run, {5} unchanged attributes not sent",
+                new Object[]{lineNumber, appliedRows, unchangedRows, invalidRows, skipped, unchangedAttrs});
         }
         
         catch(Exception ex)
@@ -99,10 +186,202 @@ public class FlatFileUserModification extends TaskSupport
         
         finally
         {
-            if(bReader != null)
+            // Let the submitted rows complete so their progress is saved before the checkpoint is closed
+            if(threadExecutor != null)
+            {
+                threadExecutor.shutdown();
+
+                try
+                {
+                    while(!threadExecutor.awaitTermination(1L, TimeUnit.MINUTES))
+                    {
+                        LOGGER.log(ODLLevel.TRACE, "Waiting for submitted rows to complete");
+                    }
+                }
+
+                catch(InterruptedException e)
+                {
+                    LOGGER.log(ODLLevel.WARNING, "Interrupted while waiting for submitted rows; rows in flight are processed again on resume", e);
+                    threadExecutor.shutdownNow();
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if(checkpoint != null)
+            {
+                checkpoint.close();
+            }
+
+            if(reader != null)
+            {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Submit the rows of a chunk to the thread pool. When unchanged rows are skipped,
+     * the current values of the users are fetched with one search and each row only
+     * keeps the attributes which differ; a row without differences is completed
+     * without a modify. Rows whose user is not found (or not unique) are submitted
+     * as they are so the failure is reported by the modify. A row which cannot be
+     * parsed fails alone and is recorded as failed in the checkpoint.
+     * @param lines             Rows of the chunk
+     * @param lineNumbers       Number of each row
+     * @param header            Attribute names of the columns
+     * @param keyAttrName       Key User Attribute to identify OIM user
+     * @param skipUnchanged     true to compare the rows with OIM
+     * @param checkpoint        Progress of the file; may be null
+     * @param threadExecutor    Thread pool
+     */
+    private void submitChunk(List<String> lines, List<Long> lineNumbers, String[] header, String keyAttrName, boolean skipUnchanged, FileCheckpoint checkpoint, ExecutorService threadExecutor)
+    {
+        if(lines.isEmpty())
+        {
+            return;
+        }
+
+        Map<String,User> currentUsers = skipUnchanged ? this.fetchCurrentUsers(lines, header, keyAttrName) : null;
+
+        for(int i = 0; i < lines.size(); i++)
+        {
+            String line = lines.get(i);
+            long lineNumber = lineNumbers.get(i);
+            LinkedHashMap<String,String> entry = null;
+
+            if(currentUsers != null)
             {
-                bReader.close();
+                try
+                {
+                    entry = UserProcessor.parse(line);
+                }
+
+                catch(RuntimeException e)
+                {
+                    invalidRows++;
+                    LOGGER.log(ODLLevel.SEVERE, MessageFormat.format("Failed to process entry: {0}", new Object[]{line}), e);
+
+                    if(checkpoint != null)
+                    {
+                        checkpoint.markCompleted(lineNumber, e.getClass().getSimpleName() + ": " + e.getMessage());
+                    }
+
+                    continue;
+                }
             }
+
+            String keyValue = entry != null ? entry.get(keyAttrName) : null;
+            User currentUser = keyValue != null ? currentUsers.get(keyValue.toUpperCase()) : null;
+
+            // Not compared; modify every column
+            if(currentUser == null)
+            {
+                appliedRows++;
+                threadExecutor.execute(new UserProcessor(line, lineNumber, checkpoint)); // Create new thread to process line
+                continue;
+            }
+
+            // Keep the key and the attributes which differ from OIM
+            LinkedHashMap<String,String> changes = new LinkedHashMap<String,String>();
+            changes.put(keyAttrName, keyValue);
+
+            for(Map.Entry<String,String> column : entry.entrySet())
+            {
+                if(column.getKey().equals(keyAttrName))
+                {
+                    continue;
+                }
+
+                Object currentValue = currentUser.getAttribute(column.getKey());
+                String current = currentValue == null ? "" : currentValue.toString();
+                String value = column.getValue() == null ? "" : column.getValue();
+
+                if(current.equals(value))
+                {
+                    unchangedAttrs++;
+                }
+
+                else
+                {
+                    changes.put(column.getKey(), column.getValue());
+                }
+            }
+
+            if(changes.size() == 1)
+            {
+                unchangedRows++;
+                LOGGER.log(ODLLevel.TRACE, "Skipped unchanged row {0}: {1} = {2}", new Object[]{lineNumber, keyAttrName, keyValue});
+
+                if(checkpoint != null)
+                {
+                    checkpoint.markCompleted(lineNumber, null);
+                }
+            }
+
+            else
+            {
+                appliedRows++;
+                threadExecutor.execute(new UserProcessor(line, lineNumber, checkpoint, changes)); // Create new thread to process changes
+            }
+        }
+    }
+
+    /**
+     * Fetch the current values of the header attributes for the users of a chunk with one search
+     * @param lines         Rows of the chunk
+     * @param header        Attribute names of the columns
+     * @param keyAttrName   Key User Attribute to identify OIM user
+     * @return Users by upper case key value; keys shared by several users are left out; null if the search failed
+     */
+    private Map<String,User> fetchCurrentUsers(List<String> lines, String[] header, String keyAttrName)
+    {
+        Set<String> keyValues = new HashSet<String>();
+
+        for(String line : lines)
+        {
+            try
+            {
+                String keyValue = UserProcessor.parse(line).get(keyAttrName);
+
+                if(keyValue != null)
+                {
+                    keyValues.add(keyValue);
+                }
+            }
+
+            catch(RuntimeException e)
+            {
+                // Reported when the row is submitted
+            }
+        }
+
+        try
+        {
+            Set<String> retAttrs = new HashSet<String>(Arrays.asList(header));
+            SearchCriteria criteria = SearchCriteriaBuilder.in(keyAttrName, keyValues);
+            List<User> users = criteria == null ? new ArrayList<User>() : usrMgr.search(criteria, retAttrs, new HashMap<String,Object>());
+            Map<String,User> currentUsers = new HashMap<String,User>();
+            Set<String> duplicates = new HashSet<String>();
+
+            for(User user : users)
+            {
+                String key = String.valueOf(user.getAttribute(keyAttrName)).toUpperCase();
+
+                if(currentUsers.put(key, user) != null)
+                {
+                    duplicates.add(key);
+                }
+            }
+
+            currentUsers.keySet().removeAll(duplicates);
+            LOGGER.log(ODLLevel.TRACE, "Fetched {0} of {1} users of the chunk", new Object[]{currentUsers.size(), keyValues.size()});
+            return currentUsers;
+        }
+
+        catch(Exception e)
+        {
+            LOGGER.log(ODLLevel.WARNING, "Failed to fetch the current users; the rows of the chunk are applied as they are", e);
+            return null;
         }
     }
 
@@ -5,6 +5,7 @@ import Thor.API.Exceptions.tcColumnNotFoundException;
 import Thor.API.Exceptions.tcInvalidLookupException;
 import Thor.API.Operations.tcLookupOperationsIntf;
 import Thor.API.tcResultSet;
+import com.blogspot.oraclestack.services.PlatformServices;
 import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -24,7 +25,6 @@ import javax.naming.NamingException;
 import javax.sql.DataSource;
 import oracle.core.ojdl.logging.ODLLevel;
 import oracle.core.ojdl.logging.ODLLogger;
-import oracle.iam.platform.Platform;
 import oracle.iam.reconciliation.api.BatchAttributes;
 import oracle.iam.reconciliation.api.ChangeType;
 import oracle.iam.reconciliation.api.InputData;
@@ -48,7 +48,7 @@ public class ReconEventsGeneratorDatabaseSource extends TaskSupport
     private static final ODLLogger LOGGER = ODLLogger.getODLLogger(ReconEventsGeneratorDatabaseSource.class.getName());
     
     // OIM API Services
-    private ReconOperationsService reconOps = Platform.getService(ReconOperationsService.class);
+    private ReconOperationsService reconOps = PlatformServices.getService(ReconOperationsService.class);
     
     // Default Date Format
     private static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd";
@@ -85,7 +85,7 @@ public class ReconEventsGeneratorDatabaseSource extends TaskSupport
             LOGGER.log(ODLLevel.NOTIFICATION, "Retrieved connection for datasource: {0}" , new Object[]{dataSource});
             
             // Fetch Recon Attr Map Lookup if any
-            lookupOps = Platform.getService(tcLookupOperationsIntf.class);
+            lookupOps = PlatformServices.getService(tcLookupOperationsIntf.class);
             HashMap<String,String> reconAttrMap = convertLookupToMap(lookupOps, attrMappings);
             LOGGER.log(ODLLevel.NOTIFICATION, "Lookup {0} : {1}" , new Object[]{attrMappings, reconAttrMap});
             
@@ -168,7 +168,7 @@ public class ReconEventsGeneratorDatabaseSource extends TaskSupport
      * @param childTableMappings Populate reconciliation map name with corresponding child table name
      * @param childColumnMappings Populate child reconciliation field name with corresponding child column name 
      */
-    private void deriveChildTableMappings(HashMap<String,String> reconAttrMap, HashMap<String,String> childTableMappings, HashMap<String,HashMap<String,String>> childColumnMappings)
+    static void deriveChildTableMappings(HashMap<String,String> reconAttrMap, HashMap<String,String> childTableMappings, HashMap<String,HashMap<String,String>> childColumnMappings)
     {
         // Iterator for Recon Attr Lookup
         Iterator<Entry<String,String>> it  = reconAttrMap.entrySet().iterator();
@@ -224,7 +224,7 @@ public class ReconEventsGeneratorDatabaseSource extends TaskSupport
      * @throws NamingException
      * @throws SQLException 
      **/
-    private Connection getDatabaseConnection(String jndiName) throws NamingException, SQLException 
+    protected Connection getDatabaseConnection(String jndiName) throws NamingException, SQLException 
     {
         Context initContext = new InitialContext();
         DataSource ds = (DataSource)initContext.lookup(jndiName);
@@ -247,7 +247,7 @@ public class ReconEventsGeneratorDatabaseSource extends TaskSupport
      * @return List of events to be created
      * @throws SQLException 
      */
-    private List<InputData> constructReconciliationEventList(Connection conn, String tableName, String filter, Boolean eventFinished, Date actionDate, HashMap<String,String> reconAttrMap, String itResName, HashMap<String,String> childTableMappings, HashMap<String,HashMap<String,String>> childColumnMappings, String linkColumnName) throws SQLException
+    static List<InputData> constructReconciliationEventList(Connection conn, String tableName, String filter, Boolean eventFinished, Date actionDate, HashMap<String,String> reconAttrMap, String itResName, HashMap<String,String> childTableMappings, HashMap<String,HashMap<String,String>> childColumnMappings, String linkColumnName) throws SQLException
     {
         List<InputData> allReconEvents = new ArrayList<InputData>();
         String linkColumnValue = null;
@@ -338,7 +338,7 @@ public class ReconEventsGeneratorDatabaseSource extends TaskSupport
      * @return Object containing user's entitlements and use to feed to OIM API
      * @throws SQLException 
      */
-    private Map<String,List<Map<String,Serializable>>> fetchUserEntitlements(Connection conn, HashMap<String,String> childTableMappings, HashMap<String,HashMap<String,String>> childColumnMappings, String linkColumnName, String linkColumnValue) throws SQLException
+    static Map<String,List<Map<String,Serializable>>> fetchUserEntitlements(Connection conn, HashMap<String,String> childTableMappings, HashMap<String,HashMap<String,String>> childColumnMappings, String linkColumnName, String linkColumnValue) throws SQLException
     { 
         Map<String,List<Map<String,Serializable>>> childReconData = new HashMap<String,List<Map<String,Serializable>>>(); // {Key = Child Recon Field Map Name, Value = {Key = Child Recon Field Name, Value = data}} 
         
@@ -0,0 +1,130 @@
+package com.blogspot.oraclestack.services;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with log-linear buckets, in the spirit of an
+ * HDR histogram. Every power of two range is split into 16 linear sub-buckets,
+ * so a recorded value is reported with a relative error of at most 1/16.
+ * Values are recorded in microseconds. Thread safe.
+ * @author rayedchan
+ */
+public class LatencyHistogram
+{
+    // Number of linear sub-buckets per power of two; must be a power of two
+    private static final int SUB_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 4;
+
+    // Values up to 2^40 microseconds (about 12 days) are tracked
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = SUB_BUCKETS * (MAX_EXPONENT - SUB_BUCKET_BITS + 2);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Record a latency
+     * @param micros Latency in microseconds
+     */
+    public void record(long micros)
+    {
+        counts.incrementAndGet(indexOf(micros));
+    }
+
+    /**
+     * Get the latency at a percentile
+     * @param percentile    Percentile between 0 and 100 (E.g. 99.9)
+     * @return Upper bound in microseconds of the bucket holding the percentile; 0 if empty
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long[] snapshot = snapshotCounts();
+        long total = 0L;
+
+        for(long count : snapshot)
+        {
+            total += count;
+        }
+
+        if(total == 0L)
+        {
+            return 0L;
+        }
+
+        long target = Math.max(1L, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+        long cumulative = 0L;
+
+        for(int i = 0; i < snapshot.length; i++)
+        {
+            cumulative += snapshot[i];
+
+            if(cumulative >= target)
+            {
+                return highestValueOf(i);
+            }
+        }
+
+        return highestValueOf(snapshot.length - 1);
+    }
+
+    /**
+     * Discard every recorded value
+     */
+    public void reset()
+    {
+        for(int i = 0; i < BUCKET_COUNT; i++)
+        {
+            counts.set(i, 0L);
+        }
+    }
+
+    /**
+     * Copy the current bucket counts
+     * @return Bucket counts
+     */
+    private long[] snapshotCounts()
+    {
+        long[] snapshot = new long[BUCKET_COUNT];
+
+        for(int i = 0; i < BUCKET_COUNT; i++)
+        {
+            snapshot[i] = counts.get(i);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Get the bucket of a value
+     * @param value Value in microseconds
+     * @return Bucket index
+     */
+    static int indexOf(long value)
+    {
+        if(value < SUB_BUCKETS)
+        {
+            return value < 0 ? 0 : (int) value;
+        }
+
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        int subBucket = (int) ((value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return Math.min(SUB_BUCKETS * (exponent - SUB_BUCKET_BITS + 1) + subBucket, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Get the highest value that falls in a bucket
+     * @param index Bucket index
+     * @return Value in microseconds
+     */
+    static long highestValueOf(int index)
+    {
+        if(index < SUB_BUCKETS)
+        {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        long lowest = ((long) (SUB_BUCKETS + subBucket)) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,325 @@
+package com.blogspot.oraclestack.services;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.security.auth.login.LoginException;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+
+/**
+ * Pool of logged in OIM sessions for multi-threaded tools. Each thread leases a
+ * session, uses its OIMClient, and returns it to the pool so the next task can reuse
+ * the session without another JAAS login. Sessions are created lazily up to the 
+ * maximum size. A session which sat idle longer than the validation interval is
+ * checked before it is handed out and logged in again if it expired. Logging in again
+ * replaces the OIMClient of the session: services from session.getService() (and helpers
+ * built from the session) follow it, but an OIMClient from getOIMClient() or a service
+ * looked up from it directly must not be kept past the lease.
+ * 
+ * Usage:
+ *   OracleIdentityManagerClient session = pool.lease(30, TimeUnit.SECONDS);
+ *   try { ... session.getOIMClient() ... }
+ *   finally { pool.release(session); }
+ * @author rayedchan
+ */
+public class OIMClientSessionPool
+{
+    // Logger
+    private static final ODLLogger logger = ODLLogger.getODLLogger(OIMClientSessionPool.class.getName());
+
+    // Default time a session can be idle before it is validated on lease
+    public static final long DEFAULT_VALIDATION_INTERVAL_MILLIS = 60L * 1000L;
+
+    // Queued when a session is removed from the pool to wake a waiting lease, which can then create a new session
+    private static final IdleSession SLOT_FREED = new IdleSession(null);
+
+    // Connection information used to create sessions
+    private final String username;
+    private final String password;
+    private final String authwlPath;
+    private final String appServerType;
+    private final String factoryInitialType;
+    private final String oimProviderURL;
+    private final boolean isSSL;
+    private final String trustKeystorePath;
+
+    private final int maxSessions;
+    private final long validationIntervalMillis;
+    private final BlockingQueue<IdleSession> idleSessions = new LinkedBlockingQueue<IdleSession>();
+    private final Set<OracleIdentityManagerClient> leasedSessions = Collections.newSetFromMap(new ConcurrentHashMap<OracleIdentityManagerClient,Boolean>());
+    private final AtomicInteger sessionCount = new AtomicInteger(0);
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor. No session is created until the first lease.
+     * @param maxSessions               Maximum number of sessions in the pool
+     * @param validationIntervalMillis  Idle time after which a session is validated on lease
+     * @param username                  User Login of the OIM Identity
+     * @param password                  Plain text password of the OIM Identity
+     * @param authwlPath                Path to "authwl.conf" file
+     * @param appServerType             Type of application server OIM is deployed on. For WebLogic, this value should be "wls".
+     * @param factoryInitialType        Type of factory initial. For WebLogic, this value should be "weblogic.jndi.WLInitialContextFactory".
+     * @param oimProviderURL            The OIM provider URL (E.g. t3://oimhostname:14000)
+     * @param isSSL                     Set to true if SSL protocol is in use.
+     * @param trustKeystorePath         Set path to trust key store if SSL is being used.
+     */
+    public OIMClientSessionPool(int maxSessions, long validationIntervalMillis, String username, String password, String authwlPath, String appServerType, String factoryInitialType, String oimProviderURL, boolean isSSL, String trustKeystorePath)
+    {
+        this.maxSessions = maxSessions > 0 ? maxSessions : 1;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.username = username;
+        this.password = password;
+        this.authwlPath = authwlPath;
+        this.appServerType = appServerType;
+        this.factoryInitialType = factoryInitialType;
+        this.oimProviderURL = oimProviderURL;
+        this.isSSL = isSSL;
+        this.trustKeystorePath = trustKeystorePath;
+    }
+
+    /**
+     * Lease a logged in session. Waits for a session to be returned (or for a
+     * session to be removed from the pool) if the pool has reached its maximum size.
+     * @param timeout   Maximum time to wait for a session
+     * @param unit      Unit of the timeout
+     * @return Logged in session; must be given back with release() or invalidate()
+     * @throws LoginException   Could not login a new session
+     * @throws InterruptedException
+     * @throws TimeoutException No session became available in time
+     */
+    public OracleIdentityManagerClient lease(long timeout, TimeUnit unit) throws LoginException, InterruptedException, TimeoutException
+    {
+        if(closed)
+        {
+            throw new IllegalStateException("Session pool is closed.");
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        IdleSession idle = idleSessions.poll();
+
+        while(idle == null || idle.session == null)
+        {
+            // Create a new session if there is room in the pool
+            if(reserveSlot())
+            {
+                return register(createSession());
+            }
+
+            long remaining = deadline - System.nanoTime();
+
+            if(remaining <= 0L)
+            {
+                throw new TimeoutException("No OIM session available after " + timeout + " " + unit);
+            }
+
+            // Woken by a returned session or by a freed slot, which is claimed on the next pass
+            idle = idleSessions.poll(remaining, TimeUnit.NANOSECONDS);
+        }
+
+        OracleIdentityManagerClient session = idle.session;
+
+        // Validate a session which may have expired while idle
+        if(System.currentTimeMillis() - idle.idleSince > validationIntervalMillis && !session.isSessionValid())
+        {
+            logger.log(ODLLevel.NOTIFICATION, "Idle session expired; logging in again.");
+
+            try
+            {
+                session.login();
+            }
+
+            catch(LoginException e)
+            {
+                freeSlot();
+                throw e;
+            }
+        }
+
+        return register(session);
+    }
+
+    /**
+     * Return a leased session to the pool
+     * @param session Session obtained from lease()
+     */
+    public void release(OracleIdentityManagerClient session)
+    {
+        if(session == null || !leasedSessions.remove(session))
+        {
+            return;
+        }
+
+        if(closed)
+        {
+            discard(session);
+        }
+
+        else
+        {
+            idleSessions.offer(new IdleSession(session));
+        }
+    }
+
+    /**
+     * Remove a leased session which is known to be broken from the pool and log it out.
+     * A new session is created on a later lease.
+     * @param session Session obtained from lease()
+     */
+    public void invalidate(OracleIdentityManagerClient session)
+    {
+        if(session != null && leasedSessions.remove(session))
+        {
+            discard(session);
+        }
+    }
+
+    /**
+     * Log out every idle session. Leased sessions are logged out when released.
+     */
+    public void close()
+    {
+        closed = true;
+        IdleSession idle;
+
+        while((idle = idleSessions.poll()) != null)
+        {
+            if(idle.session != null)
+            {
+                discard(idle.session);
+            }
+        }
+
+        logger.log(ODLLevel.NOTIFICATION, "Closed session pool; {0} sessions still leased.", new Object[]{leasedSessions.size()});
+    }
+
+    /**
+     * Number of sessions currently in the pool, leased or idle
+     * @return Session count
+     */
+    public int getSessionCount()
+    {
+        return sessionCount.get();
+    }
+
+    /**
+     * Number of sessions currently leased
+     * @return Leased session count
+     */
+    public int getLeasedCount()
+    {
+        return leasedSessions.size();
+    }
+
+    /**
+     * Claim room for one more session if the pool is below its maximum size
+     * @return true if a session can be created
+     */
+    private boolean reserveSlot()
+    {
+        while(true)
+        {
+            int count = sessionCount.get();
+
+            if(count >= maxSessions)
+            {
+                return false;
+            }
+
+            if(sessionCount.compareAndSet(count, count + 1))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Create and login a new session. Releases the reserved slot on failure.
+     * @return Logged in session
+     * @throws LoginException
+     */
+    private OracleIdentityManagerClient createSession() throws LoginException
+    {
+        try
+        {
+            OracleIdentityManagerClient session = new OracleIdentityManagerClient(username, password, authwlPath, appServerType, factoryInitialType, oimProviderURL, isSSL, trustKeystorePath);
+            logger.log(ODLLevel.NOTIFICATION, "Created OIM session {0} of {1}.", new Object[]{sessionCount.get(), maxSessions});
+            return session;
+        }
+
+        catch(LoginException e)
+        {
+            freeSlot();
+            throw e;
+        }
+
+        catch(RuntimeException e)
+        {
+            freeSlot();
+            throw e;
+        }
+    }
+
+    /**
+     * Remove a session from the count and wake a lease waiting for room in the pool
+     */
+    private void freeSlot()
+    {
+        sessionCount.decrementAndGet();
+
+        if(!closed)
+        {
+            idleSessions.offer(SLOT_FREED);
+        }
+    }
+
+    /**
+     * Mark a session as leased
+     * @param session Session handed out
+     * @return The session
+     */
+    private OracleIdentityManagerClient register(OracleIdentityManagerClient session)
+    {
+        leasedSessions.add(session);
+        return session;
+    }
+
+    /**
+     * Log out a session and remove it from the count
+     * @param session Session to discard
+     */
+    private void discard(OracleIdentityManagerClient session)
+    {
+        freeSlot();
+
+        try
+        {
+            session.logout();
+        }
+
+        catch(Exception e)
+        {
+            logger.log(ODLLevel.TRACE, "Failed to logout session: {0}", new Object[]{e.getMessage()});
+        }
+    }
+
+    /**
+     * A session waiting in the pool with the time it was returned; no session for SLOT_FREED
+     */
+    private static class IdleSession
+    {
+        private final OracleIdentityManagerClient session;
+        private final long idleSince;
+
+        private IdleSession(OracleIdentityManagerClient session)
+        {
+            this.session = session;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+}
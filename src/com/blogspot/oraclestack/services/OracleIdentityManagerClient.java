@@ -1,9 +1,14 @@
 package com.blogspot.oraclestack.services;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.security.auth.login.LoginException;
 import oracle.core.ojdl.logging.ODLLevel;
 import oracle.core.ojdl.logging.ODLLogger;
@@ -25,7 +30,12 @@ public class OracleIdentityManagerClient
     public static ODLLogger logger = ODLLogger.getODLLogger(OracleIdentityManagerClient.class.getName());
     
     // Instance Variables
-    private OIMClient oimClient; // OIM Client to use API services
+    private volatile OIMClient oimClient; // OIM Client to use API services
+    private final String username; // User Login of the OIM Identity
+    private final String password; // Kept to login again once the session expires
+    private Hashtable<String, String> env; // OIM environment information
+    private final ConcurrentHashMap<Class<?>,Object> services = new ConcurrentHashMap<Class<?>,Object>(); // API services handed out; they outlive a login()
+    private volatile ConcurrentHashMap<Class<?>,Object> delegates = new ConcurrentHashMap<Class<?>,Object>(); // API services looked up with the current OIMClient; replaced after the OIMClient
     
     /**
      * This constructor initializes the OIMClient by logging in as an
@@ -42,6 +52,9 @@ public class OracleIdentityManagerClient
      */
     public OracleIdentityManagerClient(String username, String password, String authwlPath, String appServerType, String factoryInitialType, String oimProviderURL, boolean isSSL, String trustKeystorePath) throws LoginException
     {
+        this.username = username;
+        this.password = password;
+        
         // Initializes OIMClient with environment information 
         this.initializeOIMClient(authwlPath, appServerType, factoryInitialType, oimProviderURL, isSSL, trustKeystorePath);
         
@@ -49,6 +62,62 @@ public class OracleIdentityManagerClient
         oimClient.login(username, password.toCharArray());
     }
     
+    /**
+     * Discard the current session and login again with a new OIMClient
+     * using the same credentials. Use when the session has expired.
+     * @throws LoginException 
+     */
+    public synchronized void login() throws LoginException
+    {
+        // Logout of expired session may fail
+        try
+        {
+            this.logout();
+        }
+        
+        catch(Exception e)
+        {
+            logger.log(ODLLevel.TRACE, "Failed to logout previous session: {0}", new Object[]{e.getMessage()});
+        }
+        
+        OIMClient newClient = new OIMClient(this.env);
+        newClient.login(this.username, this.password.toCharArray());
+        this.oimClient = newClient;
+        this.delegates = new ConcurrentHashMap<Class<?>,Object>();
+        logger.log(ODLLevel.TRACE, "Logged in user {0} with a new OIMClient.", new Object[]{this.username});
+    }
+    
+    /**
+     * Check if the session can still call the OIM API services
+     * by fetching the logged in user.
+     * @return true if the session is usable
+     */
+    public boolean isSessionValid()
+    {
+        try
+        {
+            HashSet<String> attrsToFetch = new HashSet<String>();
+            attrsToFetch.add("usr_key");
+            this.getService(UserManager.class).getDetails(this.username, attrsToFetch, true);
+            return true;
+        }
+        
+        catch(Exception e)
+        {
+            logger.log(ODLLevel.TRACE, "Session of user {0} is not valid: {1}", new Object[]{this.username, e.getMessage()});
+            return false;
+        }
+    }
+    
+    /**
+     * Get the User Login of the OIM Identity of this session
+     * @return User Login
+     */
+    public String getUsername()
+    {
+        return this.username;
+    }
+    
     /**
     * Setup the necessary system properties and environment information in 
     * order to use the OIM Client.
@@ -72,10 +141,10 @@ public class OracleIdentityManagerClient
         }
 
         // Create an instance of OIMClient with OIM environment information 
-        Hashtable<String, String> env = new Hashtable<String, String>();
-        env.put(OIMClient.JAVA_NAMING_FACTORY_INITIAL, factoryInitialType);
-        env.put(OIMClient.JAVA_NAMING_PROVIDER_URL, oimProviderURL);
-        this.oimClient = new OIMClient(env);
+        this.env = new Hashtable<String, String>();
+        this.env.put(OIMClient.JAVA_NAMING_FACTORY_INITIAL, factoryInitialType);
+        this.env.put(OIMClient.JAVA_NAMING_PROVIDER_URL, oimProviderURL);
+        this.oimClient = new OIMClient(this.env);
     }
     
     /**
@@ -87,11 +156,81 @@ public class OracleIdentityManagerClient
         return this.oimClient;
     }
     
+    /**
+     * Get an OIM API service. The same proxy is returned on later calls, so many helpers
+     * can be constructed from one session without repeating the remote lookup. The proxy
+     * calls the service of the current OIMClient, looked up once per login, so helpers
+     * keep working after login() replaces the OIMClient (E.g. when a pool renews an
+     * expired session). The service is instrumented by ServiceMetrics when metrics are enabled.
+     * @param <T>           Type of the API service
+     * @param serviceClass  Interface of the API service (E.g. UserManager.class)
+     * @return API service
+     */
+    public <T> T getService(final Class<T> serviceClass)
+    {
+        if(!serviceClass.isInterface())
+        {
+            return this.getDelegate(serviceClass);
+        }
+        
+        Object service = this.services.get(serviceClass);
+        
+        if(service == null)
+        {
+            service = Proxy.newProxyInstance(serviceClass.getClassLoader(), new Class<?>[]{serviceClass}, new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+                {
+                    try
+                    {
+                        return method.invoke(getDelegate(serviceClass), args);
+                    }
+                    
+                    catch(InvocationTargetException e)
+                    {
+                        throw e.getCause();
+                    }
+                }
+            });
+            Object existing = this.services.putIfAbsent(serviceClass, service);
+            service = existing == null ? service : existing;
+        }
+        
+        return serviceClass.cast(service);
+    }
+    
+    /**
+     * Get an OIM API service of the current OIMClient, looking it up once per login
+     * @param <T>           Type of the API service
+     * @param serviceClass  Interface of the API service
+     * @return API service
+     */
+    private <T> T getDelegate(Class<T> serviceClass)
+    {
+        // Read the map before the OIMClient so a service of a replaced OIMClient is never cached in the new map
+        ConcurrentHashMap<Class<?>,Object> current = this.delegates;
+        Object service = current.get(serviceClass);
+        
+        if(service == null)
+        {
+            service = ServiceMetrics.instrument(serviceClass, this.oimClient.getService(serviceClass));
+            Object existing = current.putIfAbsent(serviceClass, service);
+            service = existing == null ? service : existing;
+            logger.log(ODLLevel.TRACE, "Looked up service {0}", new Object[]{serviceClass.getName()});
+        }
+        
+        return serviceClass.cast(service);
+    }
+    
     /**
      * Log out user from OIMClient.
      */
     public void logout()
     {
+        // Services are bound to the session
+        this.delegates = new ConcurrentHashMap<Class<?>,Object>();
+        
         if(this.oimClient != null)
         {
             this.oimClient.logout();
@@ -107,7 +246,7 @@ public class OracleIdentityManagerClient
     public void test() throws AccessDeniedException, UserSearchException
     {        
         // Lookup User Manager service
-        UserManager usermgr = this.oimClient.getService(UserManager.class);
+        UserManager usermgr = this.getService(UserManager.class);
         
         // Only fetch attributes defined in HashSet 
         HashSet attrQuery = new HashSet();
@@ -0,0 +1,94 @@
+package com.blogspot.oraclestack.services;
+
+import java.util.concurrent.ConcurrentHashMap;
+import oracle.iam.platform.Platform;
+
+/**
+ * Looks up OIM API services inside the OIM server (event handlers, scheduled tasks,
+ * adapters) the same way as oracle.iam.platform.Platform, with the service instrumented
+ * by ServiceMetrics when metrics are enabled. When the JVM is started with
+ * -Doimutilities.loadtest=true, a service can be registered in place of the OIM one
+ * (E.g. an in-memory stand-in to load test handlers offline); otherwise the OIM
+ * services are always returned.
+ * @author rayedchan
+ */
+public class PlatformServices
+{
+    // System property allowing services to be registered in place of the OIM ones
+    public static final String LOAD_TEST_PROPERTY = "oimutilities.loadtest";
+
+    // Read once so the OIM server cannot turn overrides on later
+    private static final boolean OVERRIDES_ENABLED = Boolean.getBoolean(LOAD_TEST_PROPERTY);
+
+    // Services returned instead of the OIM ones; Key = Service interface
+    private static final ConcurrentHashMap<Class<?>,Object> OVERRIDES = new ConcurrentHashMap<Class<?>,Object>();
+
+    private PlatformServices()
+    {
+    }
+
+    /**
+     * Get an OIM API service running as the logged in user
+     * @param <T>           Type of the API service
+     * @param serviceClass  Interface of the API service (E.g. UserManager.class)
+     * @return API service
+     */
+    public static <T> T getService(Class<T> serviceClass)
+    {
+        T override = getOverride(serviceClass);
+        return ServiceMetrics.instrument(serviceClass, override != null ? override : Platform.getService(serviceClass));
+    }
+
+    /**
+     * Get an OIM API service for use in event handlers and threads which run
+     * without the context of the logged in user.
+     * @param <T>           Type of the API service
+     * @param serviceClass  Interface of the API service (E.g. UserManager.class)
+     * @param callerType    Type of caller (E.g. ADMIN)
+     * @param callerName    Name of the caller, usually the class name
+     * @return API service
+     */
+    public static <T> T getServiceForEventHandlers(Class<T> serviceClass, String callerType, String callerName)
+    {
+        T override = getOverride(serviceClass);
+        return ServiceMetrics.instrument(serviceClass, override != null ? override : Platform.getServiceForEventHandlers(serviceClass, null, callerType, callerName, null));
+    }
+
+    /**
+     * Return the given service instead of the OIM one from now on. Classes which keep
+     * a service in a static field must be loaded after the service is registered.
+     * @param <T>           Type of the API service
+     * @param serviceClass  Interface of the API service (E.g. UserManager.class)
+     * @param service       Service to return
+     * @throws IllegalStateException if the JVM was not started with -Doimutilities.loadtest=true
+     */
+    public static <T> void register(Class<T> serviceClass, T service)
+    {
+        if(!OVERRIDES_ENABLED)
+        {
+            throw new IllegalStateException("Services can only be registered when " + LOAD_TEST_PROPERTY + "=true");
+        }
+
+        OVERRIDES.put(serviceClass, service);
+    }
+
+    /**
+     * Go back to the OIM service
+     * @param serviceClass  Interface of the API service
+     */
+    public static void unregister(Class<?> serviceClass)
+    {
+        OVERRIDES.remove(serviceClass);
+    }
+
+    /**
+     * Get the registered service if any
+     * @param <T>           Type of the API service
+     * @param serviceClass  Interface of the API service
+     * @return Registered service or null
+     */
+    private static <T> T getOverride(Class<T> serviceClass)
+    {
+        return !OVERRIDES_ENABLED || OVERRIDES.isEmpty() ? null : serviceClass.cast(OVERRIDES.get(serviceClass));
+    }
+}
@@ -0,0 +1,268 @@
+package com.blogspot.oraclestack.services;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+
+/**
+ * Client side metrics of OIM API calls. Services passed to instrument() are wrapped in
+ * a proxy recording the call count, error count and latency histogram of every method.
+ * Metrics are collected only when the JVM is started with -Doimutilities.metrics.enabled=true;
+ * otherwise instrument() returns the service untouched so there is no overhead.
+ * A snapshot can be written to a file or read through JMX once registerMBean() is called.
+ * @author rayedchan
+ */
+public class ServiceMetrics implements ServiceMetricsMBean
+{
+    // Logger
+    private static final ODLLogger logger = ODLLogger.getODLLogger(ServiceMetrics.class.getName());
+
+    // System property to turn on metrics collection
+    public static final String ENABLED_PROPERTY = "oimutilities.metrics.enabled";
+    public static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    // Name of the MBean
+    public static final String OBJECT_NAME = "com.blogspot.oraclestack:type=ServiceMetrics";
+
+    private static final ServiceMetrics INSTANCE = new ServiceMetrics();
+
+    // Metrics by method (E.g. UserManager.getDetails)
+    private final ConcurrentHashMap<String,MethodMetrics> methods = new ConcurrentHashMap<String,MethodMetrics>();
+
+    private ServiceMetrics()
+    {
+    }
+
+    /**
+     * Get the metrics collected in this JVM
+     * @return Metrics registry
+     */
+    public static ServiceMetrics getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Wrap an OIM API service to record metrics of every call.
+     * @param <T>           Type of the API service
+     * @param serviceClass  Interface of the API service
+     * @param service       API service
+     * @return Instrumented service; the service itself if metrics are disabled or the type is not an interface
+     */
+    public static <T> T instrument(final Class<T> serviceClass, final T service)
+    {
+        if(!ENABLED || service == null || !serviceClass.isInterface() || Proxy.isProxyClass(service.getClass()) && Proxy.getInvocationHandler(service) instanceof MetricsInvocationHandler)
+        {
+            return service;
+        }
+
+        return serviceClass.cast(Proxy.newProxyInstance(serviceClass.getClassLoader(), new Class<?>[]{serviceClass}, new MetricsInvocationHandler(serviceClass.getSimpleName(), service)));
+    }
+
+    /**
+     * Record a call of a method
+     * @param methodName    Name of the method (E.g. UserManager.getDetails)
+     * @param nanos         Latency in nanoseconds
+     * @param failed        true if the call threw an exception
+     */
+    public void record(String methodName, long nanos, boolean failed)
+    {
+        MethodMetrics metrics = methods.get(methodName);
+
+        if(metrics == null)
+        {
+            MethodMetrics newMetrics = new MethodMetrics();
+            metrics = methods.putIfAbsent(methodName, newMetrics);
+            metrics = metrics == null ? newMetrics : metrics;
+        }
+
+        metrics.record(nanos, failed);
+    }
+
+    @Override
+    public String getSnapshot()
+    {
+        List<String> names = new ArrayList<String>(methods.keySet());
+        Collections.sort(names);
+        StringBuilder snapshot = new StringBuilder();
+        snapshot.append("METHOD,CALLS,ERRORS,TOTAL_MS,MEAN_US,P50_US,P90_US,P99_US,P999_US,MAX_US\n");
+
+        for(String name : names)
+        {
+            MethodMetrics metrics = methods.get(name);
+            long calls = metrics.calls.get();
+            long totalMicros = metrics.totalNanos.get() / 1000L;
+            snapshot.append(name).append(',')
+                    .append(calls).append(',')
+                    .append(metrics.errors.get()).append(',')
+                    .append(totalMicros / 1000L).append(',')
+                    .append(calls == 0 ? 0 : totalMicros / calls).append(',')
+                    .append(metrics.histogram.getValueAtPercentile(50.0)).append(',')
+                    .append(metrics.histogram.getValueAtPercentile(90.0)).append(',')
+                    .append(metrics.histogram.getValueAtPercentile(99.0)).append(',')
+                    .append(metrics.histogram.getValueAtPercentile(99.9)).append(',')
+                    .append(metrics.maxMicros.get()).append('\n');
+        }
+
+        return snapshot.toString();
+    }
+
+    @Override
+    public long getTotalCalls()
+    {
+        long total = 0L;
+
+        for(MethodMetrics metrics : methods.values())
+        {
+            total += metrics.calls.get();
+        }
+
+        return total;
+    }
+
+    @Override
+    public long getTotalErrors()
+    {
+        long total = 0L;
+
+        for(MethodMetrics metrics : methods.values())
+        {
+            total += metrics.errors.get();
+        }
+
+        return total;
+    }
+
+    @Override
+    public void reset()
+    {
+        methods.clear();
+    }
+
+    /**
+     * Write the current snapshot as CSV to a file, replacing its content
+     * @param filePath  Path of the file
+     * @throws IOException
+     */
+    public void writeSnapshot(String filePath) throws IOException
+    {
+        FileWriter writer = new FileWriter(filePath);
+
+        try
+        {
+            writer.write(getSnapshot());
+        }
+
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Expose the metrics through the platform MBean server. Does nothing if already registered.
+     * @throws JMException
+     */
+    public void registerMBean() throws JMException
+    {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(OBJECT_NAME);
+
+        if(!mbeanServer.isRegistered(objectName))
+        {
+            mbeanServer.registerMBean(this, objectName);
+            logger.log(ODLLevel.NOTIFICATION, "Registered MBean {0}", new Object[]{OBJECT_NAME});
+        }
+    }
+
+    /**
+     * Metrics of a single method
+     */
+    private static class MethodMetrics
+    {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private void record(long nanos, boolean failed)
+        {
+            long micros = nanos / 1000L;
+            calls.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            histogram.record(micros);
+
+            if(failed)
+            {
+                errors.incrementAndGet();
+            }
+
+            long max = maxMicros.get();
+
+            while(micros > max && !maxMicros.compareAndSet(max, micros))
+            {
+                max = maxMicros.get();
+            }
+        }
+    }
+
+    /**
+     * Times every call of the proxied service
+     */
+    private static class MetricsInvocationHandler implements InvocationHandler
+    {
+        private final String serviceName;
+        private final Object service;
+
+        private MetricsInvocationHandler(String serviceName, Object service)
+        {
+            this.serviceName = serviceName;
+            this.service = service;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            // Object methods are not remote calls
+            if(method.getDeclaringClass() == Object.class)
+            {
+                return method.invoke(service, args);
+            }
+
+            long start = System.nanoTime();
+            boolean failed = true;
+
+            try
+            {
+                Object result = method.invoke(service, args);
+                failed = false;
+                return result;
+            }
+
+            catch(InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+
+            finally
+            {
+                INSTANCE.record(serviceName + "." + method.getName(), System.nanoTime() - start, failed);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.blogspot.oraclestack.services;
+
+/**
+ * JMX management interface of the OIM API call metrics.
+ * @author rayedchan
+ */
+public interface ServiceMetricsMBean
+{
+    /**
+     * Get the metrics of every instrumented API method
+     * @return One line per method with call count, error count and latency percentiles
+     */
+    String getSnapshot();
+
+    /**
+     * Get the total number of instrumented API calls
+     * @return Call count
+     */
+    long getTotalCalls();
+
+    /**
+     * Get the total number of instrumented API calls which threw an exception
+     * @return Error count
+     */
+    long getTotalErrors();
+
+    /**
+     * Discard every recorded metric
+     */
+    void reset();
+}
@@ -1,8 +1,8 @@
 package com.blogspot.oraclestack.testdriver;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import Thor.API.Exceptions.tcAPIException;
+import com.blogspot.oraclestack.utilities.FlatFileReconEventSource;
+import com.blogspot.oraclestack.utilities.ReconEventBatcher;
 import java.io.IOException;
 import java.io.Serializable;
 import java.sql.Connection;
@@ -12,7 +12,6 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Hashtable;
@@ -26,7 +25,6 @@ import oracle.iam.reconciliation.api.ChangeType;
 import oracle.iam.reconciliation.api.EventMgmtService;
 import oracle.iam.reconciliation.api.InputData;
 import oracle.iam.reconciliation.api.ReconOperationsService;
-import oracle.iam.reconciliation.api.ReconciliationResult;
 
 /**
  * Generic Resource Reconciliation Event Creator
@@ -103,16 +101,12 @@ public class GenericReconEventSourceGeneratorDriver
             boolean ignoreDuplicate = false; // Identical to using IgnoreEvent API
             BatchAttributes batchAttrs = new BatchAttributes(profileName, dateFormat, ignoreDuplicate);
             
-            // Construct list of reconciliation event to be created reading from source database table
-            List<InputData> allReconEvents = constructReconciliationEventList(conn, tableName, filter, eventFinished, actionDate);
-            LOGGER.log(ODLLevel.NOTIFICATION, "Recon Events {0}: {1}", new Object[]{allReconEvents.size(), allReconEvents});
-            InputData[] events = new InputData[allReconEvents.size()];
-            allReconEvents.toArray(events);
+            int batchSize = 500; // Number of events per createReconciliationEvents call
             
-            // Create reconciliation events in OIM and process them
-            ReconciliationResult result = reconOps.createReconciliationEvents(batchAttrs, events);
-            LOGGER.log(ODLLevel.NOTIFICATION, "Success result: {0}",  new Object[]{result.getSuccessResult()});
-            LOGGER.log(ODLLevel.NOTIFICATION, "Success result: {0}",  new Object[]{result.getFailedResult()});
+            // Create reconciliation events in OIM in batches while reading from source database table
+            ReconEventBatcher batcher = new ReconEventBatcher(reconOps, batchAttrs, batchSize);
+            long records = feedReconciliationEvents(conn, tableName, filter, eventFinished, actionDate, batcher);
+            LOGGER.log(ODLLevel.NOTIFICATION, "Records {0}: {1}", new Object[]{records, batcher});
 
             
   /*         
@@ -168,6 +162,63 @@ public class GenericReconEventSourceGeneratorDriver
         } 
     }  
     
+    /**
+     * Create reconciliation events from a database table. Records are read one at a time 
+     * and events are created in batches, so memory does not grow with the size of the table.
+     * @param conn  Database connection
+     * @param tableName Source table name
+     * @param filter    WHERE clause to be appended to SQL query
+     * @param eventFinished Determine if child data needs to be added
+     * @param actionDate For deferring events
+     * @param batcher Batcher creating the events in OIM
+     * @return Number of records read from the table
+     * @throws SQLException 
+     * @throws tcAPIException 
+     */
+    public static long feedReconciliationEvents(Connection conn, String tableName, String filter, Boolean eventFinished, Date actionDate, ReconEventBatcher batcher) throws SQLException, tcAPIException
+    {
+        long records = 0L;
+        
+        // SELECT SQL Query on source table
+        String usersQuery = "SELECT * FROM " + tableName + (filter == null || "".equals(filter) ? "" : " " + filter);
+        PreparedStatement ps = conn.prepareStatement(usersQuery);
+        
+        try
+        {
+            ResultSet rs = ps.executeQuery();
+
+            // Get the result set metadata
+            ResultSetMetaData rsmd = rs.getMetaData();
+            int columnCount = rsmd.getColumnCount();
+            LOGGER.log(ODLLevel.NOTIFICATION, "Column count: {0}", new Object[]{columnCount});
+
+            // Iterate each record
+            while(rs.next())
+            {
+                // Store recon event data 
+                HashMap<String, Serializable> reconEventData = new HashMap<String, Serializable>();
+
+                for(int i = 1; i <= columnCount; i++)
+                {
+                    reconEventData.put(rsmd.getColumnName(i), rs.getString(i));
+                }
+
+                batcher.add(new InputData(reconEventData, null, eventFinished, ChangeType.CHANGELOG, actionDate));
+                records++;
+            }
+            
+            batcher.flush();
+        }
+        
+        finally
+        {
+            ps.close(); // Also closes result set
+        }
+        
+        LOGGER.log(ODLLevel.NOTIFICATION, "Read {0} records from {1}: {2}", new Object[]{records, tableName, batcher});
+        return records;
+    }
+    
      /**
      * Construct a list of reconciliation events staging to be created
      * @param conn  Database connection
@@ -217,82 +268,27 @@ public class GenericReconEventSourceGeneratorDriver
     }
     
     /**
-     * Create list of reconciliation events using data from a flat file
+     * Create reconciliation events using data from a flat file. The file is read
+     * one entry at a time and events are created in batches.
      * @param reconOps  OIM Reconciliation Service
-     * @throws FileNotFoundException
      * @throws IOException
      * @throws Exception 
      */
-    public static void flatFileFeed(ReconOperationsService reconOps) throws FileNotFoundException, IOException, Exception
+    public static void flatFileFeed(ReconOperationsService reconOps) throws IOException, Exception
     {
-        BufferedReader bReader = null;
-                
         // Input Parameters 
         String csvFilePath = "/home/oracle/Desktop/psft_hrms_users.csv";
-        String delimiter = ",";
+        char delimiter = ',';
         String profileName = "Peoplesoft HRMS"; // Reconciliation Profile Name - Resource Object Name
+        int batchSize = 500; // Number of events per createReconciliationEvents call
 
-        try
-        {
-            // Read File
-            FileReader fReader = new FileReader(csvFilePath); 
-            bReader = new BufferedReader(fReader);
-
-            Boolean eventFinished = true; // No child data provided; mark event to Data Received
-            String dateFormat = "yyyy-MM-dd";
-            Date actionDate = null; // Event to be processed immediately
-            boolean ignoreDuplicate = false; // Identical to using IgnoreEvent API
-            BatchAttributes batchAttrs = new BatchAttributes(profileName, dateFormat, ignoreDuplicate);
-
-            // Store all data from flat file into OIM object
-            List<InputData> allReconEvents = new ArrayList<InputData>();
-
-            // Header Line
-            String line = bReader.readLine();
-            if(line == null || "".equalsIgnoreCase(line))
-            {
-                throw new Exception("Header must be provided as the first entry in file.");
-            }
-            String[] header = line.split(delimiter);
-            System.out.println(Arrays.asList(header));
-
-            // Convert each line entry into a map object
-            line = bReader.readLine();
-            while(line != null)
-            {
-                HashMap<String, Serializable> reconEventData = new HashMap<String, Serializable>();
-                String[] entryValues = line.split(delimiter);
-
-                // One to one correspondence to header
-                for(int i = 0; i < entryValues.length; i++)
-                {
-                    reconEventData.put(header[i],entryValues[i]);
-                }
-
-                InputData event = new InputData(reconEventData, null, eventFinished, ChangeType.CHANGELOG, actionDate);
-
-                allReconEvents.add(event);
-
-                // read next line
-                line = bReader.readLine();
-            }
-
-            //System.out.println(allReconEvents);
-            InputData[] events = new InputData[allReconEvents.size()];
-            allReconEvents.toArray(events);
+        String dateFormat = "yyyy-MM-dd";
+        boolean ignoreDuplicate = false; // Identical to using IgnoreEvent API
+        BatchAttributes batchAttrs = new BatchAttributes(profileName, dateFormat, ignoreDuplicate);
 
-            //System.out.println(Arrays.asList(events));
-            ReconciliationResult result = reconOps.createReconciliationEvents(batchAttrs, events);
-            System.out.println(result.getSuccessResult());
-            System.out.println(result.getFailedResult());
-        }
-        
-        finally
-        {
-            if(bReader != null)
-            {
-                bReader.close();
-            }
-        } 
+        // Stream entries from flat file into batches of reconciliation events
+        ReconEventBatcher batcher = new ReconEventBatcher(reconOps, batchAttrs, batchSize);
+        long entries = new FlatFileReconEventSource(csvFilePath, delimiter).feed(batcher);
+        System.out.println("Entries: " + entries + ", " + batcher);
     }
 }
\ No newline at end of file
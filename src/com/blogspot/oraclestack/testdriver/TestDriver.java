@@ -68,9 +68,11 @@ public class TestDriver
             //roleUtils.createRoleCategory("Groups", "Maps to LDAP groups.");
             //roleUtils.bulkCreateRoleCategories("sample_csv_files/RoleCategories.csv", ';');
             //System.out.println(roleUtils.getAllRoles(new HashSet(Arrays.asList("Role Name","Role Category Name","Role Category Key"))));
+            //for(Role role : roleUtils.iterateAllRoles(new HashSet<String>(Arrays.asList("Role Name","Role Category Name")), 500)) { System.out.println(role); }
             //System.out.println(roleUtils.getRoleCategoryKeyByName("Security & Compliance"));
             //roleUtils.createRole("engineer", "Groups", "engineer Group");
             //roleUtils.bulkCreateRoles("sample_csv_files/Roles.csv", ';');
+            //System.out.println(roleUtils.bulkCreateRoles("sample_csv_files/Roles.csv", ';', 8, 3, "sample_csv_files/RolesResults.csv"));
             //System.out.println(roleUtils.getAllRoleMembershipOfAUser("49"));
             //System.out.println(roleUtils.getRoleKeyByRoleName("engr"));
             //roleUtils.grantRoleToUser("engr", "49");
@@ -0,0 +1,347 @@
+package com.blogspot.oraclestack.utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+
+/**
+ * Reads the lines of a large flat file with several threads. The file is split into
+ * fixed size byte ranges which are read with positional FileChannel reads and decoded
+ * into lines in parallel; nextChunk() returns the lines of each range in file order,
+ * so line numbers stay the same as reading the file with a BufferedReader.
+ *
+ * Ranges are split without scanning the file first: a range skips the partial line at
+ * its start (owned by the previous range) and reads past its end to complete its last
+ * line. Lines end with LF or CRLF. The charset must encode LF as the single byte 0x0A
+ * and never use that byte inside another character (E.g. UTF-8, ISO-8859-1, not UTF-16).
+ * Not thread safe; one consumer calls nextChunk().
+ * @author rayedchan
+ */
+public class ChunkedFileReader implements Closeable
+{
+    // Logger
+    private static final ODLLogger LOGGER = ODLLogger.getODLLogger(ChunkedFileReader.class.getName());
+
+    // Default size of a byte range
+    public static final int DEFAULT_CHUNK_BYTES = 8 * 1024 * 1024;
+
+    // Size of the reads past the end of a range
+    private static final int TAIL_READ_BYTES = 8 * 1024;
+
+    // Number of ranges read ahead per thread
+    private static final int READ_AHEAD = 2;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final Charset charset;
+    private final int chunkBytes;
+    private final int maxInFlight;
+    private final long fileSize;
+    private final ExecutorService parsers;
+
+    // Ranges submitted and not yet consumed, in file order
+    private final LinkedList<Future<List<String>>> pending = new LinkedList<Future<List<String>>>();
+    private long dataStart = 0L; // First byte after the header
+    private long nextOffset = -1L; // Start of the next range to submit; -1 until the first nextChunk()
+    private long chunkCount = 0L;
+
+    /**
+     * Open a file for reading
+     * @param file          File to read
+     * @param charset       Encoding of the file (E.g. Charset.defaultCharset())
+     * @param chunkBytes    Size of a byte range parsed by one thread; lines may be longer
+     * @param parallelism   Number of threads parsing ranges
+     * @throws IOException
+     */
+    public ChunkedFileReader(File file, Charset charset, int chunkBytes, int parallelism) throws IOException
+    {
+        this.file = file;
+        this.charset = charset;
+        this.chunkBytes = chunkBytes > 0 ? chunkBytes : DEFAULT_CHUNK_BYTES;
+        int threads = parallelism > 0 ? parallelism : 1;
+        this.maxInFlight = threads * READ_AHEAD;
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        this.fileSize = channel.size();
+        this.parsers = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "ChunkedFileReader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        LOGGER.log(ODLLevel.TRACE, "Opened {0}: {1} bytes, ranges of {2} bytes, {3} threads", new Object[]{file, fileSize, this.chunkBytes, threads});
+    }
+
+    /**
+     * Read the first line of the file. The chunks returned afterwards start after it.
+     * Must be called before the first nextChunk().
+     * @return Header line or null if the file is empty
+     * @throws IOException
+     */
+    public String readHeader() throws IOException
+    {
+        if(nextOffset >= 0L)
+        {
+            throw new IllegalStateException("Header must be read before the first chunk");
+        }
+
+        if(fileSize == 0L)
+        {
+            dataStart = 0L;
+            return null;
+        }
+
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        dataStart = readLineFrom(0L, line);
+        return decode(line.toByteArray(), 0, line.size());
+    }
+
+    /**
+     * Get the lines of the next byte range, keeping the parser threads busy with the
+     * ranges after it. A range may hold no lines when a single line spans it.
+     * @return Lines in file order or null at the end of the file
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public List<String> nextChunk() throws IOException, InterruptedException
+    {
+        if(nextOffset < 0L)
+        {
+            nextOffset = dataStart;
+        }
+
+        // Keep the read ahead window full
+        while(pending.size() < maxInFlight && nextOffset < fileSize)
+        {
+            final long begin = nextOffset;
+            final long end = Math.min(fileSize, begin + chunkBytes);
+            nextOffset = end;
+            pending.add(parsers.submit(new Callable<List<String>>()
+            {
+                @Override
+                public List<String> call() throws Exception
+                {
+                    return parseRange(begin, end);
+                }
+            }));
+        }
+
+        if(pending.isEmpty())
+        {
+            LOGGER.log(ODLLevel.TRACE, "Read {0} ranges of {1}", new Object[]{chunkCount, file});
+            return null;
+        }
+
+        try
+        {
+            List<String> lines = pending.removeFirst().get();
+            chunkCount++;
+            return lines;
+        }
+
+        catch(ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+
+            if(cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+
+            throw new IOException("Failed to parse " + file + ": " + cause);
+        }
+    }
+
+    /**
+     * Stop the parser threads and release the file
+     */
+    @Override
+    public void close()
+    {
+        for(Future<List<String>> future : pending)
+        {
+            future.cancel(true);
+        }
+
+        pending.clear();
+        parsers.shutdownNow();
+
+        try
+        {
+            raf.close();
+        }
+
+        catch(IOException e)
+        {
+            LOGGER.log(ODLLevel.WARNING, "Failed to close " + file, e);
+        }
+    }
+
+    public long getFileSize()
+    {
+        return fileSize;
+    }
+
+    /**
+     * Decode the lines starting within a byte range
+     * @param begin First byte of the range
+     * @param end   Byte after the range
+     * @return Lines owned by the range
+     * @throws IOException
+     */
+    private List<String> parseRange(long begin, long end) throws IOException
+    {
+        byte[] bytes = new byte[(int) (end - begin)];
+        readFully(ByteBuffer.wrap(bytes), begin);
+        int pos = 0;
+
+        // A range not starting a line leaves the partial line to the previous range
+        if(begin > dataStart && readByte(begin - 1) != '\n')
+        {
+            pos = indexOf(bytes, '\n', 0);
+
+            if(pos < 0)
+            {
+                return Collections.emptyList();
+            }
+
+            pos++;
+        }
+
+        List<String> lines = new ArrayList<String>();
+
+        while(pos < bytes.length)
+        {
+            int newline = indexOf(bytes, '\n', pos);
+
+            if(newline >= 0)
+            {
+                lines.add(decode(bytes, pos, newline - pos));
+                pos = newline + 1;
+            }
+
+            else
+            {
+                // Last line continues past the end of the range
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                line.write(bytes, pos, bytes.length - pos);
+                readLineFrom(end, line);
+                lines.add(decode(line.toByteArray(), 0, line.size()));
+                break;
+            }
+        }
+
+        return lines;
+    }
+
+    /**
+     * Copy the bytes up to the next line feed or the end of the file
+     * @param position  First byte to copy
+     * @param line      Receives the bytes without the line feed
+     * @return Position after the line feed
+     * @throws IOException
+     */
+    private long readLineFrom(long position, ByteArrayOutputStream line) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(TAIL_READ_BYTES);
+
+        while(position < fileSize)
+        {
+            buffer.clear();
+            buffer.limit((int) Math.min(TAIL_READ_BYTES, fileSize - position));
+            readFully(buffer, position);
+            int newline = indexOf(buffer.array(), '\n', 0, buffer.limit());
+
+            if(newline >= 0)
+            {
+                line.write(buffer.array(), 0, newline);
+                return position + newline + 1;
+            }
+
+            line.write(buffer.array(), 0, buffer.limit());
+            position += buffer.limit();
+        }
+
+        return fileSize;
+    }
+
+    /**
+     * Fill a buffer with a positional read; safe to call from several threads
+     * @param buffer    Buffer to fill up to its limit
+     * @param position  Position of the first byte in the file
+     * @throws IOException
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException
+    {
+        int start = buffer.position();
+
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer, position + buffer.position() - start) < 0)
+            {
+                throw new EOFException(file + " was truncated while being read");
+            }
+        }
+    }
+
+    private byte readByte(long position) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        readFully(buffer, position);
+        return buffer.get(0);
+    }
+
+    private static int indexOf(byte[] bytes, char value, int from)
+    {
+        return indexOf(bytes, value, from, bytes.length);
+    }
+
+    private static int indexOf(byte[] bytes, char value, int from, int to)
+    {
+        for(int i = from; i < to; i++)
+        {
+            if(bytes[i] == value)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Decode a line without its line terminator
+     */
+    private String decode(byte[] bytes, int offset, int length)
+    {
+        if(length > 0 && bytes[offset + length - 1] == '\r')
+        {
+            length--;
+        }
+
+        return new String(bytes, offset, length, charset);
+    }
+}
@@ -0,0 +1,491 @@
+package com.blogspot.oraclestack.utilities;
+
+import com.blogspot.oraclestack.services.LatencyHistogram;
+import com.blogspot.oraclestack.services.PlatformServices;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+import oracle.iam.platform.entitymgr.EntityManager;
+
+/**
+ * Groups the derived attributes written by post process event handlers with
+ * EntityManager.modifyEntity, which does not trigger another orchestration.
+ *
+ * By default an event handler collects its writes in a Batch, which merges the writes
+ * to the same entity and writes them on the calling thread when the handler finishes
+ * the orchestration, so a failed write still fails the event.
+ *
+ * The shared instance is a write-behind queue, used only when the system property
+ * oimutilities.coalescer.writeBehind is true. Writes are held for a short window (or
+ * until the queue holds the maximum number of entities), merged by entity and flushed
+ * together by a background thread, outside the OIM context of the orchestration. Failed
+ * writes are only reported to the callback given on submit; the event has already
+ * completed. Flushes run one at a time, so writes to an entity are applied in the order
+ * they were submitted. The queue is flushed by closeShared(), called from a JVM shutdown
+ * hook and to be called when the plug-in is undeployed. Thread safe.
+ *
+ * The shared instance is configured with the system properties
+ * oimutilities.coalescer.windowMillis (default 200) and oimutilities.coalescer.maxPending (default 500).
+ * @author rayedchan
+ */
+public class DerivedAttributeCoalescer
+{
+    // Logger
+    private static final ODLLogger LOGGER = ODLLogger.getODLLogger(DerivedAttributeCoalescer.class.getName());
+
+    // Configuration of the shared instance
+    public static final String WINDOW_PROPERTY = "oimutilities.coalescer.windowMillis";
+    public static final String MAX_PENDING_PROPERTY = "oimutilities.coalescer.maxPending";
+    public static final String WRITE_BEHIND_PROPERTY = "oimutilities.coalescer.writeBehind";
+    public static final long DEFAULT_WINDOW_MILLIS = 200L;
+    public static final int DEFAULT_MAX_PENDING = 500;
+
+    private static DerivedAttributeCoalescer shared; // guarded by DerivedAttributeCoalescer.class
+
+    private final EntityManager entMgr;
+    private final long windowMillis;
+    private final int maxPending;
+    private final ScheduledExecutorService flusher;
+
+    // Writes waiting for the next flush; Key = Entity Type|Entity Id; guarded by lock
+    private final Object lock = new Object();
+    private LinkedHashMap<String,PendingWrite> pending = new LinkedHashMap<String,PendingWrite>();
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+
+    // Held while a batch is written so batches never overlap
+    private final Object flushLock = new Object();
+
+    // Metrics
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+
+    /**
+     * Receives the writes which could not be applied
+     */
+    public interface FailureCallback
+    {
+        /**
+         * Called on the flush thread when a write fails
+         * @param entityType    Entity Type (E.g. User)
+         * @param entityId      Entity Id (E.g. USR_KEY)
+         * @param attrs         Merged attributes which were not written
+         * @param e             Cause of the failure
+         */
+        void onFailure(String entityType, String entityId, Map<String,Object> attrs, Exception e);
+    }
+
+    /**
+     * Constructor
+     * @param entMgr        OIM Entity Manager Service
+     * @param windowMillis  Time a write waits for other writes before being flushed
+     * @param maxPending    Number of queued entities which triggers an immediate flush
+     */
+    public DerivedAttributeCoalescer(EntityManager entMgr, long windowMillis, int maxPending)
+    {
+        this.entMgr = entMgr;
+        this.windowMillis = windowMillis;
+        this.maxPending = maxPending;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "DerivedAttributeCoalescer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Get the instance shared by the event handlers of this JVM
+     * @return Shared coalescer
+     */
+    public static synchronized DerivedAttributeCoalescer getShared()
+    {
+        if(shared == null)
+        {
+            EntityManager entMgr = PlatformServices.getServiceForEventHandlers(EntityManager.class, "ADMIN", "DerivedAttributeCoalescer");
+            shared = new DerivedAttributeCoalescer(entMgr, Long.getLong(WINDOW_PROPERTY, DEFAULT_WINDOW_MILLIS), Integer.getInteger(MAX_PENDING_PROPERTY, DEFAULT_MAX_PENDING));
+
+            // Write the queued entities before the server stops
+            Runtime.getRuntime().addShutdownHook(new Thread("DerivedAttributeCoalescerShutdown")
+            {
+                @Override
+                public void run()
+                {
+                    closeShared();
+                }
+            });
+        }
+
+        return shared;
+    }
+
+    /**
+     * Flush and close the shared instance (E.g. on plug-in undeploy or server shutdown).
+     * A later getShared() creates a new instance.
+     */
+    public static synchronized void closeShared()
+    {
+        if(shared != null)
+        {
+            LOGGER.log(ODLLevel.NOTIFICATION, "Closing shared coalescer: {0}", new Object[]{shared});
+            shared.close();
+            shared = null;
+        }
+    }
+
+    /**
+     * Determines if the event handlers queue their writes on the shared instance
+     * @return true if the system property oimutilities.coalescer.writeBehind is true
+     */
+    public static boolean isWriteBehindEnabled()
+    {
+        return Boolean.getBoolean(WRITE_BEHIND_PROPERTY);
+    }
+
+    /**
+     * Queue a derived attribute write. Attributes written again for the same entity
+     * before the flush replace the queued values.
+     * @param entityType    Entity Type (E.g. User)
+     * @param entityId      Entity Id (E.g. USR_KEY)
+     * @param attrs         Attributes to write
+     * @param callback      Called if the write fails; may be null
+     */
+    public void submit(String entityType, String entityId, Map<String,Object> attrs, FailureCallback callback)
+    {
+        boolean flushNow = false;
+        boolean scheduleFlush = false;
+        String key = entityType + "|" + entityId;
+        submitted.incrementAndGet();
+
+        synchronized(lock)
+        {
+            if(closed)
+            {
+                throw new IllegalStateException("Coalescer is closed");
+            }
+
+            PendingWrite write = pending.get(key);
+
+            if(write == null)
+            {
+                write = new PendingWrite(entityType, entityId);
+                pending.put(key, write);
+            }
+
+            else
+            {
+                merged.incrementAndGet();
+            }
+
+            write.attrs.putAll(attrs);
+
+            if(callback != null && !write.callbacks.contains(callback))
+            {
+                write.callbacks.add(callback);
+            }
+
+            if(pending.size() >= maxPending)
+            {
+                flushNow = true;
+            }
+
+            else if(!flushScheduled)
+            {
+                flushScheduled = true;
+                scheduleFlush = true;
+            }
+        }
+
+        try
+        {
+            if(flushNow)
+            {
+                flusher.execute(new FlushTask());
+            }
+
+            else if(scheduleFlush)
+            {
+                flusher.schedule(new FlushTask(), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        catch(RejectedExecutionException e)
+        {
+            // Closed concurrently; write on the calling thread
+            flush();
+        }
+    }
+
+    /**
+     * Write every queued entity now on the calling thread
+     */
+    public void flush()
+    {
+        synchronized(flushLock)
+        {
+            LinkedHashMap<String,PendingWrite> batch;
+
+            synchronized(lock)
+            {
+                batch = pending;
+                pending = new LinkedHashMap<String,PendingWrite>();
+                flushScheduled = false;
+            }
+
+            if(batch.isEmpty())
+            {
+                return;
+            }
+
+            long start = System.nanoTime();
+
+            for(PendingWrite write : batch.values())
+            {
+                try
+                {
+                    entMgr.modifyEntity(write.entityType, write.entityId, write.attrs);
+                    written.incrementAndGet();
+                }
+
+                catch(Exception e)
+                {
+                    failed.incrementAndGet();
+                    LOGGER.log(ODLLevel.WARNING, MessageFormat.format("Failed to write {0} {1}: {2}", new Object[]{write.entityType, write.entityId, write.attrs}), e);
+
+                    for(FailureCallback callback : write.callbacks)
+                    {
+                        try
+                        {
+                            callback.onFailure(write.entityType, write.entityId, write.attrs, e);
+                        }
+
+                        catch(RuntimeException ce)
+                        {
+                            LOGGER.log(ODLLevel.WARNING, "Failure callback threw an exception", ce);
+                        }
+                    }
+                }
+            }
+
+            long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            flushLatency.record(elapsedMicros);
+            flushes.incrementAndGet();
+            LOGGER.log(ODLLevel.TRACE, "Flushed {0} entities in {1} us", new Object[]{batch.size(), elapsedMicros});
+        }
+    }
+
+    /**
+     * Flush the queued writes and stop the background thread.
+     * Writes submitted afterwards are rejected.
+     */
+    public void close()
+    {
+        synchronized(lock)
+        {
+            closed = true;
+        }
+
+        flusher.shutdown();
+        flush();
+    }
+
+    /**
+     * Get the number of entities waiting to be written
+     * @return Queue depth
+     */
+    public int getQueueDepth()
+    {
+        synchronized(lock)
+        {
+            return pending.size();
+        }
+    }
+
+    public long getSubmittedCount()
+    {
+        return submitted.get();
+    }
+
+    public long getMergedCount()
+    {
+        return merged.get();
+    }
+
+    public long getWrittenCount()
+    {
+        return written.get();
+    }
+
+    public long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    public long getFlushCount()
+    {
+        return flushes.get();
+    }
+
+    /**
+     * Get the time taken to write a batch
+     * @param percentile    Percentile between 0 and 100 (E.g. 99)
+     * @return Flush latency in microseconds
+     */
+    public long getFlushLatencyMicros(double percentile)
+    {
+        return flushLatency.getValueAtPercentile(percentile);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Queue Depth = " + getQueueDepth() + ", Submitted = " + submitted.get() + ", Merged = " + merged.get() + ", Written = " + written.get()
+            + ", Failed = " + failed.get() + ", Flushes = " + flushes.get() + ", Flush p50 = " + getFlushLatencyMicros(50.0) + " us, Flush p99 = " + getFlushLatencyMicros(99.0) + " us";
+    }
+
+    /**
+     * Writes collected while an event handler processes one orchestration. Writes to the
+     * same entity are merged into one and written on the thread calling flush(), in the
+     * OIM context of the orchestration. Thread safe.
+     */
+    public static class Batch
+    {
+        private final EntityManager entMgr;
+
+        // Merged writes; Key = Entity Type|Entity Id; guarded by this
+        private final LinkedHashMap<String,PendingWrite> writes = new LinkedHashMap<String,PendingWrite>();
+        private int submitted = 0;
+
+        /**
+         * Constructor
+         * @param entMgr    OIM Entity Manager Service
+         */
+        public Batch(EntityManager entMgr)
+        {
+            this.entMgr = entMgr;
+        }
+
+        /**
+         * Add a derived attribute write. Attributes written again for the same entity
+         * replace the collected values.
+         * @param entityType    Entity Type (E.g. User)
+         * @param entityId      Entity Id (E.g. USR_KEY)
+         * @param attrs         Attributes to write
+         */
+        public synchronized void submit(String entityType, String entityId, Map<String,Object> attrs)
+        {
+            String key = entityType + "|" + entityId;
+            PendingWrite write = writes.get(key);
+
+            if(write == null)
+            {
+                write = new PendingWrite(entityType, entityId);
+                writes.put(key, write);
+            }
+
+            write.attrs.putAll(attrs);
+            submitted++;
+        }
+
+        /**
+         * Write every collected entity. Every entity is attempted even if one fails.
+         * @return Cause of each failed write by Entity Id; empty if every write succeeded
+         */
+        public synchronized Map<String,Exception> flush()
+        {
+            Map<String,Exception> failures = new LinkedHashMap<String,Exception>();
+
+            if(writes.isEmpty())
+            {
+                return failures;
+            }
+
+            long start = System.nanoTime();
+
+            for(PendingWrite write : writes.values())
+            {
+                try
+                {
+                    entMgr.modifyEntity(write.entityType, write.entityId, write.attrs);
+                }
+
+                catch(Exception e)
+                {
+                    LOGGER.log(ODLLevel.WARNING, MessageFormat.format("Failed to write {0} {1}: {2}", new Object[]{write.entityType, write.entityId, write.attrs}), e);
+                    failures.put(write.entityId, e);
+                }
+            }
+
+            LOGGER.log(ODLLevel.TRACE, "Wrote {0} entities for {1} writes in {2} us; {3} failed",
+                new Object[]{writes.size(), submitted, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), failures.size()});
+            writes.clear();
+            submitted = 0;
+            return failures;
+        }
+
+        /**
+         * Get the number of entities waiting to be written
+         * @return Number of entities
+         */
+        public synchronized int size()
+        {
+            return writes.size();
+        }
+    }
+
+    /**
+     * Runs a flush on the background thread
+     */
+    private class FlushTask implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                flush();
+            }
+
+            catch(RuntimeException e)
+            {
+                LOGGER.log(ODLLevel.SEVERE, "Flush of derived attributes failed", e);
+            }
+        }
+    }
+
+    /**
+     * Merged attributes of one entity waiting to be written
+     */
+    private static class PendingWrite
+    {
+        private final String entityType;
+        private final String entityId;
+        private final HashMap<String,Object> attrs = new HashMap<String,Object>();
+        private final List<FailureCallback> callbacks = new ArrayList<FailureCallback>(1);
+
+        private PendingWrite(String entityType, String entityId)
+        {
+            this.entityType = entityType;
+            this.entityId = entityId;
+        }
+    }
+}
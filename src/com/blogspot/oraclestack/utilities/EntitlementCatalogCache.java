@@ -0,0 +1,265 @@
+package com.blogspot.oraclestack.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+import oracle.iam.platform.entitymgr.vo.SearchCriteria;
+import oracle.iam.provisioning.api.EntitlementService;
+import oracle.iam.provisioning.api.ProvisioningConstants;
+import oracle.iam.provisioning.exception.GenericEntitlementServiceException;
+import oracle.iam.provisioning.vo.ApplicationInstance;
+import oracle.iam.provisioning.vo.Entitlement;
+
+/**
+ * Local copy of the entitlement catalog (ENT_LIST) indexed by entitlement code,
+ * display name and application instance display name. The catalog is loaded with
+ * a single paged scan on the first lookup by display name or application instance
+ * (or getAll()) and reloaded once it is older than the maximum age. A lookup by code
+ * never triggers the full scan: a code missing from the cache (or cached longer than
+ * the maximum age) fetches only that entitlement and adds it, so a single grant costs
+ * one search and entitlements created after the load are picked up without a reload.
+ * An instance is thread safe and can be shared by several EntitlementUtilities.
+ * @author rayedchan
+ */
+public class EntitlementCatalogCache
+{
+    // Logger
+    private static final ODLLogger logger = ODLLogger.getODLLogger(EntitlementCatalogCache.class.getName());
+
+    // Default maximum age of the catalog before a full reload
+    public static final long DEFAULT_MAX_AGE_MILLIS = 30L * 60L * 1000L;
+
+    private final EntitlementService entServ;
+    private final long maxAgeMillis;
+    private final int pageSize;
+
+    // Indexes of the catalog; guarded by this
+    private final Map<String,Entitlement> byCode = new HashMap<String,Entitlement>();
+    private final Map<String,Entitlement> byDisplayName = new HashMap<String,Entitlement>();
+    private final Map<String,List<Entitlement>> byAppInstance = new HashMap<String,List<Entitlement>>();
+    private final Map<String,Long> fetchedTime = new HashMap<String,Long>(); // Codes fetched one at a time since the last load
+    private long loadedTime = -1L;
+
+    /**
+     * Constructor using the default maximum age and page size
+     * @param entServ   OIM Entitlement Service
+     */
+    public EntitlementCatalogCache(EntitlementService entServ)
+    {
+        this(entServ, DEFAULT_MAX_AGE_MILLIS, PagedSearchResults.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param entServ       OIM Entitlement Service
+     * @param maxAgeMillis  Age of the catalog in milliseconds before a full reload; 0 or less to never reload
+     * @param pageSize      Number of entitlements fetched per API call during a full load
+     */
+    public EntitlementCatalogCache(EntitlementService entServ, long maxAgeMillis, int pageSize)
+    {
+        this.entServ = entServ;
+        this.maxAgeMillis = maxAgeMillis;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Get an entitlement definition by entitlement code.
+     * On a cache miss, only this entitlement is searched for in OIM and added to the cache.
+     * @param entitlementCode   Entitlement Code (ENT_LIST.ENT_CODE)
+     * @return Entitlement definition or null if there is no such entitlement
+     * @throws GenericEntitlementServiceException
+     */
+    public Entitlement getByCode(String entitlementCode) throws GenericEntitlementServiceException
+    {
+        Entitlement entitlement;
+
+        synchronized(this)
+        {
+            Long fetched = fetchedTime.get(entitlementCode);
+            entitlement = isFresh(fetched != null ? fetched : loadedTime) ? byCode.get(entitlementCode) : null;
+        }
+
+        if(entitlement == null)
+        {
+            // Incremental refresh of a single entitlement
+            SearchCriteria criteria = new SearchCriteria(ProvisioningConstants.EntitlementSearchAttribute.ENTITLEMENT_CODE.getId(), entitlementCode, SearchCriteria.Operator.EQUAL);
+            List<Entitlement> found = entServ.findEntitlements(criteria, new HashMap<String,Object>());
+            logger.log(ODLLevel.TRACE, "Cache miss on entitlement code {0}: {1}", new Object[]{entitlementCode, found});
+
+            if(found != null && !found.isEmpty())
+            {
+                entitlement = found.get(0);
+
+                synchronized(this)
+                {
+                    index(entitlement);
+                    fetchedTime.put(entitlementCode, System.currentTimeMillis());
+                }
+            }
+        }
+
+        return entitlement;
+    }
+
+    /**
+     * Get an entitlement definition by display name
+     * @param displayName   Entitlement Display Name (ENT_LIST.ENT_DISPLAY_NAME)
+     * @return Entitlement definition or null if not in the catalog
+     * @throws GenericEntitlementServiceException
+     */
+    public Entitlement getByDisplayName(String displayName) throws GenericEntitlementServiceException
+    {
+        ensureLoaded();
+
+        synchronized(this)
+        {
+            return byDisplayName.get(displayName);
+        }
+    }
+
+    /**
+     * Get all the entitlement definitions of an application instance
+     * @param appInstName   Application Instance Display Name
+     * @return Entitlement definitions; empty if there are none
+     * @throws GenericEntitlementServiceException
+     */
+    public List<Entitlement> getByAppInstance(String appInstName) throws GenericEntitlementServiceException
+    {
+        ensureLoaded();
+
+        synchronized(this)
+        {
+            List<Entitlement> entitlements = byAppInstance.get(appInstName);
+            return entitlements == null ? Collections.<Entitlement>emptyList() : new ArrayList<Entitlement>(entitlements);
+        }
+    }
+
+    /**
+     * Get every entitlement definition in the catalog
+     * @return Entitlement definitions
+     * @throws GenericEntitlementServiceException
+     */
+    public List<Entitlement> getAll() throws GenericEntitlementServiceException
+    {
+        ensureLoaded();
+
+        synchronized(this)
+        {
+            return new ArrayList<Entitlement>(byCode.values());
+        }
+    }
+
+    /**
+     * Discard the cached catalog. The next lookup triggers a full load.
+     */
+    public synchronized void invalidate()
+    {
+        loadedTime = -1L;
+    }
+
+    /**
+     * Load the whole catalog with a paged scan and replace the indexes.
+     * @throws GenericEntitlementServiceException
+     */
+    public synchronized void reload() throws GenericEntitlementServiceException
+    {
+        long start = System.currentTimeMillis();
+        final SearchCriteria criteria = new SearchCriteria(ProvisioningConstants.EntitlementSearchAttribute.ENTITLEMENT_CODE.getId(), "*", SearchCriteria.Operator.EQUAL);
+        PagedSearchResults<Entitlement> catalog = new PagedSearchResults<Entitlement>(pageSize, ProvisioningConstants.EntitlementSearchAttribute.ENTITLEMENT_CODE.getId())
+        {
+            @Override
+            protected List<Entitlement> fetchPage(HashMap<String,Object> configParams) throws Exception
+            {
+                return entServ.findEntitlements(criteria, configParams);
+            }
+        };
+
+        byCode.clear();
+        byDisplayName.clear();
+        byAppInstance.clear();
+        fetchedTime.clear();
+
+        try
+        {
+            for(Entitlement entitlement : catalog)
+            {
+                index(entitlement);
+            }
+        }
+
+        catch(IllegalStateException e)
+        {
+            loadedTime = -1L;
+
+            if(e.getCause() instanceof GenericEntitlementServiceException)
+            {
+                throw (GenericEntitlementServiceException) e.getCause();
+            }
+
+            throw e;
+        }
+
+        loadedTime = System.currentTimeMillis();
+        logger.log(ODLLevel.NOTIFICATION, "Loaded {0} entitlement definitions in {1} ms", new Object[]{byCode.size(), loadedTime - start});
+    }
+
+    /**
+     * Load the catalog if it was never loaded or is older than the maximum age
+     * @throws GenericEntitlementServiceException
+     */
+    private synchronized void ensureLoaded() throws GenericEntitlementServiceException
+    {
+        if(!isFresh(loadedTime))
+        {
+            reload();
+        }
+    }
+
+    /**
+     * Check whether data loaded at a given time can still be used. Caller must hold the lock.
+     * @param time  Time the data was loaded; negative if never loaded
+     * @return true if loaded and not older than the maximum age
+     */
+    private boolean isFresh(long time)
+    {
+        return time >= 0 && (maxAgeMillis <= 0 || System.currentTimeMillis() - time <= maxAgeMillis);
+    }
+
+    /**
+     * Add an entitlement to every index. Caller must hold the lock.
+     * @param entitlement   Entitlement definition
+     */
+    private void index(Entitlement entitlement)
+    {
+        Entitlement previous = byCode.put(entitlement.getEntitlementCode(), entitlement);
+
+        if(entitlement.getDisplayName() != null)
+        {
+            byDisplayName.put(entitlement.getDisplayName(), entitlement);
+        }
+
+        ApplicationInstance appInst = entitlement.getAppInstance();
+
+        if(appInst != null && appInst.getDisplayName() != null)
+        {
+            List<Entitlement> entitlements = byAppInstance.get(appInst.getDisplayName());
+
+            if(entitlements == null)
+            {
+                entitlements = new ArrayList<Entitlement>();
+                byAppInstance.put(appInst.getDisplayName(), entitlements);
+            }
+
+            if(previous != null)
+            {
+                entitlements.remove(previous);
+            }
+
+            entitlements.add(entitlement);
+        }
+    }
+}
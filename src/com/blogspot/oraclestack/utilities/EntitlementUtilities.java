@@ -1,15 +1,24 @@
 package com.blogspot.oraclestack.utilities;
 
+import com.blogspot.oraclestack.objects.BulkItemResult;
+import com.blogspot.oraclestack.objects.BulkOperationReport;
+import com.blogspot.oraclestack.objects.BulkTask;
+import com.blogspot.oraclestack.objects.EntitlementAssignment;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import oracle.core.ojdl.logging.ODLLevel;
 import oracle.core.ojdl.logging.ODLLogger;
 import oracle.iam.identity.exception.NoSuchUserException;
 import oracle.iam.identity.exception.UserLookupException;
 import oracle.iam.identity.usermgmt.api.UserManager;
-import oracle.iam.identity.usermgmt.api.UserManagerConstants;
-import oracle.iam.identity.usermgmt.vo.User;
 import oracle.iam.platform.entitymgr.vo.SearchCriteria;
 import oracle.iam.provisioning.api.EntitlementService;
 import oracle.iam.provisioning.api.ProvisioningConstants;
@@ -46,11 +55,32 @@ public class EntitlementUtilities
     private final UserManager userMgrOps;
     private final EntitlementService entServ;
     
+    // Local copy of the entitlement catalog
+    private final EntitlementCatalogCache entCatalog;
+    
+    // User Login to USR_KEY resolution
+    private final UserKeyResolver userKeyResolver;
+    
     public EntitlementUtilities(ProvisioningService provServOps, UserManager userMgrOps, EntitlementService entServ)
+    {
+        this(provServOps, userMgrOps, entServ, new EntitlementCatalogCache(entServ), new UserKeyResolver(userMgrOps));
+    }
+    
+    /**
+     * Constructor
+     * @param provServOps       OIM Provisioning Service
+     * @param userMgrOps        OIM User Manager Service
+     * @param entServ           OIM Entitlement Service
+     * @param entCatalog        Entitlement catalog cache; can be shared between instances
+     * @param userKeyResolver   User Login resolver; can be shared with other utilities
+     */
+    public EntitlementUtilities(ProvisioningService provServOps, UserManager userMgrOps, EntitlementService entServ, EntitlementCatalogCache entCatalog, UserKeyResolver userKeyResolver)
     {
         this.provServOps = provServOps;
         this.userMgrOps = userMgrOps;
         this.entServ = entServ;
+        this.entCatalog = entCatalog;
+        this.userKeyResolver = userKeyResolver;
     }
         
     /**
@@ -60,9 +90,7 @@ public class EntitlementUtilities
     public void printEntitlementDefinition() throws GenericEntitlementServiceException
     {
         // Get all Entitlement Definitions
-        SearchCriteria criteria = new SearchCriteria(ProvisioningConstants.EntitlementSearchAttribute.ENTITLEMENT_CODE.getId(),"*", SearchCriteria.Operator.EQUAL);
-        HashMap<String,Object> configParams = new HashMap<String,Object>();
-        List<Entitlement> entitlements = entServ.findEntitlements(criteria, configParams);
+        List<Entitlement> entitlements = this.entCatalog.getAll();
         logger.log(ODLLevel.NOTIFICATION, "Entitlement List: {0}", new Object[]{entitlements});
     }
     
@@ -113,30 +141,21 @@ public class EntitlementUtilities
         logger.log(ODLLevel.NOTIFICATION, "User key: {0}", new Object[]{userKey});
         
         // Get user's account filtered by application instance display name
-        boolean populateAcctData = false;
-        SearchCriteria appInstCriteria = new SearchCriteria(ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId(), appInstName, SearchCriteria.Operator.EQUAL);
-        HashMap<String,Object> acctConfigParams = new HashMap<String,Object>();
-        List<Account> userAccounts = this.provServOps.getAccountsProvisionedToUser(userKey, appInstCriteria, acctConfigParams, populateAcctData);
+        List<Account> userAccounts = this.getUserAccountsByAppInstance(userKey, appInstName);
         logger.log(ODLLevel.NOTIFICATION, "User accounts fetched: {0}", new Object[]{userAccounts});
         
-        // Get specific Entitlement Definitions
-        SearchCriteria entDefCriteria = new SearchCriteria(ProvisioningConstants.EntitlementSearchAttribute.ENTITLEMENT_CODE.getId(), entitlementCode, SearchCriteria.Operator.EQUAL);
-        HashMap<String,Object> entConfigParams = new HashMap<String,Object>();
-        List<Entitlement> entitlements = entServ.findEntitlements(entDefCriteria, entConfigParams);
-        logger.log(ODLLevel.NOTIFICATION, "Entitlement Definition Fetched: {0}", new Object[]{entitlements});
+        // Get specific Entitlement Definition
+        Entitlement entitlement = this.entCatalog.getByCode(entitlementCode);
+        logger.log(ODLLevel.NOTIFICATION, "Entitlement Definition Fetched: {0}", new Object[]{entitlement});
         
         // Ensure an entitlement can be added to a specific resource on a user
-        if (userAccounts != null && !userAccounts.isEmpty() && entitlements != null && !entitlements.isEmpty())
+        if (userAccounts != null && !userAccounts.isEmpty() && entitlement != null)
         {
             // Get the first resource account 
             Account userAccount = userAccounts.get(0);
             String accountKey = userAccount.getAccountID(); // OIU_KEY
             logger.log(ODLLevel.NOTIFICATION, "Add entitlement to account: Account Key = {0}", new Object[]{accountKey});
             
-            // Get first entitlement definition
-            Entitlement entitlement = entitlements.get(0);
-            logger.log(ODLLevel.NOTIFICATION, "Entitlement Definition: {0}", new Object[]{entitlement});
-            
             // Instantiate Entitlement Instance Object
             EntitlementInstance grantEntInst = new EntitlementInstance();
             
@@ -242,6 +261,428 @@ public class EntitlementUtilities
         
     }
     
+    /**
+     * Grant many entitlements in bulk. Every distinct user login and entitlement code is
+     * resolved once. Grants are grouped per user account; each group is processed by a single
+     * thread so grants on the same account run in order while different accounts run in parallel.
+     * A failed grant does not stop the other grants.
+     * @param assignments   Entitlements to grant
+     * @param numThreads    Number of accounts to process in parallel
+     * @param maxRetries    Number of retries for a grant on a transient failure
+     * @return Report containing the outcome of each assignment; item id is the 1-based position in the list
+     * @throws InterruptedException 
+     */
+    public BulkOperationReport bulkGrantEntitlements(final List<EntitlementAssignment> assignments, int numThreads, final int maxRetries) throws InterruptedException
+    {
+        final BulkOperationReport report = new BulkOperationReport("Bulk Grant Entitlements");
+        
+        // Resolve each distinct user login and entitlement definition once
+        Map<String,String> resolveFailures = new HashMap<String,String>();
+        Map<String,String> userKeys = this.resolveUserKeys(assignments, resolveFailures);
+        final Map<String,Entitlement> entitlements = new HashMap<String,Entitlement>();
+        
+        for(EntitlementAssignment assignment : assignments)
+        {
+            String entitlementCode = assignment.getEntitlementCode();
+            if(!entitlements.containsKey(entitlementCode) && !resolveFailures.containsKey(entitlementCode))
+            {
+                try
+                {
+                    Entitlement found = this.entCatalog.getByCode(entitlementCode);
+                    
+                    if(found == null)
+                    {
+                        resolveFailures.put(entitlementCode, "No entitlement definition with code " + entitlementCode);
+                    }
+                    
+                    else
+                    {
+                        entitlements.put(entitlementCode, found);
+                    }
+                }
+                
+                catch(Exception e)
+                {
+                    resolveFailures.put(entitlementCode, e.getMessage());
+                }
+            }
+        }
+        
+        logger.log(ODLLevel.NOTIFICATION, "Resolved {0} users and {1} entitlement definitions for {2} assignments", new Object[]{userKeys.size(), entitlements.size(), assignments.size()});
+        
+        // Group assignments per user account (user and application instance)
+        Map<String,List<Integer>> accountGroups = new LinkedHashMap<String,List<Integer>>();
+        
+        for(int i = 0; i < assignments.size(); i++)
+        {
+            EntitlementAssignment assignment = assignments.get(i);
+            String userKey = userKeys.get(assignment.getUserLogin());
+            String failure = userKey == null ? resolveFailures.get(assignment.getUserLogin()) : resolveFailures.get(assignment.getEntitlementCode());
+            
+            if(failure != null)
+            {
+                report.add(new BulkItemResult(String.valueOf(i + 1), assignment.toString(), BulkItemResult.Status.FAILED, 0, 0L, failure));
+                continue;
+            }
+            
+            String groupKey = userKey + "|" + assignment.getAppInstName();
+            List<Integer> group = accountGroups.get(groupKey);
+            
+            if(group == null)
+            {
+                group = new ArrayList<Integer>();
+                accountGroups.put(groupKey, group);
+            }
+            
+            group.add(i);
+        }
+        
+        // Process each account group in parallel
+        ExecutorService threadExecutor = Executors.newFixedThreadPool(numThreads);
+        
+        try
+        {
+            for(final List<Integer> group : accountGroups.values())
+            {
+                final String userKey = userKeys.get(assignments.get(group.get(0)).getUserLogin());
+                
+                threadExecutor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        grantEntitlementsToAccount(userKey, assignments, group, entitlements, maxRetries, report);
+                    }
+                });
+            }
+        }
+        
+        finally
+        {
+            threadExecutor.shutdown();
+            threadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        
+        report.finish();
+        logger.log(ODLLevel.NOTIFICATION, "{0}", new Object[]{report});
+        return report;
+    }
+    
+    /**
+     * Revoke many entitlements in bulk. Every distinct user login is resolved once and 
+     * the entitlement instances of each user are fetched once. Users are processed in parallel.
+     * An entitlement is only revoked from the accounts of the given application instance;
+     * assignments the user does not have there are marked as skipped.
+     * @param assignments   Entitlements to revoke; the attributes are not used
+     * @param numThreads    Number of users to process in parallel
+     * @param maxRetries    Number of retries for a revoke on a transient failure
+     * @return Report containing the outcome of each assignment; item id is the 1-based position in the list
+     * @throws InterruptedException 
+     */
+    public BulkOperationReport bulkRevokeEntitlements(final List<EntitlementAssignment> assignments, int numThreads, final int maxRetries) throws InterruptedException
+    {
+        final BulkOperationReport report = new BulkOperationReport("Bulk Revoke Entitlements");
+        Map<String,String> resolveFailures = new HashMap<String,String>();
+        Map<String,String> userKeys = this.resolveUserKeys(assignments, resolveFailures);
+        
+        // Group assignments per user
+        Map<String,List<Integer>> userGroups = new LinkedHashMap<String,List<Integer>>();
+        
+        for(int i = 0; i < assignments.size(); i++)
+        {
+            EntitlementAssignment assignment = assignments.get(i);
+            String userKey = userKeys.get(assignment.getUserLogin());
+            
+            if(userKey == null)
+            {
+                report.add(new BulkItemResult(String.valueOf(i + 1), assignment.toString(), BulkItemResult.Status.FAILED, 0, 0L, resolveFailures.get(assignment.getUserLogin())));
+                continue;
+            }
+            
+            List<Integer> group = userGroups.get(userKey);
+            
+            if(group == null)
+            {
+                group = new ArrayList<Integer>();
+                userGroups.put(userKey, group);
+            }
+            
+            group.add(i);
+        }
+        
+        ExecutorService threadExecutor = Executors.newFixedThreadPool(numThreads);
+        
+        try
+        {
+            for(final Map.Entry<String,List<Integer>> entry : userGroups.entrySet())
+            {
+                threadExecutor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        revokeEntitlementsFromUser(entry.getKey(), assignments, entry.getValue(), maxRetries, report);
+                    }
+                });
+            }
+        }
+        
+        finally
+        {
+            threadExecutor.shutdown();
+            threadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        
+        report.finish();
+        logger.log(ODLLevel.NOTIFICATION, "{0}", new Object[]{report});
+        return report;
+    }
+    
+    /**
+     * Grant a group of entitlements to the same user account. 
+     * @param userKey       OIM.USR_KEY
+     * @param assignments   All the assignments of the bulk operation
+     * @param group         Positions of the assignments belonging to the account
+     * @param entitlements  Resolved entitlement definitions by entitlement code
+     * @param maxRetries    Number of retries for a grant on a transient failure
+     * @param report        Report to record the outcome of each assignment
+     */
+    private void grantEntitlementsToAccount(String userKey, List<EntitlementAssignment> assignments, List<Integer> group, Map<String,Entitlement> entitlements, int maxRetries, BulkOperationReport report)
+    {
+        String appInstName = assignments.get(group.get(0)).getAppInstName();
+        String accountKey = null;
+        String failure = null;
+        
+        // Resolve the account once for the whole group
+        try
+        {
+            List<Account> userAccounts = this.getUserAccountsByAppInstance(userKey, appInstName);
+            
+            if(userAccounts != null && !userAccounts.isEmpty())
+            {
+                accountKey = userAccounts.get(0).getAccountID(); // OIU_KEY
+            }
+            
+            else
+            {
+                failure = "User does not have an account for application instance " + appInstName;
+            }
+        }
+        
+        catch(Exception e)
+        {
+            failure = e.getMessage();
+        }
+        
+        for(Integer index : group)
+        {
+            final EntitlementAssignment assignment = assignments.get(index);
+            
+            if(accountKey == null)
+            {
+                report.add(new BulkItemResult(String.valueOf(index + 1), assignment.toString(), BulkItemResult.Status.FAILED, 0, 0L, failure));
+                continue;
+            }
+            
+            final Entitlement entitlement = entitlements.get(assignment.getEntitlementCode());
+            final long accountId = Long.parseLong(accountKey);
+            
+            new BulkTask(String.valueOf(index + 1), assignment.toString(), maxRetries, report)
+            {
+                @Override
+                protected String execute() throws Exception
+                {
+                    EntitlementInstance grantEntInst = new EntitlementInstance();
+                    grantEntInst.setEntitlement(entitlement);
+                    grantEntInst.setAccountKey(accountId); // OIU_KEY
+                    grantEntInst.setChildFormValues(assignment.getEntitlementAttributes());
+                    provServOps.grantEntitlement(grantEntInst);
+                    return "Granted on account " + accountId;
+                }
+
+                @Override
+                protected boolean isSkippable(Exception e)
+                {
+                    return e instanceof EntitlementAlreadyProvisionedException;
+                }
+
+                @Override
+                protected boolean isRetryable(Exception e)
+                {
+                    return isTransientFailure(e);
+                }
+            }.call();
+        }
+    }
+    
+    /**
+     * Revoke a group of entitlements from the same user. The user's entitlement instances
+     * are indexed by application instance and entitlement code, so an entitlement the user
+     * holds through several application instances is revoked from the requested one.
+     * @param userKey       OIM.USR_KEY
+     * @param assignments   All the assignments of the bulk operation
+     * @param group         Positions of the assignments belonging to the user
+     * @param maxRetries    Number of retries for a revoke on a transient failure
+     * @param report        Report to record the outcome of each assignment
+     */
+    private void revokeEntitlementsFromUser(String userKey, List<EntitlementAssignment> assignments, List<Integer> group, int maxRetries, BulkOperationReport report)
+    {
+        // Fetch the user's entitlement instances once and index by application instance and entitlement code
+        Map<String,EntitlementInstance> instancesByAppInstCode = new HashMap<String,EntitlementInstance>(); // Key = appInstName|entitlementCode
+        String failure = null;
+        
+        try
+        {
+            // Application instance of each account of the user; Key = OIU_KEY
+            Map<String,String> appInstByAccount = new HashMap<String,String>();
+            Set<String> appInstNames = new HashSet<String>();
+            
+            for(Integer index : group)
+            {
+                String appInstName = assignments.get(index).getAppInstName();
+                
+                if(appInstName == null || !appInstNames.add(appInstName))
+                {
+                    continue;
+                }
+                
+                List<Account> userAccounts = this.getUserAccountsByAppInstance(userKey, appInstName);
+                
+                for(int i = 0; userAccounts != null && i < userAccounts.size(); i++)
+                {
+                    appInstByAccount.put(userAccounts.get(i).getAccountID(), appInstName);
+                }
+            }
+            
+            List<EntitlementInstance> userEntitlements = this.provServOps.getEntitlementsForUser(userKey);
+            
+            for(EntitlementInstance userEntitlement : userEntitlements)
+            {
+                String appInstName = appInstByAccount.get(String.valueOf(userEntitlement.getAccountKey()));
+                
+                if(userEntitlement.getEntitlement() != null && appInstName != null)
+                {
+                    instancesByAppInstCode.put(appInstName + "|" + userEntitlement.getEntitlement().getEntitlementCode(), userEntitlement);
+                }
+            }
+        }
+        
+        catch(Exception e)
+        {
+            failure = e.getMessage();
+        }
+        
+        for(Integer index : group)
+        {
+            EntitlementAssignment assignment = assignments.get(index);
+            final EntitlementInstance revokeEntInst = instancesByAppInstCode.get(assignment.getAppInstName() + "|" + assignment.getEntitlementCode());
+            
+            if(failure != null)
+            {
+                report.add(new BulkItemResult(String.valueOf(index + 1), assignment.toString(), BulkItemResult.Status.FAILED, 0, 0L, failure));
+            }
+            
+            else if(revokeEntInst == null)
+            {
+                report.add(new BulkItemResult(String.valueOf(index + 1), assignment.toString(), BulkItemResult.Status.SKIPPED, 0, 0L, "Entitlement is not provisioned to user on application instance " + assignment.getAppInstName()));
+            }
+            
+            else
+            {
+                new BulkTask(String.valueOf(index + 1), assignment.toString(), maxRetries, report)
+                {
+                    @Override
+                    protected String execute() throws Exception
+                    {
+                        provServOps.revokeEntitlement(revokeEntInst);
+                        return "Revoked from account " + revokeEntInst.getAccountKey();
+                    }
+
+                    @Override
+                    protected boolean isSkippable(Exception e)
+                    {
+                        return e instanceof EntitlementNotProvisionedException;
+                    }
+
+                    @Override
+                    protected boolean isRetryable(Exception e)
+                    {
+                        return isTransientFailure(e);
+                    }
+                }.call();
+            }
+        }
+    }
+    
+    /**
+     * Resolve every distinct user login of a bulk operation with a single search.
+     * @param assignments       Assignments of the bulk operation
+     * @param resolveFailures   Failure reasons by user login; updated for logins which could not be resolved,
+     *                          with the search error if the search itself failed
+     * @return USR_KEY by user login
+     */
+    private Map<String,String> resolveUserKeys(List<EntitlementAssignment> assignments, Map<String,String> resolveFailures)
+    {
+        Set<String> userLogins = new HashSet<String>();
+        Map<String,String> userKeys = new HashMap<String,String>();
+        
+        for(EntitlementAssignment assignment : assignments)
+        {
+            userLogins.add(assignment.getUserLogin());
+        }
+        
+        String failure = null;
+        
+        try
+        {
+            userKeys = this.userKeyResolver.resolveAll(userLogins);
+        }
+        
+        catch(Exception e)
+        {
+            // Search failed; the users may exist
+            logger.log(ODLLevel.WARNING, "Failed to resolve user logins", e);
+            failure = "Failed to resolve user login: " + e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        
+        for(String userLogin : userLogins)
+        {
+            if(!userKeys.containsKey(userLogin))
+            {
+                resolveFailures.put(userLogin, failure != null ? failure : "No such user: " + userLogin);
+            }
+        }
+        
+        return userKeys;
+    }
+    
+    /**
+     * Get the user's accounts of an application instance
+     * @param userKey       OIM.USR_KEY
+     * @param appInstName   Application Instance Display Name
+     * @return Accounts of the user
+     * @throws UserNotFoundException
+     * @throws GenericProvisioningException 
+     */
+    private List<Account> getUserAccountsByAppInstance(String userKey, String appInstName) throws UserNotFoundException, GenericProvisioningException
+    {
+        boolean populateAcctData = false;
+        SearchCriteria appInstCriteria = new SearchCriteria(ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId(), appInstName, SearchCriteria.Operator.EQUAL);
+        HashMap<String,Object> acctConfigParams = new HashMap<String,Object>();
+        return this.provServOps.getAccountsProvisionedToUser(userKey, appInstCriteria, acctConfigParams, populateAcctData);
+    }
+    
+    /**
+     * Determines if a failed provisioning API call may succeed on another attempt.
+     * Missing users, accounts or entitlements and improper account states are permanent.
+     * @param e Exception thrown by OIM API
+     * @return true if the call can be retried
+     */
+    private static boolean isTransientFailure(Exception e)
+    {
+        return !(e instanceof UserNotFoundException || e instanceof NoSuchUserException || e instanceof AccountNotFoundException || e instanceof ImproperAccountStateException || e instanceof EntitlementNotFoundException);
+    }
+    
      /**
      * Creates an entitlement in OIM.
      * DO NOT USE. Incorrect behavior in 11.1.2.0.0
@@ -291,12 +732,6 @@ public class EntitlementUtilities
      */
     private String getUserKeyByUserLogin(String userLogin) throws NoSuchUserException, UserLookupException
     {
-        boolean userLoginUsed = true;
-        HashSet<String> attrsToFetch = new HashSet<String>();
-        attrsToFetch.add(UserManagerConstants.AttributeName.USER_KEY.getId());
-        attrsToFetch.add(UserManagerConstants.AttributeName.USER_LOGIN.getId());
-        User user = userMgrOps.getDetails(userLogin, attrsToFetch, userLoginUsed);
-        logger.log(ODLLevel.NOTIFICATION, "User Details: {0}", new Object[]{user});
-        return user.getEntityId();
+        return this.userKeyResolver.resolve(userLogin);
     }
 }
@@ -0,0 +1,337 @@
+package com.blogspot.oraclestack.utilities;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.Properties;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+
+/**
+ * Durable progress of a job processing the lines of a file, so a restarted job can
+ * skip the lines already applied. The checkpoint is keyed by the SHA-256 checksum of
+ * the file, so a changed file never resumes from the progress of another.
+ *
+ * Lines may complete out of order (E.g. processed by a thread pool). The checkpoint
+ * records the highest line up to which every line has completed; lines completed
+ * beyond it are tracked in memory only, so after a restart at most the lines in flight
+ * are processed again (and their failures listed again). Failed lines count as completed and are appended to a failures
+ * file with the reason, to be fixed and loaded separately.
+ *
+ * Files kept in the checkpoint directory:
+ * - {checksum}.checkpoint: properties with the completed line, replaced atomically
+ * - {checksum}.failures: one "line number TAB reason" entry per failed line
+ * Thread safe.
+ * @author rayedchan
+ */
+public class FileCheckpoint
+{
+    // Logger
+    private static final ODLLogger LOGGER = ODLLogger.getODLLogger(FileCheckpoint.class.getName());
+
+    // Checkpoint properties
+    private static final String PROP_FILE = "file";
+    private static final String PROP_CHECKSUM = "checksum";
+    private static final String PROP_COMPLETED_THROUGH = "completedThrough";
+    private static final String PROP_FAILED = "failed";
+    private static final String PROP_FINISHED = "finished";
+
+    // Default number of completed lines between two saves
+    public static final int DEFAULT_SAVE_INTERVAL = 1000;
+
+    private final File sourceFile;
+    private final String checksum;
+    private final File checkpointFile;
+    private final File failuresFile;
+    private final int saveInterval;
+
+    // Progress; guarded by this
+    private long completedThrough; // Every line up to and including this one has completed
+    private final BitSet completedAhead = new BitSet(); // Bit i set = line completedThrough + 1 + i completed
+    private long failed;
+    private boolean finished;
+    private int unsaved = 0;
+    private BufferedWriter failuresWriter;
+
+    /**
+     * Open the checkpoint of a file
+     * @param sourceFile    File being processed
+     * @param directory     Directory holding the checkpoints; created if missing
+     * @param resume        true to continue from the saved progress; false to start over
+     * @param saveInterval  Number of completed lines between two saves
+     * @throws IOException
+     */
+    public FileCheckpoint(File sourceFile, File directory, boolean resume, int saveInterval) throws IOException
+    {
+        this.sourceFile = sourceFile;
+        this.checksum = checksum(sourceFile);
+        this.saveInterval = saveInterval > 0 ? saveInterval : DEFAULT_SAVE_INTERVAL;
+
+        if(!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Cannot create checkpoint directory " + directory);
+        }
+
+        this.checkpointFile = new File(directory, checksum + ".checkpoint");
+        this.failuresFile = new File(directory, checksum + ".failures");
+
+        if(resume && checkpointFile.isFile())
+        {
+            Properties props = new Properties();
+            InputStream in = new FileInputStream(checkpointFile);
+
+            try
+            {
+                props.load(in);
+            }
+
+            finally
+            {
+                in.close();
+            }
+
+            this.completedThrough = Long.parseLong(props.getProperty(PROP_COMPLETED_THROUGH, "0"));
+            this.failed = Long.parseLong(props.getProperty(PROP_FAILED, "0"));
+            this.finished = Boolean.parseBoolean(props.getProperty(PROP_FINISHED, "false"));
+            LOGGER.log(ODLLevel.NOTIFICATION, "Resuming {0} (checksum {1}) after line {2}; {3} failed so far; finished = {4}", new Object[]{sourceFile, checksum, completedThrough, failed, finished});
+        }
+
+        else
+        {
+            this.completedThrough = 0L;
+            this.failed = 0L;
+            this.finished = false;
+
+            if(failuresFile.isFile() && !failuresFile.delete())
+            {
+                throw new IOException("Cannot delete previous failures file " + failuresFile);
+            }
+
+            LOGGER.log(ODLLevel.NOTIFICATION, "Starting {0} (checksum {1}) from the first line", new Object[]{sourceFile, checksum});
+        }
+
+        // Append so the failures of the previous runs are kept on resume
+        this.failuresWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(failuresFile, true), "UTF-8"));
+    }
+
+    /**
+     * Determines if a line was completed by a previous run
+     * @param lineNumber    Line number; the first data line is 1
+     * @return true to skip the line
+     */
+    public synchronized boolean isCompleted(long lineNumber)
+    {
+        return lineNumber <= completedThrough;
+    }
+
+    /**
+     * Record a completed line. The progress is saved every save interval lines.
+     * @param lineNumber    Line number; the first data line is 1
+     * @param failure       Reason the line failed; null if it succeeded
+     */
+    public synchronized void markCompleted(long lineNumber, String failure)
+    {
+        if(lineNumber <= completedThrough)
+        {
+            return;
+        }
+
+        if(failure != null)
+        {
+            failed++;
+
+            try
+            {
+                failuresWriter.write(lineNumber + "\t" + failure.replace('\n', ' ').replace('\r', ' '));
+                failuresWriter.newLine();
+            }
+
+            catch(IOException e)
+            {
+                LOGGER.log(ODLLevel.WARNING, "Failed to record failure of line " + lineNumber, e);
+            }
+        }
+
+        // Advance the contiguous watermark over every completed line
+        completedAhead.set((int) (lineNumber - completedThrough - 1));
+        int advance = completedAhead.nextClearBit(0);
+
+        if(advance > 0)
+        {
+            completedThrough += advance;
+            BitSet remaining = completedAhead.get(advance, Math.max(advance, completedAhead.length()));
+            completedAhead.clear();
+            completedAhead.or(remaining);
+        }
+
+        if(++unsaved >= saveInterval)
+        {
+            saveQuietly();
+        }
+    }
+
+    /**
+     * Save the progress and mark the file as fully processed
+     * @throws IOException
+     */
+    public synchronized void finish() throws IOException
+    {
+        finished = true;
+        save();
+        LOGGER.log(ODLLevel.NOTIFICATION, "Finished {0} through line {1}; {2} failed lines in {3}", new Object[]{sourceFile, completedThrough, failed, failuresFile});
+    }
+
+    /**
+     * Save the progress and release the failures file. The progress is kept for a later resume.
+     */
+    public synchronized void close()
+    {
+        saveQuietly();
+
+        try
+        {
+            failuresWriter.close();
+        }
+
+        catch(IOException e)
+        {
+            LOGGER.log(ODLLevel.WARNING, "Failed to close " + failuresFile, e);
+        }
+    }
+
+    public synchronized long getCompletedThrough()
+    {
+        return completedThrough;
+    }
+
+    public synchronized long getFailedCount()
+    {
+        return failed;
+    }
+
+    public synchronized boolean isFinished()
+    {
+        return finished;
+    }
+
+    public String getChecksum()
+    {
+        return checksum;
+    }
+
+    public File getFailuresFile()
+    {
+        return failuresFile;
+    }
+
+    /**
+     * Save the progress, logging instead of failing the job on an I/O error
+     */
+    private void saveQuietly()
+    {
+        try
+        {
+            save();
+        }
+
+        catch(IOException e)
+        {
+            LOGGER.log(ODLLevel.WARNING, "Failed to save checkpoint " + checkpointFile, e);
+        }
+    }
+
+    /**
+     * Write the progress to a temporary file and rename it over the checkpoint, so a
+     * crash never leaves a partial checkpoint. Failures are flushed first so every
+     * failed line up to the saved progress is on disk. Caller must hold the lock.
+     * @throws IOException
+     */
+    private void save() throws IOException
+    {
+        failuresWriter.flush();
+
+        Properties props = new Properties();
+        props.setProperty(PROP_FILE, sourceFile.getAbsolutePath());
+        props.setProperty(PROP_CHECKSUM, checksum);
+        props.setProperty(PROP_COMPLETED_THROUGH, String.valueOf(completedThrough));
+        props.setProperty(PROP_FAILED, String.valueOf(failed));
+        props.setProperty(PROP_FINISHED, String.valueOf(finished));
+
+        File tmpFile = new File(checkpointFile.getParentFile(), checkpointFile.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmpFile);
+
+        try
+        {
+            props.store(out, "Checkpoint of " + sourceFile.getName());
+            out.getFD().sync();
+        }
+
+        finally
+        {
+            out.close();
+        }
+
+        // Rename cannot replace an existing file on every platform
+        if(!tmpFile.renameTo(checkpointFile) && !(checkpointFile.delete() && tmpFile.renameTo(checkpointFile)))
+        {
+            throw new IOException("Cannot replace checkpoint " + checkpointFile);
+        }
+
+        unsaved = 0;
+    }
+
+    /**
+     * Compute the SHA-256 checksum of a file
+     * @param file  File to read
+     * @return Checksum in hexadecimal
+     * @throws IOException
+     */
+    public static String checksum(File file) throws IOException
+    {
+        MessageDigest digest;
+
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+
+        catch(NoSuchAlgorithmException e)
+        {
+            throw new IOException("SHA-256 is not available: " + e.getMessage());
+        }
+
+        InputStream in = new FileInputStream(file);
+
+        try
+        {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+
+            while((read = in.read(buffer)) != -1)
+            {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        finally
+        {
+            in.close();
+        }
+
+        StringBuilder hex = new StringBuilder();
+
+        for(byte b : digest.digest())
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+}
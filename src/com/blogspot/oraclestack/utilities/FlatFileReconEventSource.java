@@ -0,0 +1,107 @@
+package com.blogspot.oraclestack.utilities;
+
+import Thor.API.Exceptions.tcAPIException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+import oracle.iam.reconciliation.api.ChangeType;
+import oracle.iam.reconciliation.api.InputData;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Reconciliation event source reading from a flat file. The first line of the file
+ * must be a header containing the reconciliation field names. Each following line is
+ * turned into a reconciliation event (parent data only) as it is read and handed to a
+ * ReconEventBatcher, so only a single batch of events is held in memory regardless
+ * of the size of the file.
+ * @author rayedchan
+ */
+public class FlatFileReconEventSource
+{
+    // Logger
+    private static final ODLLogger logger = ODLLogger.getODLLogger(FlatFileReconEventSource.class.getName());
+
+    private final String csvFilePath;
+    private final char delimiter;
+    private final Date actionDate;
+
+    /**
+     * Constructor. Events are processed immediately.
+     * @param csvFilePath   Path of the flat file
+     * @param delimiter     Delimiter to parse an entry in the file
+     */
+    public FlatFileReconEventSource(String csvFilePath, char delimiter)
+    {
+        this(csvFilePath, delimiter, null);
+    }
+
+    /**
+     * Constructor
+     * @param csvFilePath   Path of the flat file
+     * @param delimiter     Delimiter to parse an entry in the file
+     * @param actionDate    Date to defer the events to; null to process events immediately
+     */
+    public FlatFileReconEventSource(String csvFilePath, char delimiter, Date actionDate)
+    {
+        this.csvFilePath = csvFilePath;
+        this.delimiter = delimiter;
+        this.actionDate = actionDate;
+    }
+
+    /**
+     * Read the file and send every entry to the batcher. Remaining events are flushed at the end.
+     * @param batcher   Batcher creating the events in OIM
+     * @return Number of entries read from the file
+     * @throws IOException
+     * @throws tcAPIException
+     */
+    public long feed(ReconEventBatcher batcher) throws IOException, tcAPIException
+    {
+        CSVParser csvParser = null;
+        long entries = 0L;
+
+        try
+        {
+            // Indicate format for csv file; Specify csv file has header and use specific delimiter for parsing
+            CSVFormat format = CSVFormat.DEFAULT.withHeader().withDelimiter(delimiter);
+            csvParser = new CSVParser(new FileReader(csvFilePath), format);
+            logger.log(ODLLevel.NOTIFICATION, "Header: {0}", new Object[]{csvParser.getHeaderMap().keySet()});
+
+            // Records are parsed one at a time while iterating
+            for(CSVRecord record : csvParser)
+            {
+                HashMap<String,Serializable> reconEventData = new HashMap<String,Serializable>();
+
+                // One to one correspondence to header
+                for(Map.Entry<String,String> entry : record.toMap().entrySet())
+                {
+                    reconEventData.put(entry.getKey(), entry.getValue());
+                }
+
+                boolean eventFinished = true; // No child data provided; mark event to Data Received
+                batcher.add(new InputData(reconEventData, null, eventFinished, ChangeType.CHANGELOG, actionDate));
+                entries++;
+            }
+
+            batcher.flush();
+            logger.log(ODLLevel.NOTIFICATION, "Read {0} entries from {1}: {2}", new Object[]{entries, csvFilePath, batcher});
+        }
+
+        finally
+        {
+            if(csvParser != null)
+            {
+                csvParser.close();
+            }
+        }
+
+        return entries;
+    }
+}
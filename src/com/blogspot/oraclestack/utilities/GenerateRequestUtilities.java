@@ -1,7 +1,11 @@
 package com.blogspot.oraclestack.utilities;
 
+import com.blogspot.oraclestack.objects.BulkItemResult;
+import com.blogspot.oraclestack.objects.BulkOperationReport;
+import com.blogspot.oraclestack.objects.EntitlementRequestItem;
+import com.blogspot.oraclestack.services.OracleIdentityManagerClient;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import oracle.core.ojdl.logging.ODLLevel;
@@ -10,11 +14,13 @@ import oracle.iam.api.OIMService;
 import oracle.iam.exception.OIMServiceException;
 import oracle.iam.identity.exception.NoSuchUserException;
 import oracle.iam.identity.exception.UserLookupException;
+import oracle.iam.identity.exception.UserSearchException;
 import oracle.iam.identity.usermgmt.api.UserManager;
-import oracle.iam.identity.usermgmt.api.UserManagerConstants;
-import oracle.iam.identity.usermgmt.vo.User;
 import oracle.iam.platform.OIMClient;
+import oracle.iam.platform.authz.exception.AccessDeniedException;
+import oracle.iam.platform.kernel.ValidationFailedException;
 import oracle.iam.platform.utils.vo.OIMType;
+import oracle.iam.request.exception.InvalidRequestDataException;
 import oracle.iam.request.vo.Beneficiary;
 import oracle.iam.request.vo.RequestBeneficiaryEntity;
 import oracle.iam.request.vo.RequestConstants;
@@ -37,16 +43,48 @@ public class GenerateRequestUtilities
     
     // OIM Service for API calls
     private final OIMService oimService;
-    private final UserManager usrMgrOps;
+    
+    // User Login to USR_KEY resolution
+    private final UserKeyResolver userKeyResolver;
     
     /**
      * Constructor
      * @param oimService OIMService 
      */
     public GenerateRequestUtilities(OIMClient oimClient)
+    {
+        this(oimClient, new UserKeyResolver(oimClient.getService(UserManager.class)));
+    }
+    
+    /**
+     * Constructor
+     * @param oimClient         OIMClient with administrator logged in
+     * @param userKeyResolver   User Login resolver; can be shared with other utilities
+     */
+    public GenerateRequestUtilities(OIMClient oimClient, UserKeyResolver userKeyResolver)
     {
         this.oimService = oimClient.getService(OIMService.class);
-        this.usrMgrOps = oimClient.getService(UserManager.class);
+        this.userKeyResolver = userKeyResolver;
+    }
+    
+    /**
+     * Constructor
+     * @param oimSession Session with administrator logged in; its API services are reused
+     */
+    public GenerateRequestUtilities(OracleIdentityManagerClient oimSession)
+    {
+        this(oimSession, new UserKeyResolver(oimSession.getService(UserManager.class)));
+    }
+    
+    /**
+     * Constructor
+     * @param oimSession        Session with administrator logged in; its API services are reused
+     * @param userKeyResolver   User Login resolver; can be shared with other utilities
+     */
+    public GenerateRequestUtilities(OracleIdentityManagerClient oimSession, UserKeyResolver userKeyResolver)
+    {
+        this.oimService = oimSession.getService(OIMService.class);
+        this.userKeyResolver = userKeyResolver;
     }
     
     /**
@@ -63,10 +101,7 @@ public class GenerateRequestUtilities
         String usrKey = getUserKeyByUserLogin(userLogin);
         
         // Setup Request Entity
-        RequestEntity reqEntity = new RequestEntity();
-        reqEntity.setRequestEntityType(OIMType.User); // Specify entity type to User
-        reqEntity.setEntityKey(usrKey); // Specify target user's usr_key
-        reqEntity.setOperation(RequestConstants.MODEL_DISABLE_OPERATION); // Specify DISABLE operation to perform
+        RequestEntity reqEntity = this.buildDisableUserEntity(usrKey);
         
         // Add single request entity to list
         List<RequestEntity>  entities = new ArrayList<RequestEntity>();
@@ -96,20 +131,8 @@ public class GenerateRequestUtilities
         // Call helper method to get usr_key by User Login 
         String usrKey = getUserKeyByUserLogin(userLogin);
         
-        // Generate a list of request entity attribute to modify
-        List<RequestEntityAttribute> reqModAttrs = new ArrayList<RequestEntityAttribute>();
-        for(Map.Entry<String,String> entry : modAttrs.entrySet())
-        {
-            RequestEntityAttribute modAttr = new RequestEntityAttribute(entry.getKey(), entry.getValue(), RequestEntityAttribute.TYPE.String);
-            reqModAttrs.add(modAttr);
-        }
-        
         // Setup Request Entity
-        RequestEntity reqEntity = new RequestEntity();
-        reqEntity.setRequestEntityType(OIMType.User);
-        reqEntity.setEntityKey(usrKey);
-        reqEntity.setOperation(RequestConstants.MODEL_MODIFY_OPERATION);
-        reqEntity.setEntityData(reqModAttrs);
+        RequestEntity reqEntity = this.buildModifyUserEntity(usrKey, modAttrs);
         
         // Add single request entity to list
         List<RequestEntity>  entities = new ArrayList<RequestEntity>();
@@ -131,11 +154,7 @@ public class GenerateRequestUtilities
         String usrKey = getUserKeyByUserLogin(userLogin);
                 
         // Setup Request Entity
-        RequestBeneficiaryEntity reqBenefEntity = new RequestBeneficiaryEntity();
-        reqBenefEntity.setRequestEntityType(OIMType.Entitlement);
-        reqBenefEntity.setEntitySubType(entitlementName);
-        reqBenefEntity.setEntityKey(entKey);
-        reqBenefEntity.setOperation(RequestConstants.MODEL_PROVISION_ENTITLEMENT_OPERATION);
+        RequestBeneficiaryEntity reqBenefEntity = this.buildProvisionEntitlementEntity(entitlementName, entKey);
         
         // Add single request entity to list
         List<RequestBeneficiaryEntity>  entities = new ArrayList<RequestBeneficiaryEntity>();
@@ -161,6 +180,325 @@ public class GenerateRequestUtilities
         return result;
     }
     
+    /**
+     * Generate requests to OIM to disable many users. Users are packed into as few 
+     * requests as possible with at most maxEntitiesPerRequest users per request.
+     * @param userLogins            OIM User Logins
+     * @param maxEntitiesPerRequest Maximum number of users in a single request
+     * @return Report with the outcome of each user; message contains the request id; item id is the 1-based position in the list
+     * @throws UserSearchException
+     * @throws AccessDeniedException 
+     */
+    public BulkOperationReport requestToDisableUsers(List<String> userLogins, int maxEntitiesPerRequest) throws UserSearchException, AccessDeniedException
+    {
+        BulkOperationReport report = new BulkOperationReport("Bulk Disable User Requests");
+        Map<String,String> usrKeys = this.userKeyResolver.resolveAll(userLogins);
+        List<RequestItem> chunk = new ArrayList<RequestItem>();
+        
+        for(int i = 0; i < userLogins.size(); i++)
+        {
+            String usrKey = usrKeys.get(userLogins.get(i));
+            
+            if(usrKey == null)
+            {
+                report.add(new BulkItemResult(String.valueOf(i + 1), userLogins.get(i), BulkItemResult.Status.FAILED, 0, 0L, "No such user"));
+                continue;
+            }
+            
+            chunk.add(new RequestItem(i, null, this.buildDisableUserEntity(usrKey)));
+            
+            // Submit once the request is full
+            if(chunk.size() >= maxEntitiesPerRequest)
+            {
+                this.submitRequest(chunk, userLogins, report);
+                chunk = new ArrayList<RequestItem>();
+            }
+        }
+        
+        if(!chunk.isEmpty())
+        {
+            this.submitRequest(chunk, userLogins, report);
+        }
+        
+        report.finish();
+        logger.log(ODLLevel.NOTIFICATION, "{0}", new Object[]{report});
+        return report;
+    }
+    
+    /**
+     * Generate requests to OIM to modify the User Profile of many users. Users are packed
+     * into as few requests as possible with at most maxEntitiesPerRequest users per request.
+     * @param modAttrsByUserLogin   User Profile attributes to modify by OIM User Login
+     * @param maxEntitiesPerRequest Maximum number of users in a single request
+     * @return Report with the outcome of each user; message contains the request id; item id is the 1-based position in iteration order of the map
+     * @throws UserSearchException
+     * @throws AccessDeniedException 
+     */
+    public BulkOperationReport requestToModifyUsersAttributes(Map<String,Map<String,String>> modAttrsByUserLogin, int maxEntitiesPerRequest) throws UserSearchException, AccessDeniedException
+    {
+        BulkOperationReport report = new BulkOperationReport("Bulk Modify User Requests");
+        List<String> userLogins = new ArrayList<String>(modAttrsByUserLogin.keySet());
+        Map<String,String> usrKeys = this.userKeyResolver.resolveAll(userLogins);
+        List<RequestItem> chunk = new ArrayList<RequestItem>();
+        
+        for(int i = 0; i < userLogins.size(); i++)
+        {
+            String usrKey = usrKeys.get(userLogins.get(i));
+            
+            if(usrKey == null)
+            {
+                report.add(new BulkItemResult(String.valueOf(i + 1), userLogins.get(i), BulkItemResult.Status.FAILED, 0, 0L, "No such user"));
+                continue;
+            }
+            
+            chunk.add(new RequestItem(i, null, this.buildModifyUserEntity(usrKey, modAttrsByUserLogin.get(userLogins.get(i)))));
+            
+            // Submit once the request is full
+            if(chunk.size() >= maxEntitiesPerRequest)
+            {
+                this.submitRequest(chunk, userLogins, report);
+                chunk = new ArrayList<RequestItem>();
+            }
+        }
+        
+        if(!chunk.isEmpty())
+        {
+            this.submitRequest(chunk, userLogins, report);
+        }
+        
+        report.finish();
+        logger.log(ODLLevel.NOTIFICATION, "{0}", new Object[]{report});
+        return report;
+    }
+    
+    /**
+     * Generate requests to OIM to provision many entitlements. Entitlements of the same user
+     * share a beneficiary and are packed into as few requests as possible with at most 
+     * maxEntitiesPerRequest entitlements per request.
+     * @param items                 Entitlements to request
+     * @param maxEntitiesPerRequest Maximum number of entitlements in a single request
+     * @return Report with the outcome of each item; message contains the request id; item id is the 1-based position in the list
+     * @throws UserSearchException
+     * @throws AccessDeniedException 
+     */
+    public BulkOperationReport requestToProvisionEntitlements(List<EntitlementRequestItem> items, int maxEntitiesPerRequest) throws UserSearchException, AccessDeniedException
+    {
+        BulkOperationReport report = new BulkOperationReport("Bulk Provision Entitlement Requests");
+        List<String> userLogins = new ArrayList<String>();
+        List<String> descriptions = new ArrayList<String>();
+        
+        for(EntitlementRequestItem item : items)
+        {
+            userLogins.add(item.getUserLogin());
+            descriptions.add(item.toString());
+        }
+        
+        Map<String,String> usrKeys = this.userKeyResolver.resolveAll(userLogins);
+        List<RequestItem> chunk = new ArrayList<RequestItem>();
+        
+        for(int i = 0; i < items.size(); i++)
+        {
+            EntitlementRequestItem item = items.get(i);
+            String usrKey = usrKeys.get(item.getUserLogin());
+            
+            if(usrKey == null)
+            {
+                report.add(new BulkItemResult(String.valueOf(i + 1), descriptions.get(i), BulkItemResult.Status.FAILED, 0, 0L, "No such user"));
+                continue;
+            }
+            
+            chunk.add(new RequestItem(i, usrKey, this.buildProvisionEntitlementEntity(item.getEntitlementName(), item.getEntitlementKey())));
+            
+            // Submit once the request is full
+            if(chunk.size() >= maxEntitiesPerRequest)
+            {
+                this.submitRequest(chunk, descriptions, report);
+                chunk = new ArrayList<RequestItem>();
+            }
+        }
+        
+        if(!chunk.isEmpty())
+        {
+            this.submitRequest(chunk, descriptions, report);
+        }
+        
+        report.finish();
+        logger.log(ODLLevel.NOTIFICATION, "{0}", new Object[]{report});
+        return report;
+    }
+    
+    /**
+     * Submit a single request holding many items and record the outcome of each item.
+     * Every item of a submitted request shares the request id. If OIM rejects the request
+     * data (E.g. a validation failure), nothing was created, so the request is split in half
+     * and each half submitted again, down to single item requests; a bad item only fails
+     * itself and every failed item gets its own failure message. Any other failure (E.g. a
+     * timeout, a lost connection) fails every item of the request without resubmitting it,
+     * since OIM may already have created the request.
+     * @param chunk         Items of the request
+     * @param descriptions  Descriptions of all the items by position
+     * @param report        Report to record the outcome of each item
+     */
+    private void submitRequest(List<RequestItem> chunk, List<String> descriptions, BulkOperationReport report)
+    {
+        long start = System.currentTimeMillis();
+        
+        try
+        {
+            // Invoke request operation in OIM
+            OperationResult result = oimService.doOperation(this.buildRequestData(chunk), OIMService.Intent.REQUEST);
+            long elapsed = System.currentTimeMillis() - start;
+            logger.log(ODLLevel.NOTIFICATION, "Submitted request {0} with {1} items", new Object[]{result.getRequestID(), chunk.size()});
+            
+            for(RequestItem item : chunk)
+            {
+                report.add(new BulkItemResult(String.valueOf(item.index + 1), descriptions.get(item.index), BulkItemResult.Status.SUCCEEDED, 1, elapsed, "Request ID: " + result.getRequestID()));
+            }
+        }
+        
+        catch(Exception e)
+        {
+            if(chunk.size() == 1 || !isRequestDataRejected(e))
+            {
+                logger.log(ODLLevel.WARNING, "Failed to submit request with " + chunk.size() + " items", e);
+                long elapsed = System.currentTimeMillis() - start;
+                
+                for(RequestItem item : chunk)
+                {
+                    report.add(new BulkItemResult(String.valueOf(item.index + 1), descriptions.get(item.index), BulkItemResult.Status.FAILED, 1, elapsed, e.getMessage()));
+                }
+                
+                return;
+            }
+            
+            // Find the failing items by submitting each half on its own
+            logger.log(ODLLevel.WARNING, "Failed to submit request with {0} items; splitting it: {1}", new Object[]{chunk.size(), e.getMessage()});
+            int half = chunk.size() / 2;
+            this.submitRequest(new ArrayList<RequestItem>(chunk.subList(0, half)), descriptions, report);
+            this.submitRequest(new ArrayList<RequestItem>(chunk.subList(half, chunk.size())), descriptions, report);
+        }
+    }
+    
+    /**
+     * Determine if OIM rejected the request data before creating the request
+     * @param e Failure of the request submission
+     * @return true if the failure or one of its causes is a validation failure
+     */
+    private static boolean isRequestDataRejected(Throwable e)
+    {
+        for(Throwable cause = e; cause != null; cause = cause.getCause())
+        {
+            if(cause instanceof InvalidRequestDataException || cause instanceof ValidationFailedException)
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Build the request data for a chunk of items. Items with a beneficiary are grouped
+     * into one beneficiary per user; the other items are target entities.
+     * @param chunk Items of the request
+     * @return Request Data
+     */
+    private RequestData buildRequestData(List<RequestItem> chunk)
+    {
+        RequestData reqData = new RequestData();
+        List<RequestEntity> entities = new ArrayList<RequestEntity>();
+        Map<String,Beneficiary> beneficiaries = new LinkedHashMap<String,Beneficiary>(); // usr_key to beneficiary of the request
+        
+        for(RequestItem item : chunk)
+        {
+            if(item.beneficiaryKey == null)
+            {
+                entities.add((RequestEntity) item.entity);
+                continue;
+            }
+            
+            // Setup beneficiary once per user in the request
+            Beneficiary beneficiary = beneficiaries.get(item.beneficiaryKey);
+            
+            if(beneficiary == null)
+            {
+                beneficiary = new Beneficiary();
+                beneficiary.setBeneficiaryKey(item.beneficiaryKey);
+                beneficiary.setBeneficiaryType(Beneficiary.USER_BENEFICIARY);
+                beneficiary.setTargetEntities(new ArrayList<RequestBeneficiaryEntity>());
+                beneficiaries.put(item.beneficiaryKey, beneficiary);
+            }
+            
+            beneficiary.getTargetEntities().add((RequestBeneficiaryEntity) item.entity);
+        }
+        
+        if(!entities.isEmpty())
+        {
+            reqData.setTargetEntities(entities);
+        }
+        
+        if(!beneficiaries.isEmpty())
+        {
+            reqData.setBeneficiaries(new ArrayList<Beneficiary>(beneficiaries.values()));
+        }
+        
+        return reqData;
+    }
+    
+    /**
+     * Setup a request entity to disable a user
+     * @param usrKey    OIM User Key
+     * @return Request Entity
+     */
+    private RequestEntity buildDisableUserEntity(String usrKey)
+    {
+        RequestEntity reqEntity = new RequestEntity();
+        reqEntity.setRequestEntityType(OIMType.User); // Specify entity type to User
+        reqEntity.setEntityKey(usrKey); // Specify target user's usr_key
+        reqEntity.setOperation(RequestConstants.MODEL_DISABLE_OPERATION); // Specify DISABLE operation to perform
+        return reqEntity;
+    }
+    
+    /**
+     * Setup a request entity to modify the User Profile of a user
+     * @param usrKey    OIM User Key
+     * @param modAttrs  User Profile attributes to modify
+     * @return Request Entity
+     */
+    private RequestEntity buildModifyUserEntity(String usrKey, Map<String,String> modAttrs)
+    {
+        // Generate a list of request entity attribute to modify
+        List<RequestEntityAttribute> reqModAttrs = new ArrayList<RequestEntityAttribute>();
+        for(Map.Entry<String,String> entry : modAttrs.entrySet())
+        {
+            RequestEntityAttribute modAttr = new RequestEntityAttribute(entry.getKey(), entry.getValue(), RequestEntityAttribute.TYPE.String);
+            reqModAttrs.add(modAttr);
+        }
+        
+        RequestEntity reqEntity = new RequestEntity();
+        reqEntity.setRequestEntityType(OIMType.User);
+        reqEntity.setEntityKey(usrKey);
+        reqEntity.setOperation(RequestConstants.MODEL_MODIFY_OPERATION);
+        reqEntity.setEntityData(reqModAttrs);
+        return reqEntity;
+    }
+    
+    /**
+     * Setup a request entity to provision an entitlement to a beneficiary
+     * @param entitlementName   Entitlement Display Name
+     * @param entKey            Entitlement Key
+     * @return Request Beneficiary Entity
+     */
+    private RequestBeneficiaryEntity buildProvisionEntitlementEntity(String entitlementName, String entKey)
+    {
+        RequestBeneficiaryEntity reqBenefEntity = new RequestBeneficiaryEntity();
+        reqBenefEntity.setRequestEntityType(OIMType.Entitlement);
+        reqBenefEntity.setEntitySubType(entitlementName);
+        reqBenefEntity.setEntityKey(entKey);
+        reqBenefEntity.setOperation(RequestConstants.MODEL_PROVISION_ENTITLEMENT_OPERATION);
+        return reqBenefEntity;
+    }
+    
     /**
      * Get the OIM User's USR_KEY
      * @param   userLogin     OIM.User Login (USR_LOGIN)
@@ -170,12 +508,23 @@ public class GenerateRequestUtilities
      */
     private String getUserKeyByUserLogin(String userLogin) throws NoSuchUserException, UserLookupException
     {
-        boolean userLoginUsed = true;
-        HashSet<String> attrsToFetch = new HashSet<String>();
-        attrsToFetch.add(UserManagerConstants.AttributeName.USER_KEY.getId());
-        attrsToFetch.add(UserManagerConstants.AttributeName.USER_LOGIN.getId());
-        User user = usrMgrOps.getDetails(userLogin, attrsToFetch, userLoginUsed);
-        logger.log(ODLLevel.NOTIFICATION, "User Details: {0}", new Object[]{user});
-        return user.getEntityId();
+        return this.userKeyResolver.resolve(userLogin);
+    }
+    
+    /**
+     * An item of a bulk request: a target entity, or an entity requested for a beneficiary
+     */
+    private static class RequestItem
+    {
+        private final int index; // Position of the item in the input list
+        private final String beneficiaryKey; // usr_key of the beneficiary; null for a target entity
+        private final Object entity; // RequestEntity or RequestBeneficiaryEntity
+        
+        private RequestItem(int index, String beneficiaryKey, Object entity)
+        {
+            this.index = index;
+            this.beneficiaryKey = beneficiaryKey;
+            this.entity = entity;
+        }
     }
 }
@@ -0,0 +1,246 @@
+package com.blogspot.oraclestack.utilities;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import oracle.core.ojdl.logging.ODLLogger;
+
+/**
+ * Thin facade over ODLLogger for hot paths such as event handlers.
+ * Every method checks the level before building the parameter array, so a
+ * disabled message costs a single level check. Parameters which are expensive to
+ * turn into text can be wrapped with lazy() or arrayToString() so the text is only
+ * built when the message is written. Messages repeated for every entity of a bulk
+ * operation can go through a Sampler to be written at most once per interval.
+ * @author rayedchan
+ */
+public class GuardedLogger
+{
+    private final ODLLogger logger;
+
+    /**
+     * Constructor
+     * @param logger ODL logger to write to
+     */
+    public GuardedLogger(ODLLogger logger)
+    {
+        this.logger = logger;
+    }
+
+    /**
+     * Get a guarded logger by name
+     * @param name Logger name, usually the class name
+     * @return Guarded logger
+     */
+    public static GuardedLogger getLogger(String name)
+    {
+        return new GuardedLogger(ODLLogger.getODLLogger(name));
+    }
+
+    /**
+     * Get the underlying ODL logger
+     * @return ODL logger
+     */
+    public ODLLogger getODLLogger()
+    {
+        return logger;
+    }
+
+    /**
+     * Check if a message at the level would be written
+     * @param level Log level
+     * @return true if enabled
+     */
+    public boolean isLoggable(Level level)
+    {
+        return logger.isLoggable(level);
+    }
+
+    public void log(Level level, String msg)
+    {
+        if(logger.isLoggable(level))
+        {
+            logger.log(level, msg);
+        }
+    }
+
+    public void log(Level level, String msg, Object param0)
+    {
+        if(logger.isLoggable(level))
+        {
+            logger.log(level, msg, new Object[]{param0});
+        }
+    }
+
+    public void log(Level level, String msg, Object param0, Object param1)
+    {
+        if(logger.isLoggable(level))
+        {
+            logger.log(level, msg, new Object[]{param0, param1});
+        }
+    }
+
+    public void log(Level level, String msg, Object param0, Object param1, Object param2)
+    {
+        if(logger.isLoggable(level))
+        {
+            logger.log(level, msg, new Object[]{param0, param1, param2});
+        }
+    }
+
+    public void log(Level level, String msg, Object param0, Object param1, Object param2, Object param3)
+    {
+        if(logger.isLoggable(level))
+        {
+            logger.log(level, msg, new Object[]{param0, param1, param2, param3});
+        }
+    }
+
+    public void log(Level level, String msg, Object[] params)
+    {
+        if(logger.isLoggable(level))
+        {
+            logger.log(level, msg, params);
+        }
+    }
+
+    public void log(Level level, String msg, Throwable thrown)
+    {
+        if(logger.isLoggable(level))
+        {
+            logger.log(level, msg, thrown);
+        }
+    }
+
+    /**
+     * Write a message only if the sampler allows it. The number of messages
+     * dropped since the last written one is appended to the message.
+     * @param sampler   Sampler of the call site
+     * @param level     Log level
+     * @param msg       Message with {0} style placeholders
+     * @param param0    Message parameter
+     */
+    public void logSampled(Sampler sampler, Level level, String msg, Object param0)
+    {
+        if(logger.isLoggable(level))
+        {
+            long suppressed = sampler.acquire();
+
+            if(suppressed >= 0)
+            {
+                logger.log(level, sampledMessage(msg, suppressed), new Object[]{param0});
+            }
+        }
+    }
+
+    public void logSampled(Sampler sampler, Level level, String msg, Object param0, Object param1)
+    {
+        if(logger.isLoggable(level))
+        {
+            long suppressed = sampler.acquire();
+
+            if(suppressed >= 0)
+            {
+                logger.log(level, sampledMessage(msg, suppressed), new Object[]{param0, param1});
+            }
+        }
+    }
+
+    public void logSampled(Sampler sampler, Level level, String msg, Object[] params)
+    {
+        if(logger.isLoggable(level))
+        {
+            long suppressed = sampler.acquire();
+
+            if(suppressed >= 0)
+            {
+                logger.log(level, sampledMessage(msg, suppressed), params);
+            }
+        }
+    }
+
+    private static String sampledMessage(String msg, long suppressed)
+    {
+        return suppressed == 0 ? msg : msg + " [" + suppressed + " similar messages suppressed]";
+    }
+
+    /**
+     * Wrap a value whose text is computed only when the message is written
+     * @param supplier  Computes the value to write
+     * @return Object whose toString() calls the supplier
+     */
+    public static Object lazy(final Supplier supplier)
+    {
+        return new Object()
+        {
+            @Override
+            public String toString()
+            {
+                return String.valueOf(supplier.get());
+            }
+        };
+    }
+
+    /**
+     * Wrap an array whose text is computed only when the message is written
+     * @param array Array to write
+     * @return Object whose toString() calls Arrays.toString
+     */
+    public static Object arrayToString(final Object[] array)
+    {
+        return new Object()
+        {
+            @Override
+            public String toString()
+            {
+                return Arrays.toString(array);
+            }
+        };
+    }
+
+    /**
+     * Computes a value to log on demand
+     */
+    public interface Supplier
+    {
+        Object get();
+    }
+
+    /**
+     * Limits a call site to one message per interval. Thread safe.
+     */
+    public static class Sampler
+    {
+        private final long intervalMillis;
+        private long lastLogged = -1L;
+        private long suppressed = 0L;
+
+        /**
+         * Constructor
+         * @param intervalMillis Minimum time between two written messages
+         */
+        public Sampler(long intervalMillis)
+        {
+            this.intervalMillis = intervalMillis;
+        }
+
+        /**
+         * Try to write a message now
+         * @return Number of messages suppressed since the last written one, or -1 if this message must be suppressed
+         */
+        synchronized long acquire()
+        {
+            long now = System.currentTimeMillis();
+
+            if(lastLogged < 0 || now - lastLogged >= intervalMillis)
+            {
+                long count = suppressed;
+                lastLogged = now;
+                suppressed = 0L;
+                return count;
+            }
+
+            suppressed++;
+            return -1L;
+        }
+    }
+}
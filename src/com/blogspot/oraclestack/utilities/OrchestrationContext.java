@@ -0,0 +1,347 @@
+package com.blogspot.oraclestack.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+import oracle.iam.identity.exception.NoSuchUserException;
+import oracle.iam.identity.exception.UserLookupException;
+import oracle.iam.identity.usermgmt.api.UserManager;
+import oracle.iam.identity.usermgmt.vo.User;
+import oracle.iam.platform.authz.exception.AccessDeniedException;
+
+/**
+ * Data shared by the event handlers of one orchestration, keyed by the orchestration
+ * Process Id. A user (or any other snapshot such as an account) is fetched at most once
+ * per orchestration and reused by the later handlers of the same chain, including every
+ * item of a bulk orchestration. Snapshots hold the state when they were fetched; use
+ * the NEW_USER_STATE inter event data for the state saved by the orchestration itself.
+ *
+ * OIM does not tell event handlers when an orchestration completes, so the last
+ * handler of the chain reading the context calls discard() once its event completes
+ * (a handler which is the only reader discards it itself). A context missed by discard() is removed by a
+ * background sweep once it has not been used for the time to live (system property
+ * oimutilities.orchestrationContext.ttlMillis, default 5 minutes), and the least
+ * recently used contexts are evicted once more than the maximum number are live
+ * (system property oimutilities.orchestrationContext.maxContexts, default 1000).
+ * Thread safe.
+ * @author rayedchan
+ */
+public class OrchestrationContext
+{
+    // Logger
+    private static final ODLLogger LOGGER = ODLLogger.getODLLogger(OrchestrationContext.class.getName());
+
+    // Time a context is kept after its last use
+    public static final String TTL_PROPERTY = "oimutilities.orchestrationContext.ttlMillis";
+    public static final long DEFAULT_TTL_MILLIS = 5L * 60L * 1000L;
+    private static final long TTL_MILLIS = Long.getLong(TTL_PROPERTY, DEFAULT_TTL_MILLIS);
+
+    // Number of live contexts before the least recently used are evicted
+    public static final String MAX_CONTEXTS_PROPERTY = "oimutilities.orchestrationContext.maxContexts";
+    public static final int DEFAULT_MAX_CONTEXTS = 1000;
+    private static final int MAX_CONTEXTS = Integer.getInteger(MAX_CONTEXTS_PROPERTY, DEFAULT_MAX_CONTEXTS);
+
+    // Contexts by Process Id
+    private static final ConcurrentMap<Long,OrchestrationContext> CONTEXTS = new ConcurrentHashMap<Long,OrchestrationContext>();
+    private static final AtomicLong LAST_SWEEP = new AtomicLong(System.currentTimeMillis());
+
+    // Sweeps the expired contexts every half time to live
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "OrchestrationContextSweeper");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static
+    {
+        long period = Math.max(1000L, TTL_MILLIS / 2);
+        SWEEPER.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    sweep();
+                }
+
+                catch(RuntimeException e)
+                {
+                    LOGGER.log(ODLLevel.WARNING, "Failed to sweep orchestration contexts", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // Metrics
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private final long processId;
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    // Snapshots; guarded by this
+    private final Map<String,UserSnapshot> users = new HashMap<String,UserSnapshot>(); // Key = USR_KEY
+    private final Map<String,Object> values = new HashMap<String,Object>();
+
+    private OrchestrationContext(long processId)
+    {
+        this.processId = processId;
+    }
+
+    /**
+     * Get the context of an orchestration; created on first use
+     * @param processId Orchestration Process Id
+     * @return Context shared by the handlers of the orchestration
+     */
+    public static OrchestrationContext forProcess(long processId)
+    {
+        sweep();
+        OrchestrationContext context = CONTEXTS.get(processId);
+
+        if(context == null)
+        {
+            if(CONTEXTS.size() >= MAX_CONTEXTS)
+            {
+                evictLeastRecentlyUsed();
+            }
+
+            context = new OrchestrationContext(processId);
+            OrchestrationContext existing = CONTEXTS.putIfAbsent(processId, context);
+            context = existing != null ? existing : context;
+        }
+
+        context.lastAccess = System.currentTimeMillis();
+        return context;
+    }
+
+    /**
+     * Discard the context of a completed orchestration
+     * @param processId Orchestration Process Id
+     */
+    public static void discard(long processId)
+    {
+        CONTEXTS.remove(processId);
+    }
+
+    /**
+     * Get a user snapshot, fetching it only if no handler of this orchestration
+     * fetched the user with the requested attributes yet. A fetch asks for the
+     * attributes requested so far plus the new ones so the snapshot keeps growing.
+     * @param usrMgr    OIM User Manager Service
+     * @param userKey   USR_KEY of the user
+     * @param attrs     Attributes needed; null for all attributes
+     * @return User snapshot
+     * @throws NoSuchUserException
+     * @throws UserLookupException
+     * @throws AccessDeniedException
+     */
+    public User getUser(UserManager usrMgr, String userKey, Set<String> attrs) throws NoSuchUserException, UserLookupException, AccessDeniedException
+    {
+        Set<String> toFetch;
+
+        synchronized(this)
+        {
+            UserSnapshot snapshot = users.get(userKey);
+
+            if(snapshot != null && (snapshot.attrs == null || (attrs != null && snapshot.attrs.containsAll(attrs))))
+            {
+                HITS.incrementAndGet();
+                return snapshot.user;
+            }
+
+            if(attrs == null || snapshot == null)
+            {
+                toFetch = attrs == null ? null : new HashSet<String>(attrs);
+            }
+
+            else
+            {
+                toFetch = new HashSet<String>(snapshot.attrs);
+                toFetch.addAll(attrs);
+            }
+        }
+
+        // Fetched outside the lock; two handlers racing on the same user may both fetch
+        MISSES.incrementAndGet();
+        User user = usrMgr.getDetails(userKey, toFetch, false);
+        LOGGER.log(ODLLevel.TRACE, "Process {0}: fetched user {1} with {2}", new Object[]{processId, userKey, toFetch});
+
+        synchronized(this)
+        {
+            users.put(userKey, new UserSnapshot(user, toFetch));
+        }
+
+        return user;
+    }
+
+    /**
+     * Add a user snapshot already held by a handler (E.g. NEW_USER_STATE)
+     * @param userKey   USR_KEY of the user
+     * @param user      User with all attributes
+     */
+    public synchronized void putUser(String userKey, User user)
+    {
+        users.put(userKey, new UserSnapshot(user, null));
+    }
+
+    /**
+     * Drop a user snapshot after the user was changed
+     * @param userKey   USR_KEY of the user
+     */
+    public synchronized void invalidateUser(String userKey)
+    {
+        users.remove(userKey);
+    }
+
+    /**
+     * Get any other snapshot, loading it on first use (E.g. an account of the user).
+     * The loader runs under the context lock so a value is loaded once.
+     * @param <T>       Type of the value
+     * @param key       Name of the value unique within the orchestration (E.g. "ACCOUNT|" + account id)
+     * @param loader    Loads the value if not present
+     * @return Value
+     * @throws Exception failure of the loader
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T get(String key, Callable<T> loader) throws Exception
+    {
+        if(values.containsKey(key))
+        {
+            HITS.incrementAndGet();
+            return (T) values.get(key);
+        }
+
+        MISSES.incrementAndGet();
+        T value = loader.call();
+        values.put(key, value);
+        return value;
+    }
+
+    public long getProcessId()
+    {
+        return processId;
+    }
+
+    /**
+     * Get the number of snapshots served without a fetch since startup
+     * @return Hit count
+     */
+    public static long getHitCount()
+    {
+        return HITS.get();
+    }
+
+    /**
+     * Get the number of snapshots fetched since startup
+     * @return Miss count
+     */
+    public static long getMissCount()
+    {
+        return MISSES.get();
+    }
+
+    /**
+     * Get the number of live contexts
+     * @return Number of orchestrations with a context
+     */
+    public static int getContextCount()
+    {
+        return CONTEXTS.size();
+    }
+
+    /**
+     * Remove the contexts unused for the time to live; runs at most every half time to live
+     */
+    private static void sweep()
+    {
+        long now = System.currentTimeMillis();
+        long last = LAST_SWEEP.get();
+
+        if(now - last < TTL_MILLIS / 2 || !LAST_SWEEP.compareAndSet(last, now))
+        {
+            return;
+        }
+
+        int removed = 0;
+
+        for(Iterator<OrchestrationContext> it = CONTEXTS.values().iterator(); it.hasNext();)
+        {
+            if(now - it.next().lastAccess > TTL_MILLIS)
+            {
+                it.remove();
+                removed++;
+            }
+        }
+
+        LOGGER.log(ODLLevel.TRACE, "Discarded {0} orchestration contexts; {1} left", new Object[]{removed, CONTEXTS.size()});
+    }
+
+    /**
+     * Remove the least recently used tenth of the live contexts to make room for new ones
+     */
+    private static void evictLeastRecentlyUsed()
+    {
+        // Snapshot the last access times so the order does not change while sorting
+        List<long[]> accesses = new ArrayList<long[]>(CONTEXTS.size());
+
+        for(OrchestrationContext context : CONTEXTS.values())
+        {
+            accesses.add(new long[]{context.lastAccess, context.processId});
+        }
+
+        Collections.sort(accesses, new Comparator<long[]>()
+        {
+            @Override
+            public int compare(long[] a, long[] b)
+            {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+
+        int evicted = Math.min(accesses.size(), Math.max(1, accesses.size() / 10));
+
+        for(int i = 0; i < evicted; i++)
+        {
+            CONTEXTS.remove(accesses.get(i)[1]);
+        }
+
+        LOGGER.log(ODLLevel.NOTIFICATION, "Evicted {0} orchestration contexts over the maximum of {1}", new Object[]{evicted, MAX_CONTEXTS});
+    }
+
+    /**
+     * User fetched with a set of attributes
+     */
+    private static class UserSnapshot
+    {
+        private final User user;
+        private final Set<String> attrs; // null if fetched with all attributes
+
+        private UserSnapshot(User user, Set<String> attrs)
+        {
+            this.user = user;
+            this.attrs = attrs;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.blogspot.oraclestack.utilities;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+
+/**
+ * Walks the results of an OIM API search one page at a time using the
+ * STARTROW and ENDROW search configuration parameters. Only a single page
+ * is held in memory, so every entity can be visited with constant memory.
+ * Each call to iterator() starts a new walk from the first row.
+ * @author rayedchan
+ * @param <T> Type of entity returned by the search (E.g. Role, User, Entitlement)
+ */
+public abstract class PagedSearchResults<T> implements Iterable<T>
+{
+    // Logger
+    private static final ODLLogger LOGGER = ODLLogger.getODLLogger(PagedSearchResults.class.getName());
+
+    // Search configuration parameter names understood by the OIM search APIs
+    public static final String START_ROW = "STARTROW";
+    public static final String END_ROW = "ENDROW";
+    public static final String SORTED_BY = "SORTEDBY";
+
+    // Default number of entities fetched per API call
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    private final int pageSize;
+    private final String sortedBy;
+
+    /**
+     * Constructor
+     * @param pageSize  Number of entities fetched per API call
+     * @param sortedBy  Attribute to order the results by so pages do not overlap; null to use the API default
+     */
+    public PagedSearchResults(int pageSize, String sortedBy)
+    {
+        this.pageSize = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+        this.sortedBy = sortedBy;
+    }
+
+    /**
+     * Call the OIM API to fetch a single page.
+     * @param configParams  Search configuration containing the row range of the page
+     * @return Entities of the page; empty or null when there are no more rows
+     * @throws Exception
+     */
+    protected abstract List<T> fetchPage(HashMap<String,Object> configParams) throws Exception;
+
+    /**
+     * Build the search configuration for a page. Rows are 1-based and inclusive.
+     * @param startRow  First row of the page
+     * @return Search configuration parameters
+     */
+    private HashMap<String,Object> pageConfig(int startRow)
+    {
+        HashMap<String,Object> configParams = new HashMap<String,Object>();
+        configParams.put(START_ROW, startRow);
+        configParams.put(END_ROW, startRow + pageSize - 1);
+
+        if(sortedBy != null)
+        {
+            configParams.put(SORTED_BY, sortedBy);
+        }
+
+        return configParams;
+    }
+
+    @Override
+    public Iterator<T> iterator()
+    {
+        return new Iterator<T>()
+        {
+            private List<T> page = null;
+            private int indexInPage = 0;
+            private int nextStartRow = 1;
+            private boolean lastPage = false;
+
+            @Override
+            public boolean hasNext()
+            {
+                // Current page still has entities
+                if(page != null && indexInPage < page.size())
+                {
+                    return true;
+                }
+
+                if(lastPage)
+                {
+                    return false;
+                }
+
+                // Fetch the next page
+                try
+                {
+                    page = fetchPage(pageConfig(nextStartRow));
+                }
+
+                catch(Exception e)
+                {
+                    throw new IllegalStateException("Failed to fetch page starting at row " + nextStartRow, e);
+                }
+
+                indexInPage = 0;
+                int fetched = page == null ? 0 : page.size();
+                LOGGER.log(ODLLevel.TRACE, "Fetched {0} entities starting at row {1}", new Object[]{fetched, nextStartRow});
+                nextStartRow += pageSize;
+
+                // A short page means the end of the results has been reached
+                lastPage = fetched < pageSize;
+                return fetched > 0;
+            }
+
+            @Override
+            public T next()
+            {
+                if(!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+
+                return page.get(indexInPage++);
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException("Search results are read only.");
+            }
+        };
+    }
+}
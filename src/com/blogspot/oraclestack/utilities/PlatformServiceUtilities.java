@@ -1,5 +1,6 @@
 package com.blogspot.oraclestack.utilities;
 
+import com.blogspot.oraclestack.services.OracleIdentityManagerClient;
 import java.util.HashSet;
 import java.util.Set;
 import oracle.core.ojdl.logging.ODLLevel;
@@ -33,6 +34,16 @@ public class PlatformServiceUtilities
         this.platformUtilsServiceOps = oimClient.getService(PlatformUtilsService.class);
     }
     
+    /**
+     * Constructor
+     * Precondition: A system administrator is logged in with the session
+     * @param oimSession Session whose API services are reused
+     */
+    public PlatformServiceUtilities(OracleIdentityManagerClient oimSession)
+    {
+        this.platformUtilsServiceOps = oimSession.getService(PlatformUtilsService.class);
+    }
+    
     /**
     * Purges the entire OIM cache. Same functionality as the "PurgeCache.sh" script
     * which is located in "$MW_HOME/Oracle_IDM1/server/bin/" directory.
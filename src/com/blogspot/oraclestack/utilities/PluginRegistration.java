@@ -1,5 +1,6 @@
 package com.blogspot.oraclestack.utilities;
 
+import com.blogspot.oraclestack.services.OracleIdentityManagerClient;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -26,6 +27,12 @@ public class PluginRegistration
         this.platUtilOps = oimClient.getService(PlatformUtilsService.class);
     }
     
+    public PluginRegistration(OracleIdentityManagerClient oimSession)
+    {
+        this.platformService = oimSession.getService(PlatformService.class);
+        this.platUtilOps = oimSession.getService(PlatformUtilsService.class);
+    }
+    
     /**
      * Registers an plug-in to OIM
      * @param pathToPluginZipFile       Absolute Path to Plug-in zip file
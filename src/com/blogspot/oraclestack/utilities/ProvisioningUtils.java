@@ -1,17 +1,32 @@
 package com.blogspot.oraclestack.utilities;
 
+import com.blogspot.oraclestack.objects.AccountProvisioningItem;
+import com.blogspot.oraclestack.objects.BulkItemResult;
+import com.blogspot.oraclestack.objects.BulkOperationReport;
+import com.blogspot.oraclestack.objects.BulkTask;
+import com.blogspot.oraclestack.services.OracleIdentityManagerClient;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import oracle.core.ojdl.logging.ODLLevel;
 import oracle.core.ojdl.logging.ODLLogger;
 import oracle.iam.identity.exception.NoSuchUserException;
 import oracle.iam.identity.exception.UserLookupException;
+import oracle.iam.identity.exception.UserSearchException;
 import oracle.iam.identity.usermgmt.api.UserManager;
-import oracle.iam.identity.usermgmt.vo.User;
 import oracle.iam.platform.OIMClient;
 import oracle.iam.platform.authz.exception.AccessDeniedException;
+import oracle.iam.platform.entitymgr.vo.SearchCriteria;
 import oracle.iam.provisioning.api.ApplicationInstanceService;
+import oracle.iam.provisioning.api.ProvisioningConstants;
 import oracle.iam.provisioning.api.ProvisioningService;
 import oracle.iam.provisioning.exception.ApplicationInstanceNotFoundException;
 import oracle.iam.provisioning.exception.GenericAppInstanceServiceException;
@@ -36,15 +51,54 @@ public class ProvisioningUtils
     private final ApplicationInstanceService appInstService;
     private final ProvisioningService provService;
     
+    // User Login to USR_KEY resolution
+    private final UserKeyResolver userKeyResolver;
+    
+    // Application instances by name (APP_INSTANCE.APP_INSTANCE_NAME)
+    private final ConcurrentHashMap<String,ApplicationInstance> appInstCache = new ConcurrentHashMap<String,ApplicationInstance>();
+    
     /**
      * Constructor
      * @param oimClient OIMClient with administrator logged in
      */
     public ProvisioningUtils(OIMClient oimClient)
+    {
+        this(oimClient, new UserKeyResolver(oimClient.getService(UserManager.class)));
+    }
+    
+    /**
+     * Constructor
+     * @param oimClient         OIMClient with administrator logged in
+     * @param userKeyResolver   User Login resolver; can be shared with other utilities
+     */
+    public ProvisioningUtils(OIMClient oimClient, UserKeyResolver userKeyResolver)
     {
         this.usrMgr = oimClient.getService(UserManager.class);
         this.appInstService = oimClient.getService(ApplicationInstanceService.class);
         this.provService = oimClient.getService(ProvisioningService.class);
+        this.userKeyResolver = userKeyResolver;
+    }
+    
+    /**
+     * Constructor
+     * @param oimSession Session with administrator logged in; its API services are reused
+     */
+    public ProvisioningUtils(OracleIdentityManagerClient oimSession)
+    {
+        this(oimSession, new UserKeyResolver(oimSession.getService(UserManager.class)));
+    }
+    
+    /**
+     * Constructor
+     * @param oimSession        Session with administrator logged in; its API services are reused
+     * @param userKeyResolver   User Login resolver; can be shared with other utilities
+     */
+    public ProvisioningUtils(OracleIdentityManagerClient oimSession, UserKeyResolver userKeyResolver)
+    {
+        this.usrMgr = oimSession.getService(UserManager.class);
+        this.appInstService = oimSession.getService(ApplicationInstanceService.class);
+        this.provService = oimSession.getService(ProvisioningService.class);
+        this.userKeyResolver = userKeyResolver;
     }
     
     /**
@@ -65,20 +119,249 @@ public class ProvisioningUtils
      */
     public Long provisionResourceAccountToUser(String userLogin, String appInstName, Map<String,Object> parentData, Map<String, ArrayList<ChildTableRecord>> childData) throws AccessDeniedException, NoSuchUserException, UserLookupException, ApplicationInstanceNotFoundException, GenericAppInstanceServiceException, UserNotFoundException, oracle.iam.platform.authopss.exception.AccessDeniedException, GenericProvisioningException
     {
-        // Get OIM User searching by User Login (USR.USR_LOGIN)
-        boolean isUserLogin = true; // True for searching by User Login; False for searching by USR_KEY 
-        Set<String> retAttrs = null; // Return attributes; Null implies returning every attributes on user 
-        User user = usrMgr.getDetails(userLogin, retAttrs, isUserLogin); // Get OIM User
-        logger.log(ODLLevel.NOTIFICATION, "User: {0}", new Object[]{user});
+        // Get usr_key of OIM User searching by User Login (USR.USR_LOGIN)
+        String usrKey = userKeyResolver.resolve(userLogin);
+        logger.log(ODLLevel.NOTIFICATION, "User Key: {0}", new Object[]{usrKey});
 
         // Get application instance by name (APP_INSTANCE.APP_INSTANCE_NAME)
-        ApplicationInstance appInst = appInstService.findApplicationInstanceByName(appInstName);
+        ApplicationInstance appInst = this.getApplicationInstance(appInstName);
         logger.log(ODLLevel.NOTIFICATION, "Application Instance: {0}", new Object[]{appInst});
 
+        return this.provisionAccount(usrKey, appInst, parentData, childData);
+    }
+    
+    /**
+     * Provision many resource accounts. User keys are resolved with a single search and
+     * application instances are fetched once per name. The provision calls run on a bounded
+     * thread pool; a failed account does not stop the others. Accounts of the same user and
+     * application instance are provisioned one after the other.
+     * Provisioning is not idempotent: a call which failed (E.g. timed out) may have been
+     * committed by OIM. Before a retry, the user's accounts of the application instance are
+     * searched, and an account whose parent form holds the item's parent data (and which was
+     * not already reported for another item) is taken as the outcome of the earlier attempt
+     * instead of provisioning a second account. An item without parent data is provisioned again.
+     * @param items         Accounts to provision
+     * @param numThreads    Number of provision calls to run in parallel
+     * @param maxRetries    Number of retries for a provision call on a transient failure
+     * @return Report with the outcome of each account and the throughput; message contains the Account Id (OIU_KEY); item id is the 1-based position in the list
+     * @throws AccessDeniedException
+     * @throws UserSearchException
+     * @throws InterruptedException 
+     */
+    public BulkOperationReport bulkProvisionResourceAccounts(final List<AccountProvisioningItem> items, int numThreads, final int maxRetries) throws AccessDeniedException, UserSearchException, InterruptedException
+    {
+        final BulkOperationReport report = new BulkOperationReport("Bulk Provision Accounts");
+        
+        // Resolve every user with a single search
+        List<String> userLogins = new ArrayList<String>();
+        
+        for(AccountProvisioningItem item : items)
+        {
+            userLogins.add(item.getUserLogin());
+        }
+        
+        Map<String,String> usrKeys = userKeyResolver.resolveAll(userLogins);
+        logger.log(ODLLevel.NOTIFICATION, "Resolved {0} of {1} users", new Object[]{usrKeys.size(), new HashSet<String>(userLogins).size()});
+        
+        // Group the items per user and application instance
+        Map<String,List<Integer>> groups = new LinkedHashMap<String,List<Integer>>();
+        
+        for(int i = 0; i < items.size(); i++)
+        {
+            AccountProvisioningItem item = items.get(i);
+            String usrKey = usrKeys.get(item.getUserLogin());
+            
+            if(usrKey == null)
+            {
+                report.add(new BulkItemResult(String.valueOf(i + 1), item.toString(), BulkItemResult.Status.FAILED, 0, 0L, "No such user"));
+                continue;
+            }
+            
+            String groupKey = usrKey + "|" + item.getAppInstName();
+            List<Integer> group = groups.get(groupKey);
+            
+            if(group == null)
+            {
+                group = new ArrayList<Integer>();
+                groups.put(groupKey, group);
+            }
+            
+            group.add(i);
+        }
+        
+        ExecutorService threadExecutor = Executors.newFixedThreadPool(numThreads);
+        
+        try
+        {
+            for(final List<Integer> group : groups.values())
+            {
+                final String usrKey = usrKeys.get(items.get(group.get(0)).getUserLogin());
+                threadExecutor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        provisionAccountsToUser(usrKey, items, group, maxRetries, report);
+                    }
+                });
+            }
+        }
+        
+        finally
+        {
+            threadExecutor.shutdown();
+            threadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        
+        report.finish();
+        logger.log(ODLLevel.NOTIFICATION, "{0}", new Object[]{report});
+        return report;
+    }
+    
+    /**
+     * Get an application instance by name. Application instances are cached by name
+     * along with their account form, so each name is fetched from OIM only once.
+     * @param appInstName   Name of application instance (APP_INSTANCE.APP_INSTANCE_NAME)
+     * @return Application Instance
+     * @throws ApplicationInstanceNotFoundException
+     * @throws GenericAppInstanceServiceException 
+     */
+    private ApplicationInstance getApplicationInstance(String appInstName) throws ApplicationInstanceNotFoundException, GenericAppInstanceServiceException
+    {
+        ApplicationInstance appInst = appInstCache.get(appInstName);
+        
+        if(appInst == null)
+        {
+            appInst = appInstService.findApplicationInstanceByName(appInstName);
+            appInstCache.putIfAbsent(appInstName, appInst);
+        }
+        
+        return appInst;
+    }
+    
+    /**
+     * Provision a group of accounts of the same user and application instance, one after the other
+     * @param usrKey        OIM User Key (USR.USR_KEY)
+     * @param items         All the items of the bulk operation
+     * @param group         Positions of the items belonging to the user and application instance
+     * @param maxRetries    Number of retries for a provision call on a transient failure
+     * @param report        Report to record the outcome of each item
+     */
+    private void provisionAccountsToUser(final String usrKey, List<AccountProvisioningItem> items, List<Integer> group, int maxRetries, BulkOperationReport report)
+    {
+        // Accounts reported for the items of the group
+        final Set<String> claimed = new HashSet<String>();
+        
+        for(Integer index : group)
+        {
+            final AccountProvisioningItem item = items.get(index);
+            
+            new BulkTask(String.valueOf(index + 1), item.toString(), maxRetries, report)
+            {
+                // true once a provision call was made for the item
+                private boolean attempted = false;
+
+                @Override
+                protected String execute() throws Exception
+                {
+                    ApplicationInstance appInst = getApplicationInstance(item.getAppInstName());
+
+                    if(attempted)
+                    {
+                        // An earlier attempt may have been committed even though it failed
+                        String accountId = findAccount(usrKey, appInst, item.getParentData(), claimed);
+
+                        if(accountId != null)
+                        {
+                            logger.log(ODLLevel.WARNING, "Account {0} was created by a failed attempt for {1}; not provisioning again", new Object[]{accountId, item});
+                            claimed.add(accountId);
+                            return accountId;
+                        }
+                    }
+
+                    attempted = true;
+                    String accountId = String.valueOf(provisionAccount(usrKey, appInst, item.getParentData(), item.getChildData()));
+                    claimed.add(accountId);
+                    return accountId;
+                }
+
+                @Override
+                protected boolean isRetryable(Exception e)
+                {
+                    return !(e instanceof ApplicationInstanceNotFoundException || e instanceof UserNotFoundException || e instanceof AccessDeniedException || e instanceof oracle.iam.platform.authopss.exception.AccessDeniedException);
+                }
+            }.call();
+        }
+    }
+    
+    /**
+     * Find an account of a user whose parent form holds the given data
+     * @param usrKey        OIM User Key (USR.USR_KEY)
+     * @param appInst       Application instance of the account
+     * @param parentData    Data the parent process form must hold
+     * @param excluded      Account Ids (OIU_KEY) not to return
+     * @return Account Id (OIU_KEY) or null if no account matches or there is no parent data
+     * @throws UserNotFoundException
+     * @throws GenericProvisioningException 
+     */
+    private String findAccount(String usrKey, ApplicationInstance appInst, Map<String,Object> parentData, Set<String> excluded) throws UserNotFoundException, GenericProvisioningException
+    {
+        if(parentData == null || parentData.isEmpty())
+        {
+            return null;
+        }
+        
+        boolean populateAcctData = true;
+        SearchCriteria criteria = new SearchCriteria(ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId(), appInst.getDisplayName(), SearchCriteria.Operator.EQUAL);
+        List<Account> accounts = provService.getAccountsProvisionedToUser(usrKey, criteria, new HashMap<String,Object>(), populateAcctData);
+        
+        for(Account account : accounts)
+        {
+            if(excluded.contains(account.getAccountID()) || account.getAccountData() == null || account.getAccountData().getData() == null)
+            {
+                continue;
+            }
+            
+            Map<String,Object> formData = account.getAccountData().getData();
+            boolean matches = true;
+            
+            for(Map.Entry<String,Object> entry : parentData.entrySet())
+            {
+                Object actual = formData.get(entry.getKey());
+                
+                if(entry.getValue() == null ? actual != null : actual == null || !String.valueOf(entry.getValue()).equals(String.valueOf(actual)))
+                {
+                    matches = false;
+                    break;
+                }
+            }
+            
+            if(matches)
+            {
+                return account.getAccountID();
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Stage and provision a resource account to a user.
+     * @param usrKey        OIM User Key (USR.USR_KEY)
+     * @param appInst       Application instance of the account
+     * @param parentData    Data to populate the parent process form
+     * @param childData     Data to populate the child process form(s)
+     * @return Account Id (OIU_KEY)
+     * @throws UserNotFoundException
+     * @throws GenericProvisioningException
+     * @throws ApplicationInstanceNotFoundException
+     * @throws oracle.iam.platform.authopss.exception.AccessDeniedException 
+     */
+    private Long provisionAccount(String usrKey, ApplicationInstance appInst, Map<String,Object> parentData, Map<String, ArrayList<ChildTableRecord>> childData) throws UserNotFoundException, GenericProvisioningException, ApplicationInstanceNotFoundException, oracle.iam.platform.authopss.exception.AccessDeniedException
+    {
         // Get information required provisioning resource account
-        String usrKey = user.getId(); // Get usr_key of OIM User
         Long resourceFormKey = appInst.getAccountForm().getFormKey(); // Get Process Form Key (SDK_KEY)
-        logger.log(ODLLevel.NOTIFICATION, "Resource Process Form Key: {0}", new Object[]{resourceFormKey});
+        logger.log(ODLLevel.TRACE, "Resource Process Form Key: {0}", new Object[]{resourceFormKey});
         String udTablePrimaryKey = null;
         
         // Construct-Stage Resource Account 
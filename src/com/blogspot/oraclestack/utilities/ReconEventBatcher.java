@@ -0,0 +1,153 @@
+package com.blogspot.oraclestack.utilities;
+
+import Thor.API.Exceptions.tcAPIException;
+import java.util.ArrayList;
+import java.util.List;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+import oracle.iam.reconciliation.api.BatchAttributes;
+import oracle.iam.reconciliation.api.FailedInputData;
+import oracle.iam.reconciliation.api.InputData;
+import oracle.iam.reconciliation.api.ReconOperationsService;
+import oracle.iam.reconciliation.api.ReconciliationResult;
+
+/**
+ * Buffers reconciliation events and creates them in OIM with a single 
+ * createReconciliationEvents call per batch instead of one call per event.
+ * A full buffer is flushed automatically before the next event is added, so the
+ * buffer never holds more than one batch; call flush() after the last event.
+ * If a flush fails, the batch stays buffered and the event being added is not,
+ * so retrying add() or flush() neither loses nor duplicates events. Thread safe.
+ * @author rayedchan
+ */
+public class ReconEventBatcher
+{
+    // Logger
+    private static final ODLLogger logger = ODLLogger.getODLLogger(ReconEventBatcher.class.getName());
+
+    // Default number of events per createReconciliationEvents call
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final ReconOperationsService reconOps;
+    private final BatchAttributes batchAttrs;
+    private final int batchSize;
+    private final List<InputData> buffer;
+
+    // Statistics
+    private long submittedCount = 0L;
+    private long failedCount = 0L;
+    private int batchCount = 0;
+
+    /**
+     * Constructor
+     * @param reconOps      OIM Reconciliation Operations Service
+     * @param batchAttrs    Resource object, date format and duplicate handling shared by every event
+     * @param batchSize     Number of events per createReconciliationEvents call
+     */
+    public ReconEventBatcher(ReconOperationsService reconOps, BatchAttributes batchAttrs, int batchSize)
+    {
+        this.reconOps = reconOps;
+        this.batchAttrs = batchAttrs;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.buffer = new ArrayList<InputData>(this.batchSize);
+    }
+
+    /**
+     * Add an event to the current batch. A full batch is created in OIM first; if that
+     * fails, the event is not added and the call can be retried with the same event.
+     * @param event Reconciliation event data
+     * @throws tcAPIException
+     */
+    public synchronized void add(InputData event) throws tcAPIException
+    {
+        if(buffer.size() >= batchSize)
+        {
+            flush();
+        }
+
+        buffer.add(event);
+    }
+
+    /**
+     * Create the buffered events in OIM. The events stay buffered if the call fails
+     * so the caller can retry the flush.
+     * @throws tcAPIException
+     */
+    public synchronized void flush() throws tcAPIException
+    {
+        if(buffer.isEmpty())
+        {
+            return;
+        }
+
+        InputData[] events = new InputData[buffer.size()];
+        buffer.toArray(events);
+
+        long start = System.currentTimeMillis();
+        ReconciliationResult result = reconOps.createReconciliationEvents(batchAttrs, events);
+        buffer.clear();
+        List<FailedInputData> failed = result.getFailedResult();
+        int failedInBatch = failed == null ? 0 : failed.size();
+
+        batchCount++;
+        submittedCount += events.length;
+        failedCount += failedInBatch;
+        logger.log(ODLLevel.NOTIFICATION, "Batch {0}: Created {1} reconciliation events in {2} ms; Failed = {3}", new Object[]{batchCount, events.length - failedInBatch, System.currentTimeMillis() - start, failedInBatch});
+
+        if(failedInBatch > 0)
+        {
+            logger.log(ODLLevel.WARNING, "Failed result: {0}", new Object[]{failed});
+        }
+    }
+
+    /**
+     * Number of events sent to OIM so far
+     * @return Events submitted
+     */
+    public synchronized long getSubmittedCount()
+    {
+        return submittedCount;
+    }
+
+    /**
+     * Number of submitted events OIM created successfully
+     * @return Events created
+     */
+    public synchronized long getSuccessCount()
+    {
+        return submittedCount - failedCount;
+    }
+
+    /**
+     * Number of submitted events OIM failed to create
+     * @return Events failed
+     */
+    public synchronized long getFailedCount()
+    {
+        return failedCount;
+    }
+
+    /**
+     * Number of createReconciliationEvents calls made so far
+     * @return Batches created
+     */
+    public synchronized int getBatchCount()
+    {
+        return batchCount;
+    }
+
+    /**
+     * Number of events waiting for the next flush
+     * @return Buffered events
+     */
+    public synchronized int getPendingCount()
+    {
+        return buffer.size();
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "Batches = " + batchCount + ", Submitted = " + submittedCount + ", Succeeded = " + (submittedCount - failedCount) + ", Failed = " + failedCount + ", Pending = " + buffer.size();
+    }
+}
@@ -5,14 +5,19 @@ import Thor.API.Exceptions.tcAttributeNotFoundException;
 import Thor.API.Exceptions.tcEventDataReceivedException;
 import Thor.API.Exceptions.tcEventNotFoundException;
 import Thor.API.Exceptions.tcObjectNotFoundException;
+import com.blogspot.oraclestack.services.OracleIdentityManagerClient;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import oracle.core.ojdl.logging.ODLLevel;
 import oracle.core.ojdl.logging.ODLLogger;
 import oracle.iam.platform.OIMClient;
+import oracle.iam.reconciliation.api.BatchAttributes;
 import oracle.iam.reconciliation.api.ChangeType;
 import oracle.iam.reconciliation.api.EventAttributes;
+import oracle.iam.reconciliation.api.InputData;
 import oracle.iam.reconciliation.api.ReconOperationsService;
 
 /**
@@ -24,6 +29,9 @@ public class ReconciliationEvents
     // Logger 
     private ODLLogger logger = ODLLogger.getODLLogger(ReconciliationEvents.class.getName());
     
+    // Default date format of date values in batched reconciliation events
+    public static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd";
+    
     // OIM Services
     private final ReconOperationsService reconOps;
     
@@ -36,6 +44,15 @@ public class ReconciliationEvents
         this.reconOps = oimClient.getService(ReconOperationsService.class);
     }
     
+    /**
+     * Constructor
+     * @param oimSession Session whose API services are reused
+     */
+    public ReconciliationEvents(OracleIdentityManagerClient oimSession)
+    {
+        this.reconOps = oimSession.getService(ReconOperationsService.class);
+    }
+    
     /**
      * Creates a reconciliation event and processes the event.
      * This method only handles parent data on the reconciliation event.
@@ -119,4 +136,111 @@ public class ReconciliationEvents
         // this.reconOps.closeReconciliationEvent(reconEventKey);
         // logger.log(ODLLevel.NOTIFICATION, "Closed event.");
     }
+    
+    /**
+     * Creates many reconciliation events with only parent data. Events are sent to OIM
+     * in batches of createReconciliationEvents calls instead of one call per event.
+     * Events with no change are ignored by OIM, same as the single event method.
+     * @param resourceObjName       Name of the Resource Object
+     * @param reconFieldDataList    List of reconciliation field data; one entry per event
+     * @param dateFormat            Format of date values in the reconciliation field data
+     * @param batchSize             Number of events per batch
+     * @return Batcher holding the number of created and failed events
+     * @throws tcAPIException 
+     */
+    public ReconEventBatcher makeReconciliationEvents(String resourceObjName, List<HashMap<String,Object>> reconFieldDataList, String dateFormat, int batchSize) throws tcAPIException
+    {
+        logger.log(ODLLevel.NOTIFICATION, "Enter makeReconciliationEvents() with parameters: Resource Object Name = [{0}], Events = [{1}], Batch Size = [{2}]", new Object[]{resourceObjName, reconFieldDataList.size(), batchSize});
+        ReconEventBatcher batcher = this.createBatcher(resourceObjName, dateFormat, batchSize);
+        
+        for(HashMap<String,Object> reconFieldData : reconFieldDataList)
+        {
+            batcher.add(new InputData(toSerializableMap(reconFieldData), null, true, ChangeType.CHANGELOG, null));
+        }
+        
+        batcher.flush();
+        logger.log(ODLLevel.NOTIFICATION, "Reconciliation events: {0}", new Object[]{batcher});
+        return batcher;
+    }
+    
+    /**
+     * Creates many reconciliation events with parent and child data. The child data is
+     * part of each event, so no event needs to be finished separately, and events are sent 
+     * to OIM in batches of createReconciliationEvents calls.
+     * @param resourceObjName   Name of the Resource Object
+     * @param parentDataList    List of parent data; one entry per event
+     * @param childDataList     List of child data at the same position as the parent data; entries may be null
+     * @param dateFormat        Format of date values in the reconciliation field data
+     * @param batchSize         Number of events per batch
+     * @return Batcher holding the number of created and failed events
+     * @throws tcAPIException 
+     */
+    public ReconEventBatcher makeReconciliationEventsWithChildData(String resourceObjName, List<HashMap<String,Object>> parentDataList, List<HashMap<String, ArrayList<HashMap<String,Object>>>> childDataList, String dateFormat, int batchSize) throws tcAPIException
+    {
+        logger.log(ODLLevel.NOTIFICATION, "Enter makeReconciliationEventsWithChildData() with parameters: Resource Object Name = [{0}], Events = [{1}], Batch Size = [{2}]", new Object[]{resourceObjName, parentDataList.size(), batchSize});
+        ReconEventBatcher batcher = this.createBatcher(resourceObjName, dateFormat, batchSize);
+        
+        for(int i = 0; i < parentDataList.size(); i++)
+        {
+            HashMap<String, ArrayList<HashMap<String,Object>>> childData = childDataList.get(i);
+            Map<String,List<Map<String,Serializable>>> eventChildData = null;
+            
+            // Setup child data on reconciliation event
+            if(childData != null)
+            {
+                eventChildData = new HashMap<String,List<Map<String,Serializable>>>();
+                
+                for (Map.Entry<String, ArrayList<HashMap<String,Object>>> entry : childData.entrySet()) 
+                {
+                    List<Map<String,Serializable>> childRecords = new ArrayList<Map<String,Serializable>>();
+                    
+                    for(HashMap<String,Object> childEntry: entry.getValue())
+                    {
+                        childRecords.add(toSerializableMap(childEntry));
+                    }
+                    
+                    eventChildData.put(entry.getKey(), childRecords);
+                }
+            }
+            
+            batcher.add(new InputData(toSerializableMap(parentDataList.get(i)), eventChildData, true, ChangeType.CHANGELOG, null));
+        }
+        
+        batcher.flush();
+        logger.log(ODLLevel.NOTIFICATION, "Reconciliation events: {0}", new Object[]{batcher});
+        return batcher;
+    }
+    
+    /**
+     * Setup a batcher for a resource object. Duplicate events are ignored by OIM.
+     * @param resourceObjName   Name of the Resource Object
+     * @param dateFormat        Format of date values; null for the default format
+     * @param batchSize         Number of events per batch
+     * @return Reconciliation event batcher
+     */
+    private ReconEventBatcher createBatcher(String resourceObjName, String dateFormat, int batchSize)
+    {
+        boolean ignoreDuplicateEvent = true; // Identical to using IgnoreEvent API
+        BatchAttributes batchAttrs = new BatchAttributes(resourceObjName, dateFormat == null ? DEFAULT_DATE_FORMAT : dateFormat, ignoreDuplicateEvent);
+        return new ReconEventBatcher(this.reconOps, batchAttrs, batchSize);
+    }
+    
+    /**
+     * Convert reconciliation field data to the type required by InputData.
+     * Values which are not serializable are converted to strings.
+     * @param data  Reconciliation field data
+     * @return Serializable reconciliation field data
+     */
+    private static HashMap<String,Serializable> toSerializableMap(Map<String,Object> data)
+    {
+        HashMap<String,Serializable> serializableData = new HashMap<String,Serializable>();
+        
+        for(Map.Entry<String,Object> entry : data.entrySet())
+        {
+            Object value = entry.getValue();
+            serializableData.put(entry.getKey(), value == null || value instanceof Serializable ? (Serializable) value : String.valueOf(value));
+        }
+        
+        return serializableData;
+    }
 }
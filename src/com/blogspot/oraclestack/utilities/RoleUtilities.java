@@ -1,11 +1,22 @@
 package com.blogspot.oraclestack.utilities;
 
+import com.blogspot.oraclestack.objects.BulkItemResult;
+import com.blogspot.oraclestack.objects.BulkOperationReport;
+import com.blogspot.oraclestack.objects.BulkTask;
+import com.blogspot.oraclestack.services.OracleIdentityManagerClient;
 import java.io.FileReader;
 import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import oracle.core.ojdl.logging.ODLLevel;
 import oracle.core.ojdl.logging.ODLLogger;
@@ -47,6 +58,17 @@ public class RoleUtilities
         this.roleMgrOps = oimClient.getService(RoleManager.class);
     }
     
+    /**
+     * Constructor
+     * Precondition: A system administrator is logged in with the session
+     * @param oimSession Session whose API services are reused
+     */
+    public RoleUtilities(OracleIdentityManagerClient oimSession)
+    {
+        this.roleCategoryMgrOps = oimSession.getService(RoleCategoryManager.class);
+        this.roleMgrOps = oimSession.getService(RoleManager.class);
+    }
+    
     /**
      * Creates a single role category. A record is inserted into OIM.ROLE_CATEGORY table.
      * @param roleCategoryName  Name of the role category
@@ -142,6 +164,89 @@ public class RoleUtilities
         }
     }
         
+    /**
+     * Concurrently bulk create role categories from provided CSV file. Entries are
+     * created by a pool of threads and transient failures are retried. Role categories
+     * that already exist are marked as skipped.
+     * Precondition: CSV file must have the proper CSV header
+     * ROLE_CATEGORY_NAME<delimiter>ROLE_CATEGORY_DESC
+     * <name><delimiter><description>
+     * @param csvFilePath       Path to CSV file
+     * @param delimiter         Delimiter to parse an entry in a file
+     * @param numThreads        Number of role categories to create in parallel
+     * @param maxRetries        Number of retries for an entry on a transient failure
+     * @param resultsFilePath   Path to CSV file to write created, skipped and failed entries to; null to skip writing
+     * @return Report containing the outcome and timing of each entry
+     * @throws IOException
+     * @throws InterruptedException 
+     */
+    public BulkOperationReport bulkCreateRoleCategories(String csvFilePath, char delimiter, int numThreads, int maxRetries, String resultsFilePath) throws IOException, InterruptedException
+    {
+        BulkOperationReport report = new BulkOperationReport("Bulk Create Role Categories");
+        ExecutorService threadExecutor = Executors.newFixedThreadPool(numThreads);
+        CSVParser csvParser = null;
+        
+        try
+        {
+            // Objects for parsing CSV file     
+            CSVFormat format = CSVFormat.DEFAULT.withHeader().withDelimiter(delimiter);
+            csvParser = new CSVParser(new FileReader(csvFilePath), format);
+
+            // Submit each entry in csv file excluding the header entry
+            for (CSVRecord record: csvParser)
+            {
+                final String roleCategoryName = record.get("ROLE_CATEGORY_NAME");
+                final String roleCategoryDescription = record.get("ROLE_CATEGORY_DESC");
+                String entryNumber = String.valueOf(record.getRecordNumber());
+                
+                threadExecutor.submit(new BulkTask(entryNumber, roleCategoryName, maxRetries, report)
+                {
+                    @Override
+                    protected String execute() throws Exception
+                    {
+                        createRoleCategory(roleCategoryName, roleCategoryDescription);
+                        return "Created";
+                    }
+
+                    @Override
+                    protected boolean isSkippable(Exception e)
+                    {
+                        return e instanceof RoleCategoryAlreadyExistsException;
+                    }
+
+                    @Override
+                    protected boolean isRetryable(Exception e)
+                    {
+                        return isTransientFailure(e);
+                    }
+                });
+            }
+        }
+        
+        finally
+        {
+            // Wait for submitted entries to complete
+            threadExecutor.shutdown();
+            threadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            
+            // Close parser
+            if(csvParser != null)
+            {
+                csvParser.close();
+            }
+        }
+        
+        report.finish();
+        logger.log(ODLLevel.NOTIFICATION, "{0}", new Object[]{report});
+        
+        if(resultsFilePath != null)
+        {
+            report.writeToCsv(resultsFilePath, delimiter);
+        }
+        
+        return report;
+    }
+        
     /**
      * Obtains all the role categories in OIM. The OIM.ROLE_CATEGORY table contains all the
      * data about role categories.
@@ -161,6 +266,7 @@ public class RoleUtilities
      * Owner Email, Role Namespace, Owner Display Name, Role Key, LDAP GUID, ugp_updateby,
      * Role Category Key, Owner Last Name, ugp_data_level, Role Email, LDAP DN, Owner First Name,
      * Role Category Name}
+     * All roles are returned in a single list; use iterateAllRoles() on large environments.
      * @param returnAttrs   Contains the role attributes to query for. 
      * @return List of Roles
      * @throws AccessDeniedException
@@ -173,6 +279,46 @@ public class RoleUtilities
         return roleMgrOps.search(criteria, returnAttrs, new HashMap());
     }
     
+    /**
+     * Walk all the OIM roles one page at a time. Unlike getAllRoles(), only a single page
+     * of roles is held in memory which allows reporting tools to visit every role.
+     * @param returnAttrs   Role attributes to query for (E.g. Role Name, Role Category Name); null for all attributes
+     * @param pageSize      Number of roles fetched per API call
+     * @return Roles which are fetched as they are iterated
+     */
+    public Iterable<Role> iterateAllRoles(final Set<String> returnAttrs, int pageSize)
+    {
+        // Query based on "Role Name" attribute with any value; ordered by key for stable pages
+        final SearchCriteria criteria = new SearchCriteria(RoleManagerConstants.RoleAttributeName.NAME.getId(), "*", SearchCriteria.Operator.EQUAL);
+        
+        return new PagedSearchResults<Role>(pageSize, RoleManagerConstants.RoleAttributeName.KEY.getId())
+        {
+            @Override
+            protected List<Role> fetchPage(HashMap<String,Object> configParams) throws Exception
+            {
+                return roleMgrOps.search(criteria, returnAttrs, configParams);
+            }
+        };
+    }
+    
+    /**
+     * Walk all the role categories one page at a time.
+     * @param returnAttrs   Role category attributes to query for; empty for all attributes
+     * @param pageSize      Number of role categories fetched per API call
+     * @return Role categories which are fetched as they are iterated
+     */
+    public Iterable<RoleCategory> iterateAllRoleCategories(final Set<String> returnAttrs, int pageSize)
+    {
+        return new PagedSearchResults<RoleCategory>(pageSize, RoleManagerConstants.RoleCategoryAttributeName.KEY.getId())
+        {
+            @Override
+            protected List<RoleCategory> fetchPage(HashMap<String,Object> configParams) throws Exception
+            {
+                return roleCategoryMgrOps.browse(returnAttrs == null ? new HashSet<String>() : returnAttrs, configParams);
+            }
+        };
+    }
+    
     /**
      * Get the role category key by role category name .  
      * @param roleCategoryName  Name of the role category (ROLE_CATEGORY.ROLE_CATEGORY_NAME)
@@ -213,7 +359,22 @@ public class RoleUtilities
     {
         // Get the role category key by role category name
         Long categoryKey = getRoleCategoryKeyByName(categoryName);
-        
+        createRole(roleName, categoryKey, categoryName, description);
+    }
+    
+    /**
+     * Create a single role in OIM using an already resolved role category key.
+     * @param roleName          Name of role to be created
+     * @param categoryKey       Key of the role category (ROLE_CATEGORY.ROLE_CATEGORY_KEY)
+     * @param categoryName      Name of the role category; used for logging
+     * @param description       Description of the new role
+     * @throws ValidationFailedException
+     * @throws AccessDeniedException
+     * @throws RoleAlreadyExistsException
+     * @throws RoleCreateException 
+     */
+    private void createRole(String roleName, Long categoryKey, String categoryName, String description) throws ValidationFailedException, AccessDeniedException, RoleAlreadyExistsException, RoleCreateException
+    {
         // Set the attributes for a Role
         HashMap attrs = new HashMap();
         attrs.put(RoleManagerConstants.RoleAttributeName.NAME.getId(), roleName); // Set "Role Name"
@@ -312,6 +473,179 @@ public class RoleUtilities
         }
     }
     
+    /**
+     * Concurrently bulk create roles given in a CSV file. Every role category referenced
+     * in the file is resolved once, and created if it does not exist, before any role is created.
+     * Roles are then created by a pool of threads and transient failures are retried.
+     * Roles that already exist are marked as skipped.
+     * Precondition: CSV file must have proper format. The first line is the header.
+     * UGP_ROLENAME<delimiter>ROLE_CATEGORY_NAME<delimiter>UGP_DESCRIPTION
+     * roleName<delimiter>categoryName<delimiter>description
+     * @param csvFilePath       Path to CSV file that contains role data
+     * @param delimiter         A character used for separating the values in an entry
+     * @param numThreads        Number of roles to create in parallel
+     * @param maxRetries        Number of retries for an entry on a transient failure
+     * @param resultsFilePath   Path to CSV file to write created, skipped and failed entries to; null to skip writing
+     * @return Report containing the outcome and timing of each entry
+     * @throws IOException
+     * @throws InterruptedException 
+     */
+    public BulkOperationReport bulkCreateRoles(String csvFilePath, char delimiter, int numThreads, int maxRetries, String resultsFilePath) throws IOException, InterruptedException
+    {
+        BulkOperationReport report = new BulkOperationReport("Bulk Create Roles");
+        List<CSVRecord> records = new ArrayList<CSVRecord>();
+        Set<String> categoryNames = new LinkedHashSet<String>();
+        CSVParser csvParser = null;
+        
+        try
+        {
+            // Read every entry to find out which role categories are referenced
+            CSVFormat format = CSVFormat.DEFAULT.withHeader().withDelimiter(delimiter);
+            csvParser = new CSVParser(new FileReader(csvFilePath), format);
+            
+            for (CSVRecord record: csvParser)
+            {
+                records.add(record);
+                categoryNames.add(record.get("ROLE_CATEGORY_NAME"));
+            }
+        }
+        
+        finally
+        {
+            if(csvParser != null)
+            {
+                csvParser.close();
+            }
+        }
+        
+        // Role categories must exist before the roles are created
+        Map<String,Long> categoryKeys = ensureRoleCategoriesExist(categoryNames, maxRetries);
+        logger.log(ODLLevel.NOTIFICATION, "Resolved {0} of {1} role categories: {2}", new Object[]{categoryKeys.size(), categoryNames.size(), categoryKeys});
+        
+        ExecutorService threadExecutor = Executors.newFixedThreadPool(numThreads);
+        
+        try
+        {
+            for (CSVRecord record: records)
+            {
+                final String roleName = record.get("UGP_ROLENAME");
+                final String roleCategoryName = record.get("ROLE_CATEGORY_NAME");
+                final String roleDescription = record.get("UGP_DESCRIPTION");
+                final Long categoryKey = categoryKeys.get(roleCategoryName);
+                String entryNumber = String.valueOf(record.getRecordNumber());
+                
+                // Role category could neither be found nor created
+                if(categoryKey == null)
+                {
+                    report.add(new BulkItemResult(entryNumber, roleName, BulkItemResult.Status.FAILED, 0, 0L, MessageFormat.format("Role category {0} could not be resolved", new Object[]{roleCategoryName})));
+                    continue;
+                }
+                
+                threadExecutor.submit(new BulkTask(entryNumber, roleName, maxRetries, report)
+                {
+                    @Override
+                    protected String execute() throws Exception
+                    {
+                        createRole(roleName, categoryKey, roleCategoryName, roleDescription);
+                        return "Created";
+                    }
+
+                    @Override
+                    protected boolean isSkippable(Exception e)
+                    {
+                        return e instanceof RoleAlreadyExistsException;
+                    }
+
+                    @Override
+                    protected boolean isRetryable(Exception e)
+                    {
+                        return isTransientFailure(e);
+                    }
+                });
+            }
+        }
+        
+        finally
+        {
+            // Wait for submitted entries to complete
+            threadExecutor.shutdown();
+            threadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        
+        report.finish();
+        logger.log(ODLLevel.NOTIFICATION, "{0}", new Object[]{report});
+        
+        if(resultsFilePath != null)
+        {
+            report.writeToCsv(resultsFilePath, delimiter);
+        }
+        
+        return report;
+    }
+    
+    /**
+     * Get the key of each given role category. Role categories that do not
+     * exist are created.
+     * @param categoryNames     Names of the role categories
+     * @param maxRetries        Number of retries for a role category on a transient failure
+     * @return Map of role category name to role category key; Unresolved role categories are excluded
+     */
+    private Map<String,Long> ensureRoleCategoriesExist(Set<String> categoryNames, int maxRetries)
+    {
+        final Map<String,Long> categoryKeys = new HashMap<String,Long>();
+        
+        for(final String categoryName : categoryNames)
+        {
+            new BulkTask(categoryName, categoryName, maxRetries, null)
+            {
+                @Override
+                protected String execute() throws Exception
+                {
+                    try
+                    {
+                        categoryKeys.put(categoryName, getRoleCategoryKeyByName(categoryName));
+                    }
+
+                    catch(NoSuchRoleCategoryException e)
+                    {
+                        try
+                        {
+                            createRoleCategory(categoryName, "");
+                        }
+
+                        catch(RoleCategoryAlreadyExistsException ex)
+                        {
+                            logger.log(ODLLevel.NOTIFICATION, "Role Category {0} was created by another process", new Object[]{categoryName});
+                        }
+
+                        categoryKeys.put(categoryName, getRoleCategoryKeyByName(categoryName));
+                    }
+                    
+                    return String.valueOf(categoryKeys.get(categoryName));
+                }
+
+                @Override
+                protected boolean isRetryable(Exception e)
+                {
+                    return isTransientFailure(e);
+                }
+            }.call();
+        }
+        
+        return categoryKeys;
+    }
+    
+    /**
+     * Determines if a failed OIM API call may succeed on another attempt. 
+     * Validation, authorization and lookup failures are permanent.
+     * @param e Exception thrown by OIM API
+     * @return true if the call can be retried
+     */
+    private static boolean isTransientFailure(Exception e)
+    {
+        return !(e instanceof ValidationFailedException || e instanceof AccessDeniedException || e instanceof SearchKeyNotUniqueException || e instanceof NoSuchRoleCategoryException);
+    }
+    
     /**
      * Get all the role memberships from a single user.
      * Relevant tables to get user's role membership:
@@ -328,6 +662,28 @@ public class RoleUtilities
         return roleMgrOps.getUserMemberships(userKey, getIndirectAndDirectRoleMembership);
     }
     
+    /**
+     * Walk the role memberships of a single user one page at a time.
+     * @param userKey       The user key from USR.USR_KEY column
+     * @param returnAttrs   Role attributes to query for; null for all attributes
+     * @param pageSize      Number of roles fetched per API call
+     * @param direct        true for direct memberships only; false to include indirect memberships
+     * @return Roles of the user which are fetched as they are iterated
+     */
+    public Iterable<Role> iterateRoleMembershipsOfAUser(final String userKey, final Set<String> returnAttrs, int pageSize, final boolean direct)
+    {
+        final SearchCriteria criteria = new SearchCriteria(RoleManagerConstants.RoleAttributeName.NAME.getId(), "*", SearchCriteria.Operator.EQUAL);
+        
+        return new PagedSearchResults<Role>(pageSize, RoleManagerConstants.RoleAttributeName.KEY.getId())
+        {
+            @Override
+            protected List<Role> fetchPage(HashMap<String,Object> configParams) throws Exception
+            {
+                return roleMgrOps.getUserMemberships(userKey, criteria, returnAttrs, configParams, direct);
+            }
+        };
+    }
+    
     /**
      * Get the role key based on the role name.
      * @param roleName  Name of the role (UGP.UGP_NAME)
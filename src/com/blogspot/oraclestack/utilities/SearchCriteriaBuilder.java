@@ -0,0 +1,207 @@
+package com.blogspot.oraclestack.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import oracle.iam.platform.entitymgr.vo.SearchCriteria;
+
+/**
+ * Builds search criteria matching an attribute against many values without the
+ * left-deep OR chain produced by folding the values one at a time. The values
+ * become either a single IN criteria or a balanced tree of OR criteria, whose depth
+ * grows with log2 of the number of values instead of linearly, so the generated SQL
+ * predicate stays shallow. Criteria built by anyOf() are cached by attribute, style
+ * and set of values, so the same lookup content is compiled once; a changed lookup
+ * gives a new fingerprint. Cached criteria are shared and must not be modified.
+ * Thread safe.
+ * @author rayedchan
+ */
+public class SearchCriteriaBuilder
+{
+    /**
+     * Shape of the criteria built for a set of values
+     */
+    public enum Style
+    {
+        IN, // attribute IN (v1, v2, ...); only for search APIs supporting the IN operator
+        BALANCED_OR // ((attribute = v1 OR attribute = v2) OR (attribute = v3 OR attribute = v4))
+    }
+
+    // Number of compiled criteria kept
+    private static final int MAX_CACHED = 256;
+
+    // Compiled criteria by fingerprint; guarded by itself
+    private static final Map<String,SearchCriteria> CACHE = new LinkedHashMap<String,SearchCriteria>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,SearchCriteria> eldest)
+        {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    // Metrics
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private SearchCriteriaBuilder()
+    {
+    }
+
+    /**
+     * Get the criteria matching any of the values, compiled once per set of values
+     * @param searchAttribute   Search Attribute (E.g. ProvisioningConstants.AccountSearchAttribute.DISPLAY_NAME.getId())
+     * @param values            Values to match; order and duplicates do not matter
+     * @param style             Shape of the criteria
+     * @return Criteria or null if there are no values
+     */
+    public static SearchCriteria anyOf(String searchAttribute, Collection<String> values, Style style)
+    {
+        if(values == null || values.isEmpty())
+        {
+            return null;
+        }
+
+        // Sorted so the same set of values gives the same fingerprint
+        TreeSet<String> sorted = new TreeSet<String>(values);
+        StringBuilder fingerprint = new StringBuilder(style.name()).append('\u0000').append(searchAttribute);
+
+        for(String value : sorted)
+        {
+            fingerprint.append('\u0000').append(value);
+        }
+
+        String key = fingerprint.toString();
+        SearchCriteria criteria;
+
+        synchronized(CACHE)
+        {
+            criteria = CACHE.get(key);
+        }
+
+        if(criteria != null)
+        {
+            HITS.incrementAndGet();
+            return criteria;
+        }
+
+        MISSES.incrementAndGet();
+        criteria = style == Style.IN ? in(searchAttribute, sorted) : balancedOr(searchAttribute, sorted);
+
+        synchronized(CACHE)
+        {
+            CACHE.put(key, criteria);
+        }
+
+        return criteria;
+    }
+
+    /**
+     * Build a single IN criteria; a single value gives an EQUAL criteria
+     * @param searchAttribute   Search Attribute
+     * @param values            Values to match
+     * @return Criteria or null if there are no values
+     */
+    public static SearchCriteria in(String searchAttribute, Collection<String> values)
+    {
+        if(values == null || values.isEmpty())
+        {
+            return null;
+        }
+
+        if(values.size() == 1)
+        {
+            return new SearchCriteria(searchAttribute, values.iterator().next(), SearchCriteria.Operator.EQUAL);
+        }
+
+        return new SearchCriteria(searchAttribute, new ArrayList<String>(values), SearchCriteria.Operator.IN);
+    }
+
+    /**
+     * Build a balanced tree of OR criteria, one EQUAL criteria per value
+     * @param searchAttribute   Search Attribute
+     * @param values            Values to match
+     * @return Criteria or null if there are no values
+     */
+    public static SearchCriteria balancedOr(String searchAttribute, Collection<String> values)
+    {
+        if(values == null || values.isEmpty())
+        {
+            return null;
+        }
+
+        List<SearchCriteria> leaves = new ArrayList<SearchCriteria>(values.size());
+
+        for(String value : values)
+        {
+            leaves.add(new SearchCriteria(searchAttribute, value, SearchCriteria.Operator.EQUAL));
+        }
+
+        return combine(leaves, SearchCriteria.Operator.OR);
+    }
+
+    /**
+     * Join criteria with an operator as a balanced tree
+     * E.g. [c1, c2, c3, c4] with OR gives (c1 OR c2) OR (c3 OR c4)
+     * @param criteria  Criteria to join
+     * @param operator  SearchCriteria.Operator.AND or SearchCriteria.Operator.OR
+     * @return Joined criteria or null if there are none
+     */
+    public static SearchCriteria combine(List<SearchCriteria> criteria, SearchCriteria.Operator operator)
+    {
+        if(criteria == null || criteria.isEmpty())
+        {
+            return null;
+        }
+
+        // Join neighbours pairwise until one criteria is left
+        List<SearchCriteria> level = criteria;
+
+        while(level.size() > 1)
+        {
+            List<SearchCriteria> next = new ArrayList<SearchCriteria>((level.size() + 1) / 2);
+
+            for(int i = 0; i < level.size(); i += 2)
+            {
+                next.add(i + 1 < level.size() ? new SearchCriteria(level.get(i), level.get(i + 1), operator) : level.get(i));
+            }
+
+            level = next;
+        }
+
+        return level.get(0);
+    }
+
+    /**
+     * Get the number of anyOf() calls answered from the cache since startup
+     * @return Hit count
+     */
+    public static long getHitCount()
+    {
+        return HITS.get();
+    }
+
+    /**
+     * Get the number of criteria compiled by anyOf() since startup
+     * @return Miss count
+     */
+    public static long getMissCount()
+    {
+        return MISSES.get();
+    }
+
+    /**
+     * Remove every compiled criteria from the cache
+     */
+    public static void clear()
+    {
+        synchronized(CACHE)
+        {
+            CACHE.clear();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.blogspot.oraclestack.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+import oracle.iam.identity.exception.NoSuchUserException;
+import oracle.iam.identity.exception.UserLookupException;
+import oracle.iam.identity.exception.UserSearchException;
+import oracle.iam.identity.usermgmt.api.UserManager;
+import oracle.iam.identity.usermgmt.api.UserManagerConstants;
+import oracle.iam.identity.usermgmt.vo.User;
+import oracle.iam.platform.authz.exception.AccessDeniedException;
+import oracle.iam.platform.entitymgr.vo.SearchCriteria;
+
+/**
+ * Resolves OIM User Logins (USR_LOGIN) to user keys (USR_KEY) and remembers the
+ * most recently used results in a bounded LRU cache. User Logins are compared
+ * case insensitively. A single instance is meant to be shared by all the utility
+ * classes of a job so every login is looked up at most once. Thread safe.
+ * @author rayedchan
+ */
+public class UserKeyResolver
+{
+    // Logger
+    private static final ODLLogger logger = ODLLogger.getODLLogger(UserKeyResolver.class.getName());
+
+    // Default number of logins kept in the cache
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    // Maximum number of values in a single IN search criteria
+    private static final int MAX_IN_VALUES = 1000;
+
+    private final UserManager usrMgr;
+    private final Map<String,String> cache; // Upper case USR_LOGIN to USR_KEY; guarded by itself
+
+    /**
+     * Constructor using the default cache size
+     * @param usrMgr OIM User Manager Service
+     */
+    public UserKeyResolver(UserManager usrMgr)
+    {
+        this(usrMgr, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Constructor
+     * @param usrMgr        OIM User Manager Service
+     * @param maxEntries    Maximum number of logins kept in the cache
+     */
+    public UserKeyResolver(UserManager usrMgr, final int maxEntries)
+    {
+        this.usrMgr = usrMgr;
+        this.cache = new LinkedHashMap<String,String>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,String> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get the OIM User's USR_KEY
+     * @param userLogin OIM User Login (USR_LOGIN)
+     * @return value of USR_KEY
+     * @throws NoSuchUserException
+     * @throws UserLookupException
+     */
+    public String resolve(String userLogin) throws NoSuchUserException, UserLookupException
+    {
+        String cacheKey = userLogin.toUpperCase();
+        String userKey;
+
+        synchronized(cache)
+        {
+            userKey = cache.get(cacheKey);
+        }
+
+        if(userKey == null)
+        {
+            boolean userLoginUsed = true;
+            HashSet<String> attrsToFetch = new HashSet<String>();
+            attrsToFetch.add(UserManagerConstants.AttributeName.USER_KEY.getId());
+            attrsToFetch.add(UserManagerConstants.AttributeName.USER_LOGIN.getId());
+            User user = usrMgr.getDetails(userLogin, attrsToFetch, userLoginUsed);
+            logger.log(ODLLevel.TRACE, "User Details: {0}", new Object[]{user});
+            userKey = user.getEntityId();
+
+            synchronized(cache)
+            {
+                cache.put(cacheKey, userKey);
+            }
+        }
+
+        return userKey;
+    }
+
+    /**
+     * Resolve many User Logins at once. Logins missing from the cache are fetched
+     * with an IN search on User Login, at most 1000 logins per search.
+     * @param userLogins OIM User Logins (USR_LOGIN)
+     * @return USR_KEY by User Login as given; logins without a user are not in the map
+     * @throws UserSearchException
+     * @throws AccessDeniedException
+     */
+    public Map<String,String> resolveAll(Collection<String> userLogins) throws UserSearchException, AccessDeniedException
+    {
+        Map<String,String> resolved = new HashMap<String,String>();
+        Map<String,List<String>> unresolved = new LinkedHashMap<String,List<String>>(); // Upper case login to logins as given
+
+        // Take what is already cached
+        synchronized(cache)
+        {
+            for(String userLogin : new LinkedHashSet<String>(userLogins))
+            {
+                String cacheKey = userLogin.toUpperCase();
+                String userKey = cache.get(cacheKey);
+
+                if(userKey != null)
+                {
+                    resolved.put(userLogin, userKey);
+                }
+
+                else
+                {
+                    List<String> given = unresolved.get(cacheKey);
+
+                    if(given == null)
+                    {
+                        given = new ArrayList<String>();
+                        unresolved.put(cacheKey, given);
+                    }
+
+                    given.add(userLogin);
+                }
+            }
+        }
+
+        logger.log(ODLLevel.TRACE, "Resolving {0} logins; {1} found in cache", new Object[]{resolved.size() + unresolved.size(), resolved.size()});
+
+        // Search the remaining logins in chunks
+        Set<String> retAttrs = new HashSet<String>();
+        retAttrs.add(UserManagerConstants.AttributeName.USER_KEY.getId());
+        retAttrs.add(UserManagerConstants.AttributeName.USER_LOGIN.getId());
+        List<String> pending = new ArrayList<String>();
+
+        for(List<String> given : unresolved.values())
+        {
+            pending.add(given.get(0));
+        }
+
+        for(int start = 0; start < pending.size(); start += MAX_IN_VALUES)
+        {
+            List<String> chunk = new ArrayList<String>(pending.subList(start, Math.min(start + MAX_IN_VALUES, pending.size())));
+            SearchCriteria criteria = SearchCriteriaBuilder.in(UserManagerConstants.AttributeName.USER_LOGIN.getId(), chunk);
+            List<User> users = usrMgr.search(criteria, retAttrs, new HashMap<String,Object>());
+
+            synchronized(cache)
+            {
+                for(User user : users)
+                {
+                    String cacheKey = String.valueOf(user.getAttribute(UserManagerConstants.AttributeName.USER_LOGIN.getId())).toUpperCase();
+                    List<String> given = unresolved.get(cacheKey);
+                    cache.put(cacheKey, user.getEntityId());
+
+                    if(given != null)
+                    {
+                        for(String userLogin : given)
+                        {
+                            resolved.put(userLogin, user.getEntityId());
+                        }
+                    }
+                }
+            }
+        }
+
+        return resolved;
+    }
+
+    /**
+     * Remove a User Login from the cache (E.g. after the user is deleted or renamed)
+     * @param userLogin OIM User Login (USR_LOGIN)
+     */
+    public void invalidate(String userLogin)
+    {
+        synchronized(cache)
+        {
+            cache.remove(userLogin.toUpperCase());
+        }
+    }
+
+    /**
+     * Remove every User Login from the cache
+     */
+    public void clear()
+    {
+        synchronized(cache)
+        {
+            cache.clear();
+        }
+    }
+}
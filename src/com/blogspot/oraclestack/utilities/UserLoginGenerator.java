@@ -0,0 +1,523 @@
+package com.blogspot.oraclestack.utilities;
+
+import com.blogspot.oraclestack.services.PlatformServices;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import oracle.core.ojdl.logging.ODLLevel;
+import oracle.core.ojdl.logging.ODLLogger;
+import oracle.iam.identity.exception.NoSuchUserException;
+import oracle.iam.identity.usermgmt.api.UserManager;
+import oracle.iam.identity.usermgmt.api.UserManagerConstants;
+import oracle.iam.identity.usermgmt.vo.User;
+import oracle.iam.platform.entitymgr.vo.SearchCriteria;
+
+/**
+ * Generates unique OIM User Logins (USR_LOGIN) without searching OIM per candidate.
+ * Every existing login is loaded with a paged scan into a sorted array fronted by
+ * a Bloom filter. The scan runs on a background thread, started on first use and again
+ * once the index is older than the maximum age, and the new index is swapped in when
+ * the scan completes; creates keep using the previous index meanwhile. Until the first
+ * scan completes, candidates are checked with a single user lookup each, made without
+ * holding the lock so other creates are not held up by it.
+ * Logins handed out since the last load are kept in a reserved set so two creates
+ * in flight never receive the same login; releaseIfNotCreated() frees the generated
+ * login of a failed create. Logins are compared in upper case. Thread safe.
+ *
+ * Logins are unique within this JVM only: each server of a cluster has its own
+ * reservations, and users created outside of this generator (or on another server)
+ * after the last load are not seen until the next reload. OIM still rejects a
+ * duplicate login on create in that window.
+ *
+ * The shared instance is configured with the system property
+ * oimutilities.loginIndex.maxAgeMillis (default 15 minutes).
+ * @author rayedchan
+ */
+public class UserLoginGenerator
+{
+    // Logger
+    private static final ODLLogger LOGGER = ODLLogger.getODLLogger(UserLoginGenerator.class.getName());
+
+    // Configuration of the shared instance
+    public static final String MAX_AGE_PROPERTY = "oimutilities.loginIndex.maxAgeMillis";
+    public static final long DEFAULT_MAX_AGE_MILLIS = 15L * 60L * 1000L;
+
+    // Number of suffixes tried for a base login before giving up
+    private static final int MAX_SUFFIX = 100000;
+
+    private static UserLoginGenerator shared; // guarded by UserLoginGenerator.class
+
+    // Runs the full scans of every generator
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "UserLoginGeneratorLoader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final UserManager usrMgr;
+    private final long maxAgeMillis;
+    private final int pageSize;
+
+    // Index of existing logins; guarded by this
+    private String[] existing = new String[0];
+    private BloomFilter filter = new BloomFilter(0);
+    private final Map<String,Boolean> reserved = new HashMap<String,Boolean>(); // Value = true if generated here
+    private long loadedTime = -1L;
+    private boolean loading = false;
+    private boolean invalidated = false;
+
+    /**
+     * Constructor using the default maximum age and page size
+     * @param usrMgr    OIM User Manager Service
+     */
+    public UserLoginGenerator(UserManager usrMgr)
+    {
+        this(usrMgr, DEFAULT_MAX_AGE_MILLIS, PagedSearchResults.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param usrMgr        OIM User Manager Service
+     * @param maxAgeMillis  Age of the index in milliseconds before a full reload; 0 or less to never reload
+     * @param pageSize      Number of users fetched per API call during a full load
+     */
+    public UserLoginGenerator(UserManager usrMgr, long maxAgeMillis, int pageSize)
+    {
+        this.usrMgr = usrMgr;
+        this.maxAgeMillis = maxAgeMillis;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Get the instance shared by the event handlers of this JVM
+     * @return Shared generator
+     */
+    public static synchronized UserLoginGenerator getShared()
+    {
+        if(shared == null)
+        {
+            UserManager usrMgr = PlatformServices.getServiceForEventHandlers(UserManager.class, "ADMIN", "UserLoginGenerator");
+            shared = new UserLoginGenerator(usrMgr, Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE_MILLIS), PagedSearchResults.DEFAULT_PAGE_SIZE);
+        }
+
+        return shared;
+    }
+
+    /**
+     * Generate and reserve a unique login for each base login.
+     * A base login which is free is returned as is; otherwise the first free
+     * candidate of base + 1, base + 2, ... is returned.
+     * @param baseLogins    Preferred logins (E.g. first initial and last name); duplicates are allowed
+     * @return Reserved logins in upper case, in the same order as the base logins; null
+     *         for a base login whose candidates could not be checked in OIM
+     */
+    public List<String> reserve(List<String> baseLogins)
+    {
+        List<String> logins = new ArrayList<String>(baseLogins.size());
+
+        for(String baseLogin : baseLogins)
+        {
+            logins.add(this.reserve(baseLogin.toUpperCase()));
+        }
+
+        LOGGER.log(ODLLevel.TRACE, "Reserved logins {0} for {1}", new Object[]{logins, baseLogins});
+        return logins;
+    }
+
+    /**
+     * Mark logins chosen by the caller as in use so they are never generated.
+     * They are not freed by releaseIfNotCreated().
+     * @param userLogins    User Logins (USR_LOGIN)
+     */
+    public synchronized void markUsed(List<String> userLogins)
+    {
+        for(String userLogin : userLogins)
+        {
+            String login = userLogin.toUpperCase();
+
+            if(!reserved.containsKey(login))
+            {
+                reserved.put(login, Boolean.FALSE);
+            }
+        }
+    }
+
+    /**
+     * Release the logins generated for creates which failed. A login is only released
+     * if this generator produced it and no user has it in OIM; a login which cannot be
+     * checked stays reserved.
+     * @param userLogins    User Logins (USR_LOGIN) of the failed creates
+     * @return Number of logins released
+     */
+    public int releaseIfNotCreated(List<String> userLogins)
+    {
+        int released = 0;
+
+        for(String userLogin : userLogins)
+        {
+            String login = userLogin.toUpperCase();
+
+            synchronized(this)
+            {
+                if(!Boolean.TRUE.equals(reserved.get(login)))
+                {
+                    continue;
+                }
+            }
+
+            try
+            {
+                if(existsInOIM(login))
+                {
+                    continue;
+                }
+            }
+
+            catch(IllegalStateException e)
+            {
+                LOGGER.log(ODLLevel.WARNING, "Keeping login " + login + " reserved", e);
+                continue;
+            }
+
+            synchronized(this)
+            {
+                if(Boolean.TRUE.equals(reserved.get(login)))
+                {
+                    reserved.remove(login);
+                    released++;
+                }
+            }
+        }
+
+        LOGGER.log(ODLLevel.TRACE, "Released {0} of logins {1}", new Object[]{released, userLogins});
+        return released;
+    }
+
+    /**
+     * Check whether a login exists in OIM as of the last load or has been reserved since.
+     * Before the first load completes, the login is looked up in OIM.
+     * @param userLogin User Login (USR_LOGIN)
+     * @return true if the login cannot be generated
+     */
+    public boolean isTaken(String userLogin)
+    {
+        String login = userLogin.toUpperCase();
+
+        synchronized(this)
+        {
+            refreshIfStale();
+
+            if(isTakenLocked(login))
+            {
+                return true;
+            }
+
+            if(loadedTime >= 0)
+            {
+                return false;
+            }
+        }
+
+        return existsInOIM(login);
+    }
+
+    /**
+     * Discard the age of the index. The next call starts a full load in the background.
+     */
+    public synchronized void invalidate()
+    {
+        invalidated = true;
+    }
+
+    /**
+     * Load every existing login with a paged scan on the calling thread and swap in
+     * the new index. The lock is only held for the swap.
+     * Reservations which now exist in OIM are dropped; the others are kept
+     * since their creates may still be in flight.
+     */
+    public void reload()
+    {
+        long start = System.currentTimeMillis();
+        final SearchCriteria criteria = new SearchCriteria(UserManagerConstants.AttributeName.USER_LOGIN.getId(), "*", SearchCriteria.Operator.EQUAL);
+        final Set<String> retAttrs = new HashSet<String>();
+        retAttrs.add(UserManagerConstants.AttributeName.USER_LOGIN.getId());
+        PagedSearchResults<User> users = new PagedSearchResults<User>(pageSize, UserManagerConstants.AttributeName.USER_LOGIN.getId())
+        {
+            @Override
+            protected List<User> fetchPage(HashMap<String,Object> configParams) throws Exception
+            {
+                return usrMgr.search(criteria, retAttrs, configParams);
+            }
+        };
+
+        List<String> logins = new ArrayList<String>();
+
+        for(User user : users)
+        {
+            Object login = user.getAttribute(UserManagerConstants.AttributeName.USER_LOGIN.getId());
+
+            if(login != null)
+            {
+                logins.add(String.valueOf(login).toUpperCase());
+            }
+        }
+
+        String[] sorted = logins.toArray(new String[logins.size()]);
+        Arrays.sort(sorted);
+        BloomFilter newFilter = new BloomFilter(sorted.length);
+
+        for(String login : sorted)
+        {
+            newFilter.add(login);
+        }
+
+        synchronized(this)
+        {
+            existing = sorted;
+            filter = newFilter;
+
+            for(Iterator<String> it = reserved.keySet().iterator(); it.hasNext();)
+            {
+                if(Arrays.binarySearch(existing, it.next()) >= 0)
+                {
+                    it.remove();
+                }
+            }
+
+            loadedTime = System.currentTimeMillis();
+            invalidated = false;
+            LOGGER.log(ODLLevel.NOTIFICATION, "Loaded {0} user logins in {1} ms; {2} reservations pending", new Object[]{existing.length, loadedTime - start, reserved.size()});
+        }
+    }
+
+    /**
+     * Reserve the first free candidate of a base login. Candidates are picked under the
+     * lock; until the first load completes, a candidate is looked up in OIM without the
+     * lock and checked again under the lock before it is reserved.
+     * @param base  Base login in upper case
+     * @return Reserved login or null if a candidate could not be checked in OIM
+     */
+    private String reserve(String base)
+    {
+        int suffix = 0;
+
+        while(true)
+        {
+            String candidate;
+
+            synchronized(this)
+            {
+                refreshIfStale();
+                candidate = base;
+
+                while(isTakenLocked(candidate))
+                {
+                    if(++suffix > MAX_SUFFIX)
+                    {
+                        throw new IllegalStateException("No free login left for " + base);
+                    }
+
+                    candidate = base + suffix;
+                }
+
+                if(loadedTime >= 0)
+                {
+                    reserved.put(candidate, Boolean.TRUE);
+                    return candidate;
+                }
+            }
+
+            boolean exists;
+
+            try
+            {
+                exists = existsInOIM(candidate);
+            }
+
+            catch(IllegalStateException e)
+            {
+                LOGGER.log(ODLLevel.WARNING, "No login generated for " + base, e);
+                return null;
+            }
+
+            synchronized(this)
+            {
+                if(!exists && !isTakenLocked(candidate))
+                {
+                    reserved.put(candidate, Boolean.TRUE);
+                    return candidate;
+                }
+
+                // Remember a login found in OIM until the next load
+                if(exists && !reserved.containsKey(candidate))
+                {
+                    reserved.put(candidate, Boolean.FALSE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check a login against the reservations and the index. Caller must hold the lock.
+     * @param login User Login in upper case
+     * @return true if the login is reserved or was found by the last load
+     */
+    private boolean isTakenLocked(String login)
+    {
+        if(reserved.containsKey(login))
+        {
+            return true;
+        }
+
+        return loadedTime >= 0 && filter.mightContain(login) && Arrays.binarySearch(existing, login) >= 0;
+    }
+
+    /**
+     * Start a background load if the index was never loaded or is older than the
+     * maximum age and no load is running. Caller must hold the lock.
+     */
+    private void refreshIfStale()
+    {
+        boolean stale = loadedTime < 0 || invalidated || (maxAgeMillis > 0 && System.currentTimeMillis() - loadedTime > maxAgeMillis);
+
+        if(!stale || loading)
+        {
+            return;
+        }
+
+        loading = true;
+
+        try
+        {
+            LOADER.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        reload();
+                    }
+
+                    catch(RuntimeException e)
+                    {
+                        LOGGER.log(ODLLevel.WARNING, "Failed to load user logins; the previous index is kept", e);
+                    }
+
+                    finally
+                    {
+                        synchronized(UserLoginGenerator.this)
+                        {
+                            loading = false;
+                        }
+                    }
+                }
+            });
+        }
+
+        catch(RejectedExecutionException e)
+        {
+            loading = false;
+            LOGGER.log(ODLLevel.WARNING, "Failed to start loading user logins", e);
+        }
+    }
+
+    /**
+     * Look up a single login in OIM; used until the first load completes and to
+     * release logins. Never called with the lock held.
+     * @param login User Login in upper case
+     * @return true if a user has the login
+     */
+    private boolean existsInOIM(String login)
+    {
+        try
+        {
+            usrMgr.getDetails(login, new HashSet<String>(), true);
+            return true;
+        }
+
+        catch(NoSuchUserException e)
+        {
+            return false;
+        }
+
+        catch(Exception e)
+        {
+            throw new IllegalStateException("Failed to check user login " + login + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Bloom filter sized for about 1% false positives. Rules out most free
+     * candidates without a binary search of the login array.
+     */
+    private static class BloomFilter
+    {
+        private static final int BITS_PER_ENTRY = 10;
+        private static final int NUM_HASHES = 7;
+
+        private final long[] bits;
+        private final int numBits;
+
+        private BloomFilter(int expectedEntries)
+        {
+            this.numBits = Math.max(64, expectedEntries * BITS_PER_ENTRY);
+            this.bits = new long[(numBits + 63) / 64];
+        }
+
+        private void add(String value)
+        {
+            int h1 = value.hashCode();
+            int h2 = mix(h1);
+
+            for(int i = 0; i < NUM_HASHES; i++)
+            {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+                bits[bit >>> 6] |= 1L << bit;
+            }
+        }
+
+        private boolean mightContain(String value)
+        {
+            int h1 = value.hashCode();
+            int h2 = mix(h1);
+
+            for(int i = 0; i < NUM_HASHES; i++)
+            {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+
+                if((bits[bit >>> 6] & (1L << bit)) == 0)
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        // Second hash for double hashing (finalizer of MurmurHash3)
+        private static int mix(int h)
+        {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h | 1;
+        }
+    }
+}